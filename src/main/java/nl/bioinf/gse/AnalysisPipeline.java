@@ -0,0 +1,293 @@
+package nl.bioinf.gse;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs a single analysis as three overlapping stages connected by bounded queues:
+ * <ol>
+ *     <li>parse: a reader thread parses the gene file and hands the gene records over in batches,
+ *     while the pathways are loaded;</li>
+ *     <li>compute: the batches are counted into the pathway statistics as they arrive, after which the pathways
+ *     are evaluated;</li>
+ *     <li>render: a writer thread prints every result, writes it to the output file and hands it to a result consumer,
+ *     such as the box statistics of the plots, as soon as it is calculated.</li>
+ * </ol>
+ * The gene records are never collected in one list, so the memory used for the genes is bounded by the queue
+ * instead of by the size of the gene file. The results are kept for the plots and the result cache, which need all
+ * pathways at once.
+ */
+public class AnalysisPipeline {
+
+    /**
+     * The number of gene records handed over at a time, at least as many as gene ID type detection samples.
+     */
+    private static final int BATCH_SIZE = 4096;
+    /**
+     * The number of gene batches that can wait for the pathways to be loaded before the reader thread blocks.
+     */
+    private static final int GENE_QUEUE_CAPACITY = 64;
+    /**
+     * The number of results that can wait for the writer thread before the evaluation blocks.
+     */
+    private static final int RESULT_QUEUE_CAPACITY = 1024;
+
+    private static final List<GeneRecord> END_OF_GENES = List.of();
+    private static final GSEARecord END_OF_RESULTS = new GSEARecord("", 1.0, 1.0, 0.0, 0.0, 0.0, "", 0.0);
+
+    /**
+     * Loads the pathways of an analysis.
+     */
+    public interface PathwayLoader {
+        /**
+         * @param sampleGenes The first gene records of the gene file, to detect the gene ID type from.
+         * @return Map of pathway IDs to PathwayRecord objects.
+         * @throws IOException If the pathway files can't be read.
+         */
+        Map<String, PathwayRecord> load(List<GeneRecord> sampleGenes) throws IOException;
+    }
+
+    private final FileParser fileParser;
+    private final int threads;
+    private final String countingBackend;
+    private final MultipleTestingCorrection correction;
+
+    /**
+     * Creates a pipeline.
+     *
+     * @param fileParser      The parser used to read the gene file.
+     * @param threads         The number of threads used to evaluate the pathways and run the permutation test.
+     * @param countingBackend "hash" or "bitset", the DEG counting backend.
+     */
+    public AnalysisPipeline(FileParser fileParser, int threads, String countingBackend) {
+        this(fileParser, threads, countingBackend, new MultipleTestingCorrection.Bonferroni());
+    }
+
+    /**
+     * Creates a pipeline with a multiple testing correction. Only Bonferroni corrected results are rendered while
+     * the next pathways are evaluated, the other corrections need all p-values first.
+     *
+     * @param fileParser      The parser used to read the gene file.
+     * @param threads         The number of threads used to evaluate the pathways and run the permutation test.
+     * @param countingBackend "hash" or "bitset", the DEG counting backend.
+     * @param correction      The multiple testing correction of the p-values.
+     */
+    public AnalysisPipeline(FileParser fileParser, int threads, String countingBackend, MultipleTestingCorrection correction) {
+        this.fileParser = fileParser;
+        this.threads = threads;
+        this.countingBackend = countingBackend;
+        this.correction = correction;
+    }
+
+    /**
+     * Runs the analysis of a gene file, printing and writing the results while they are calculated.
+     *
+     * @param geneFilePath   The path to the gene file.
+     * @param headerLength   The number of header lines of the gene file.
+     * @param treshold       The adjusted p-value threshold for classifying DEGs and non-DEGs.
+     * @param pathwayLoader  Loads the pathways while the gene file is read.
+     * @param permutations   The number of permutations for empirical p-values, 0 skips the permutation test.
+     * @param seed           The seed of the permutation test.
+     * @param pathwayName    The pathway to print, "all_pathways" or "no_pathways".
+     * @param outputFile     The file the results are written to, or null.
+     * @param resultConsumer Receives every result on the writer thread, in order.
+     * @return The results of all pathways.
+     * @throws IOException If a file can't be read or written.
+     * @throws IllegalArgumentException if the pathway name doesn't match a pathway.
+     */
+    public ResultCache.Entry run(String geneFilePath, int headerLength, double treshold, PathwayLoader pathwayLoader,
+                                 int permutations, long seed, String pathwayName, Path outputFile,
+                                 Consumer<GSEARecord> resultConsumer) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // Parse: the reader thread fills the gene queue while the pathways are loaded on this thread
+            BlockingQueue<List<GeneRecord>> geneQueue = new ArrayBlockingQueue<>(GENE_QUEUE_CAPACITY);
+            Future<?> reading = executor.submit(() -> {
+                try (GeneBatcher batcher = new GeneBatcher(geneQueue)) {
+                    fileParser.streamDEGs(geneFilePath, headerLength, batcher);
+                }
+                return null;
+            });
+
+            List<GeneRecord> firstBatch = take(geneQueue);
+            PathwayIndex pathwayIndex = new PathwayIndex(pathwayLoader.load(firstBatch));
+
+            // Compute: count the batches as they arrive; the bitset backend needs all genes at once
+            Map<String, PathwayStatistics> pathwayStatistics;
+            if ("bitset".equalsIgnoreCase(countingBackend)) {
+                List<GeneRecord> geneRecords = new ArrayList<>();
+                for (List<GeneRecord> batch = firstBatch; batch != END_OF_GENES; batch = take(geneQueue)) {
+                    geneRecords.addAll(batch);
+                }
+                get(reading);
+                pathwayStatistics = pathwayIndex.getPathwayBitsets().buildStatistics(geneRecords, treshold);
+            } else {
+                PathwayStatistics.Collector collector = new PathwayStatistics.Collector(pathwayIndex, treshold);
+                for (List<GeneRecord> batch = firstBatch; batch != END_OF_GENES; batch = take(geneQueue)) {
+                    for (GeneRecord geneRecord : batch) {
+                        collector.add(geneRecord);
+                    }
+                }
+                get(reading);
+                pathwayStatistics = collector.toStatistics();
+            }
+
+            if (!pathwayName.equals("all_pathways") && !pathwayName.equals("no_pathways") && !pathwayStatistics.containsKey(pathwayName)) {
+                throw new IllegalArgumentException("Error: No pathway found with ID: " + pathwayName);
+            }
+
+            // The permutation test needs every table, so it runs before the results are streamed
+            Map<String, PermutationResult> empiricalPValues = permutations > 0
+                    ? new PermutationEngine(permutations, seed, threads).calculateEmpiricalPValues(pathwayStatistics)
+                    : Map.of();
+
+            // Render: the writer thread prints and writes every result while the next pathways are evaluated
+            BlockingQueue<GSEARecord> resultQueue = new ArrayBlockingQueue<>(RESULT_QUEUE_CAPACITY);
+            List<GSEARecord> gseaResults = new ArrayList<>(pathwayIndex.size());
+            Future<?> rendering = executor.submit(() -> {
+                render(resultQueue, pathwayName, pathwayStatistics, empiricalPValues, outputFile, resultConsumer);
+                return null;
+            });
+            try {
+                new GSEAFactory(threads, countingBackend, correction).streamGSEA(pathwayIndex, pathwayStatistics, result -> {
+                    gseaResults.add(result);
+                    put(resultQueue, result, rendering);
+                });
+                put(resultQueue, END_OF_RESULTS, rendering);
+            } catch (RuntimeException e) {
+                // A stopped writer thread is reported with its own failure, such as an output file that can't be written
+                if (rendering.isDone()) {
+                    get(rendering);
+                }
+                throw e;
+            }
+            get(rendering);
+
+            return new ResultCache.Entry(gseaResults, pathwayStatistics, empiricalPValues);
+        } finally {
+            // Stops a reader that is still blocked on a full queue after a failure
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Prints, writes and consumes the results from the queue until the end marker arrives.
+     */
+    private static void render(BlockingQueue<GSEARecord> resultQueue, String pathwayName, Map<String, PathwayStatistics> pathwayStatistics,
+                               Map<String, PermutationResult> empiricalPValues, Path outputFile,
+                               Consumer<GSEARecord> resultConsumer) throws IOException, InterruptedException {
+        ResultsWriter resultsWriter = outputFile != null ? new ResultsWriter(outputFile) : null;
+        try {
+            if (resultsWriter != null) {
+                resultsWriter.writeGSEAHeader(!empiricalPValues.isEmpty());
+            }
+            for (GSEARecord result = resultQueue.take(); result != END_OF_RESULTS; result = resultQueue.take()) {
+                if (!pathwayName.equals("no_pathways")) {
+                    TerminalOutput.printGSEAResult(result, pathwayName, pathwayStatistics, empiricalPValues.get(result.pathwayID()));
+                }
+                if (resultsWriter != null) {
+                    resultsWriter.writeGSEAResult(result, empiricalPValues);
+                }
+                resultConsumer.accept(result);
+            }
+        } finally {
+            if (resultsWriter != null) {
+                resultsWriter.close();
+            }
+        }
+    }
+
+    /**
+     * Collects the parsed gene records into batches for the gene queue and adds the end marker when it is closed.
+     */
+    private static class GeneBatcher implements Consumer<GeneRecord>, AutoCloseable {
+        private final BlockingQueue<List<GeneRecord>> geneQueue;
+        private List<GeneRecord> batch = new ArrayList<>(BATCH_SIZE);
+
+        private GeneBatcher(BlockingQueue<List<GeneRecord>> geneQueue) {
+            this.geneQueue = geneQueue;
+        }
+
+        @Override
+        public void accept(GeneRecord geneRecord) {
+            batch.add(geneRecord);
+            if (batch.size() == BATCH_SIZE) {
+                hand(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+
+        @Override
+        public void close() {
+            // The end marker is also sent after a failure, so the counting stage never waits forever
+            if (!batch.isEmpty()) {
+                hand(batch);
+            }
+            hand(END_OF_GENES);
+        }
+
+        private void hand(List<GeneRecord> geneRecords) {
+            try {
+                geneQueue.put(geneRecords);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Reading the gene file was interrupted.", e);
+            }
+        }
+    }
+
+    private static List<GeneRecord> take(BlockingQueue<List<GeneRecord>> geneQueue) {
+        try {
+            return geneQueue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The analysis was interrupted.", e);
+        }
+    }
+
+    /**
+     * Adds a result to the queue, giving up when the writer thread stopped so the evaluation never blocks forever.
+     */
+    private static void put(BlockingQueue<GSEARecord> resultQueue, GSEARecord result, Future<?> rendering) {
+        try {
+            while (!resultQueue.offer(result, 100, TimeUnit.MILLISECONDS)) {
+                if (rendering.isDone()) {
+                    throw new IllegalStateException("Writing the results stopped.");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The analysis was interrupted.", e);
+        }
+    }
+
+    /**
+     * Waits for a stage to finish and rethrows its failure, IOExceptions of the files as they are.
+     */
+    private static void get(Future<?> stage) throws IOException {
+        try {
+            stage.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The analysis was interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            } else if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
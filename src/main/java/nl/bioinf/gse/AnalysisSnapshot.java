@@ -0,0 +1,370 @@
+package nl.bioinf.gse;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * The state of an earlier analysis, so a slightly changed gene file can be re-analysed incrementally.
+ * A snapshot holds the gene records, the statistics and GSEA results of every pathway and the threshold.
+ * When a new gene file is compared to it, the counts of the pathways containing a changed gene are patched by
+ * removing the earlier record of every changed gene and adding its new record, and the global totals are patched
+ * the same way, so the unchanged genes are never looked up. If the totals stay the same the results of the
+ * other pathways are reused, otherwise every pathway is evaluated again from its stored counts.
+ * <p>
+ * Layout, big-endian: magic "GSESNAP", version, threshold, pathway checksum, the gene records and per pathway, in
+ * index order, the counts, the log fold change summaries and the GSEA result. Strings are stored as a length
+ * followed by UTF-8 bytes. The snapshot is read back through a memory mapping.
+ * <p>
+ * A snapshot is tied to a threshold and to the exact pathways it was made with, through a checksum over
+ * the pathway IDs and their genes. A snapshot that doesn't match is ignored, like an outdated PathwayDatabase.
+ */
+public class AnalysisSnapshot {
+
+    private static final byte[] MAGIC = "GSESNAP".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    private final double treshold;
+    private final long pathwayChecksum;
+    private final List<GeneRecord> geneRecords;
+    private final Map<String, PathwayStatistics> pathwayStatistics;
+    private final List<GSEARecord> gseaResults;
+
+    /**
+     * Creates a snapshot of an analysis.
+     *
+     * @param pathwayIndex      The index over the pathways the analysis was run with.
+     * @param treshold          The adjusted p-value threshold of the analysis.
+     * @param geneRecords       The gene records of the analysis.
+     * @param pathwayStatistics Map of pathway IDs to their statistics, in the order of the pathway index.
+     * @param gseaResults       The GSEA results, in the order of the pathway index.
+     */
+    public AnalysisSnapshot(PathwayIndex pathwayIndex, double treshold, List<GeneRecord> geneRecords,
+                            Map<String, PathwayStatistics> pathwayStatistics, List<GSEARecord> gseaResults) {
+        this(checksum(pathwayIndex), treshold, geneRecords, pathwayStatistics, gseaResults);
+    }
+
+    private AnalysisSnapshot(long pathwayChecksum, double treshold, List<GeneRecord> geneRecords,
+                             Map<String, PathwayStatistics> pathwayStatistics, List<GSEARecord> gseaResults) {
+        this.pathwayChecksum = pathwayChecksum;
+        this.treshold = treshold;
+        this.geneRecords = geneRecords;
+        this.pathwayStatistics = pathwayStatistics;
+        this.gseaResults = gseaResults;
+    }
+
+    /**
+     * Calculates a CRC32C checksum over the pathway IDs and the gene IDs of every pathway, in index order.
+     *
+     * @param pathwayIndex The index over all pathways.
+     * @return The checksum of the pathways.
+     */
+    static long checksum(PathwayIndex pathwayIndex) {
+        CRC32C crc = new CRC32C();
+        Map<String, PathwayRecord> pathwayRecords = pathwayIndex.getPathwayRecords();
+        for (String pathwayID : pathwayIndex.getPathwayIDs()) {
+            crc.update(pathwayID.getBytes(StandardCharsets.UTF_8));
+            crc.update(0);
+            for (String geneID : pathwayRecords.get(pathwayID).geneIDs()) {
+                crc.update(geneID.getBytes(StandardCharsets.UTF_8));
+                crc.update(1);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Re-analyses a gene file against this snapshot.
+     * The gene files are compared position by position, which needs no lookups when the genes are in the same order;
+     * otherwise they are compared by gene symbol. Gene files that are in another order and have duplicate gene
+     * symbols can't be compared gene by gene and are analysed in full, as are snapshots without pathways.
+     *
+     * @param pathwayIndex   The index over the pathways, the same pathways the snapshot was made with.
+     * @param newGeneRecords The gene records of the new gene file.
+     * @param gseaFactory    The factory used to evaluate the pathways.
+     * @return The statistics and results for the new gene file.
+     */
+    public IncrementalResult update(PathwayIndex pathwayIndex, List<GeneRecord> newGeneRecords, GSEAFactory gseaFactory) {
+        // The earlier records of the changed genes and their new records
+        List<GeneRecord> removedGenes = new ArrayList<>();
+        List<GeneRecord> addedGenes = new ArrayList<>();
+        int changedGenes = compareInOrder(newGeneRecords, removedGenes, addedGenes);
+        if (changedGenes < 0) {
+            removedGenes.clear();
+            addedGenes.clear();
+            changedGenes = compareBySymbol(newGeneRecords, removedGenes, addedGenes);
+        }
+        if (changedGenes < 0 || pathwayStatistics.isEmpty()) {
+            Map<String, PathwayStatistics> statistics = gseaFactory.collectStatistics(pathwayIndex, newGeneRecords, treshold);
+            return new IncrementalResult(statistics, gseaFactory.performGSEA(pathwayIndex, statistics), -1, pathwayIndex.size());
+        }
+
+        // Patch the totals and collect the changes of every pathway
+        ContingencyTable oldTotals = pathwayStatistics.values().iterator().next().table();
+        long totalDEGs = oldTotals.totalDEGs();
+        long totalNonDEGs = oldTotals.totalNonDEGs();
+        List<List<GeneRecord>> removedPerPathway = new ArrayList<>(Collections.nCopies(pathwayIndex.size(), null));
+        List<List<GeneRecord>> addedPerPathway = new ArrayList<>(Collections.nCopies(pathwayIndex.size(), null));
+        for (GeneRecord removedGene : removedGenes) {
+            totalDEGs -= isDEG(removedGene);
+            totalNonDEGs -= isNonDEG(removedGene);
+            collectPerPathway(pathwayIndex, removedGene, removedPerPathway);
+        }
+        for (GeneRecord addedGene : addedGenes) {
+            totalDEGs += isDEG(addedGene);
+            totalNonDEGs += isNonDEG(addedGene);
+            collectPerPathway(pathwayIndex, addedGene, addedPerPathway);
+        }
+
+        // Patch the changed pathways, the others keep their counts with the new totals
+        boolean sameTotals = totalDEGs == oldTotals.totalDEGs() && totalNonDEGs == oldTotals.totalNonDEGs();
+        Map<String, PathwayStatistics> statistics = new LinkedHashMap<>();
+        Map<String, GSEARecord> unchangedResults = new HashMap<>();
+        List<String> pathwayIDs = pathwayIndex.getPathwayIDs();
+        int recountedPathways = 0;
+
+        for (int ordinal = 0; ordinal < pathwayIDs.size(); ordinal++) {
+            String pathwayID = pathwayIDs.get(ordinal);
+            PathwayStatistics old = pathwayStatistics.get(pathwayID);
+            List<GeneRecord> removed = removedPerPathway.get(ordinal);
+            List<GeneRecord> added = addedPerPathway.get(ordinal);
+            if (removed != null || added != null) {
+                statistics.put(pathwayID, PathwayStatistics.patch(old, removed != null ? removed : List.of(),
+                        added != null ? added : List.of(), totalDEGs, totalNonDEGs, treshold));
+                recountedPathways++;
+            } else if (sameTotals) {
+                statistics.put(pathwayID, old);
+                unchangedResults.put(pathwayID, gseaResults.get(ordinal));
+            } else {
+                ContingencyTable table = new ContingencyTable(pathwayID, old.table().degsInPathway(), old.table().nonDEGsInPathway(),
+                        totalDEGs, totalNonDEGs, treshold);
+                statistics.put(pathwayID, new PathwayStatistics(table, old.allGenes(), old.upRegulated(), old.downRegulated()));
+            }
+        }
+
+        return new IncrementalResult(statistics, gseaFactory.performGSEA(pathwayIndex, statistics, unchangedResults), changedGenes, recountedPathways);
+    }
+
+    /**
+     * Compares the gene files position by position.
+     *
+     * @return The number of changed genes, or -1 if the gene symbols are not in the same order.
+     */
+    private int compareInOrder(List<GeneRecord> newGeneRecords, List<GeneRecord> removedGenes, List<GeneRecord> addedGenes) {
+        int common = Math.min(geneRecords.size(), newGeneRecords.size());
+        for (int i = 0; i < common; i++) {
+            GeneRecord oldGene = geneRecords.get(i);
+            GeneRecord newGene = newGeneRecords.get(i);
+            if (!oldGene.geneSymbol().equals(newGene.geneSymbol())) {
+                return -1;
+            }
+            if (!sameValues(oldGene, newGene)) {
+                removedGenes.add(oldGene);
+                addedGenes.add(newGene);
+            }
+        }
+        // Genes appended to or dropped from the end of the file
+        removedGenes.addAll(geneRecords.subList(common, geneRecords.size()));
+        addedGenes.addAll(newGeneRecords.subList(common, newGeneRecords.size()));
+        return Math.max(removedGenes.size(), addedGenes.size());
+    }
+
+    /**
+     * Compares the gene files by gene symbol.
+     *
+     * @return The number of changed genes, or -1 if a gene symbol occurs more than once in one of the files.
+     */
+    private int compareBySymbol(List<GeneRecord> newGeneRecords, List<GeneRecord> removedGenes, List<GeneRecord> addedGenes) {
+        Map<String, GeneRecord> oldGenes = bySymbol(geneRecords);
+        Map<String, GeneRecord> newGenes = bySymbol(newGeneRecords);
+        if (oldGenes == null || newGenes == null) {
+            return -1;
+        }
+
+        int changedGenes = 0;
+        for (GeneRecord newGene : newGeneRecords) {
+            GeneRecord oldGene = oldGenes.get(newGene.geneSymbol());
+            if (oldGene == null || !sameValues(oldGene, newGene)) {
+                changedGenes++;
+                addedGenes.add(newGene);
+                if (oldGene != null) {
+                    removedGenes.add(oldGene);
+                }
+            }
+        }
+        for (GeneRecord oldGene : geneRecords) {
+            if (!newGenes.containsKey(oldGene.geneSymbol())) {
+                changedGenes++;
+                removedGenes.add(oldGene);
+            }
+        }
+        return changedGenes;
+    }
+
+    /**
+     * Writes the snapshot. The file is written next to its final location and then moved into place.
+     *
+     * @param snapshotFile The path of the snapshot.
+     * @throws IOException If the snapshot can't be written.
+     */
+    public void write(Path snapshotFile) throws IOException {
+        Path directory = snapshotFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporaryFile = Files.createTempFile(directory, snapshotFile.getFileName().toString(), ".tmp");
+
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile), 1 << 16))) {
+                output.write(MAGIC);
+                output.writeInt(VERSION);
+                output.writeDouble(treshold);
+                output.writeLong(pathwayChecksum);
+
+                output.writeInt(geneRecords.size());
+                for (GeneRecord geneRecord : geneRecords) {
+                    BinaryFormat.writeString(output, geneRecord.geneSymbol());
+                    output.writeDouble(geneRecord.logFoldChange());
+                    output.writeDouble(geneRecord.adjustedPValue());
+                }
+
+                // The statistics and results are stored in the order of the pathway index, the IDs follow from the index
+                output.writeInt(pathwayStatistics.size());
+                int ordinal = 0;
+                for (PathwayStatistics statistics : pathwayStatistics.values()) {
+                    output.writeLong(statistics.table().degsInPathway());
+                    output.writeLong(statistics.table().nonDEGsInPathway());
+                    output.writeLong(statistics.table().totalDEGs());
+                    output.writeLong(statistics.table().totalNonDEGs());
+                    BinaryFormat.writeSummary(output, statistics.allGenes());
+                    BinaryFormat.writeSummary(output, statistics.upRegulated());
+                    BinaryFormat.writeSummary(output, statistics.downRegulated());
+
+                    GSEARecord result = gseaResults.get(ordinal++);
+                    output.writeDouble(result.pValue());
+                    output.writeDouble(result.adjustedPValue());
+                    output.writeDouble(result.enrichmentScore());
+                    output.writeDouble(result.observedDEGs());
+                    output.writeDouble(result.expectedDEGs());
+                    output.writeDouble(result.avgLogFoldChange());
+                }
+            }
+            Files.move(temporaryFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * Reads a snapshot if it exists and was made with the same pathways and threshold.
+     *
+     * @param snapshotFile The path of the snapshot.
+     * @param pathwayIndex The index over the current pathways.
+     * @param treshold     The current adjusted p-value threshold.
+     * @return The snapshot, or null if it is missing, was made with other pathways or another threshold, or is damaged.
+     * @throws IOException If the snapshot exists but can't be read.
+     */
+    public static AnalysisSnapshot read(Path snapshotFile, PathwayIndex pathwayIndex, double treshold) throws IOException {
+        if (!Files.isRegularFile(snapshotFile)) {
+            return null;
+        }
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || buffer.getInt() != VERSION || buffer.getDouble() != treshold) {
+                return null;
+            }
+            long pathwayChecksum = buffer.getLong();
+            if (pathwayChecksum != checksum(pathwayIndex)) {
+                return null;
+            }
+
+            List<GeneRecord> geneRecords = new ArrayList<>();
+            int geneCount = buffer.getInt();
+            for (int i = 0; i < geneCount; i++) {
+                geneRecords.add(new GeneRecord(BinaryFormat.readString(buffer), buffer.getDouble(), buffer.getDouble()));
+            }
+
+            List<String> pathwayIDs = pathwayIndex.getPathwayIDs();
+            Map<String, PathwayRecord> pathwayRecords = pathwayIndex.getPathwayRecords();
+            if (buffer.getInt() != pathwayIDs.size() || pathwayIDs.isEmpty()) {
+                return null;
+            }
+            Map<String, PathwayStatistics> pathwayStatistics = new LinkedHashMap<>();
+            List<GSEARecord> gseaResults = new ArrayList<>();
+            for (String pathwayID : pathwayIDs) {
+                ContingencyTable table = new ContingencyTable(pathwayID, buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong(), treshold);
+                pathwayStatistics.put(pathwayID, new PathwayStatistics(table, BinaryFormat.readSummary(buffer), BinaryFormat.readSummary(buffer), BinaryFormat.readSummary(buffer)));
+                double pValue = buffer.getDouble();
+                double adjustedPValue = buffer.getDouble();
+                double enrichmentScore = buffer.getDouble();
+                double observedDEGs = buffer.getDouble();
+                double expectedDEGs = buffer.getDouble();
+                double avgLogFoldChange = buffer.getDouble();
+                gseaResults.add(new GSEARecord(pathwayID, pValue, adjustedPValue, enrichmentScore, observedDEGs, expectedDEGs,
+                        pathwayRecords.get(pathwayID).description(), avgLogFoldChange));
+            }
+            return new AnalysisSnapshot(pathwayChecksum, treshold, geneRecords, pathwayStatistics, gseaResults);
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            // A truncated or damaged snapshot is ignored like an outdated one
+            return null;
+        }
+    }
+
+    /**
+     * Maps the gene records by symbol.
+     *
+     * @return The map, or null if a gene symbol occurs more than once.
+     */
+    private static Map<String, GeneRecord> bySymbol(List<GeneRecord> geneRecords) {
+        Map<String, GeneRecord> genes = new HashMap<>(geneRecords.size() * 2);
+        for (GeneRecord geneRecord : geneRecords) {
+            if (genes.put(geneRecord.geneSymbol(), geneRecord) != null) {
+                return null;
+            }
+        }
+        return genes;
+    }
+
+    private static boolean sameValues(GeneRecord oldGene, GeneRecord newGene) {
+        return Double.compare(oldGene.logFoldChange(), newGene.logFoldChange()) == 0
+                && Double.compare(oldGene.adjustedPValue(), newGene.adjustedPValue()) == 0;
+    }
+
+    private int isDEG(GeneRecord geneRecord) {
+        return geneRecord.adjustedPValue() < treshold ? 1 : 0;
+    }
+
+    private int isNonDEG(GeneRecord geneRecord) {
+        return geneRecord.adjustedPValue() > treshold ? 1 : 0;
+    }
+
+    private static void collectPerPathway(PathwayIndex pathwayIndex, GeneRecord geneRecord, List<List<GeneRecord>> perPathway) {
+        for (int ordinal : pathwayIndex.getGenePathwayOrdinals(geneRecord.geneSymbol())) {
+            if (perPathway.get(ordinal) == null) {
+                perPathway.set(ordinal, new ArrayList<>());
+            }
+            perPathway.get(ordinal).add(geneRecord);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package nl.bioinf.gse;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads and writes the fields that the binary files of the analysis have in common: the pathway database, the
+ * analysis snapshot and the result cache entries. All values are big-endian, strings are stored as a length
+ * followed by UTF-8 bytes.
+ */
+final class BinaryFormat {
+
+    private BinaryFormat() {
+    }
+
+    static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeSummary(DataOutputStream output, FoldChangeSummary summary) throws IOException {
+        output.writeLong(summary.count());
+        output.writeDouble(summary.mean());
+        output.writeDouble(summary.variance());
+    }
+
+    static FoldChangeSummary readSummary(ByteBuffer buffer) {
+        return new FoldChangeSummary(buffer.getLong(), buffer.getDouble(), buffer.getDouble());
+    }
+}
@@ -0,0 +1,329 @@
+package nl.bioinf.gse;
+
+import org.jfree.data.statistics.BoxAndWhiskerItem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Collects the values of one data type of the GSEA results, such as the enrichment scores, into the statistics of
+ * a boxplot while the results are calculated. The statistics are handed to the chart as a precomputed
+ * BoxAndWhiskerItem, so JFreeChart doesn't have to box and sort the values again.
+ * <p>
+ * The exact method keeps the values in a primitive array. Like before, outliers beyond 1.5 times the interquartile
+ * range are filtered out first, after which the box is calculated from the remaining values the same way JFreeChart
+ * does, with quickselect instead of sorting.
+ * <p>
+ * The sketch method keeps no values at all: the quartiles are estimated with the P-square algorithm of Jain and
+ * Chlamtac, which moves five markers per quartile along with every value. The box then shows all values, with the
+ * whiskers at the smallest and largest value or at 1.5 times the interquartile range, whichever is closer.
+ * <p>
+ * An instance is meant to be filled by a single thread.
+ */
+public class BoxStatistics implements Consumer<GSEARecord> {
+
+    /**
+     * The number of values a sketch keeps before it starts estimating; a box of fewer values is calculated exactly.
+     */
+    private static final int SKETCH_START = 5;
+
+    private final String dataType;
+    private final boolean sketch;
+
+    private double[] values = new double[16];
+    private int size;
+
+    private final P2Quantile firstQuartile;
+    private final P2Quantile median;
+    private final P2Quantile thirdQuartile;
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Creates empty box statistics.
+     *
+     * @param dataType The type of data in the boxplot ("enrichmentscore", "pvalue", "adjusted_pvalue").
+     * @param sketch   True to estimate the quartiles with a sketch instead of keeping all values.
+     */
+    public BoxStatistics(String dataType, boolean sketch) {
+        this.dataType = dataType;
+        this.sketch = sketch;
+        this.firstQuartile = sketch ? new P2Quantile(0.25) : null;
+        this.median = sketch ? new P2Quantile(0.5) : null;
+        this.thirdQuartile = sketch ? new P2Quantile(0.75) : null;
+    }
+
+    /**
+     * Collects the box statistics of results that are already calculated.
+     *
+     * @param results  A list of GSEARecord objects containing pathway enrichment results.
+     * @param dataType The type of data in the boxplot.
+     * @param sketch   True to estimate the quartiles with a sketch.
+     * @return The box statistics of the results.
+     */
+    public static BoxStatistics of(List<GSEARecord> results, String dataType, boolean sketch) {
+        BoxStatistics boxStatistics = new BoxStatistics(dataType, sketch);
+        for (GSEARecord result : results) {
+            boxStatistics.accept(result);
+        }
+        return boxStatistics;
+    }
+
+    /**
+     * @return The type of data in the boxplot.
+     */
+    public String dataType() {
+        return dataType;
+    }
+
+    /**
+     * Adds the value of the data type of a result.
+     *
+     * @param result The GSEA result of a pathway.
+     */
+    @Override
+    public void accept(GSEARecord result) {
+        add(Boxplot.value(result, dataType));
+    }
+
+    /**
+     * Adds a value, NaN values are skipped like JFreeChart does.
+     *
+     * @param value The value to add.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        if (sketch) {
+            firstQuartile.add(value);
+            median.add(value);
+            thirdQuartile.add(value);
+            if (size == SKETCH_START) {
+                return;
+            }
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Calculates the boxplot statistics of the values added so far.
+     *
+     * @return The box and whiskers, with NaN statistics if no value was added.
+     */
+    public BoxAndWhiskerItem toItem() {
+        if (sketch && count > SKETCH_START) {
+            return sketchItem();
+        }
+        return exactItem(filterOutliers(Arrays.copyOf(values, size)));
+    }
+
+    /**
+     * Removes outliers using the interquartile range (IQR) method, with the quartiles at a quarter and three
+     * quarters of the sorted values.
+     *
+     * @param scores The values to filter, reordered in place.
+     * @return The values without outliers.
+     */
+    static double[] filterOutliers(double[] scores) {
+        // If there are fewer than 4 scores, return them as they are (not enough data to calculate outliers)
+        if (scores.length < 4) {
+            return scores;
+        }
+
+        // The second selection only has to look at the values above the first quartile
+        double q1 = QuantileSelector.select(scores, 0, scores.length, scores.length / 4);
+        double q3 = QuantileSelector.select(scores, scores.length / 4, scores.length, 3 * scores.length / 4);
+        double iqr = q3 - q1;
+        double lowerBound = q1 - 1.5 * iqr;
+        double upperBound = q3 + 1.5 * iqr;
+
+        int kept = 0;
+        for (double score : scores) {
+            if (score >= lowerBound && score <= upperBound) {
+                scores[kept++] = score;
+            }
+        }
+        return Arrays.copyOf(scores, kept);
+    }
+
+    /**
+     * Calculates the box and whiskers like JFreeChart's BoxAndWhiskerCalculator: the quartiles are the medians of
+     * the lower and upper half, both including the median for an odd number of values, and values beyond
+     * 1.5 times the interquartile range are outliers.
+     *
+     * @param scores The values, reordered in place.
+     * @return The box and whiskers.
+     */
+    static BoxAndWhiskerItem exactItem(double[] scores) {
+        int n = scores.length;
+        if (n == 0) {
+            return new BoxAndWhiskerItem(Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, new ArrayList<Double>());
+        }
+
+        double total = 0;
+        for (double score : scores) {
+            total += score;
+        }
+        double mean = total / n;
+
+        // The median partitions the values, so each quartile only has to look at its own half
+        int middle = (n - 1) / 2;
+        double medianValue = QuantileSelector.median(scores, 0, n);
+        double q1 = QuantileSelector.median(scores, 0, middle + 1);
+        double q3;
+        if (n % 2 == 1) {
+            // The halves share the median, which the first quartile may have moved away from the middle
+            scores[middle] = medianValue;
+            q3 = QuantileSelector.median(scores, middle, n);
+        } else {
+            q3 = QuantileSelector.median(scores, middle + 1, n);
+        }
+
+        double iqr = q3 - q1;
+        double upperOutlierThreshold = q3 + 1.5 * iqr;
+        double lowerOutlierThreshold = q1 - 1.5 * iqr;
+        double upperFaroutThreshold = q3 + 2.0 * iqr;
+        double lowerFaroutThreshold = q1 - 2.0 * iqr;
+
+        double minRegularValue = Double.POSITIVE_INFINITY;
+        double maxRegularValue = Double.NEGATIVE_INFINITY;
+        double minOutlier = Double.POSITIVE_INFINITY;
+        double maxOutlier = Double.NEGATIVE_INFINITY;
+        List<Double> outliers = new ArrayList<>();
+        for (double score : scores) {
+            if (score > upperOutlierThreshold) {
+                outliers.add(score);
+                if (score > maxOutlier && score <= upperFaroutThreshold) {
+                    maxOutlier = score;
+                }
+            } else if (score < lowerOutlierThreshold) {
+                outliers.add(score);
+                if (score < minOutlier && score >= lowerFaroutThreshold) {
+                    minOutlier = score;
+                }
+            } else {
+                minRegularValue = Math.min(minRegularValue, score);
+                maxRegularValue = Math.max(maxRegularValue, score);
+            }
+        }
+        minOutlier = Math.min(minOutlier, minRegularValue);
+        maxOutlier = Math.max(maxOutlier, maxRegularValue);
+
+        return new BoxAndWhiskerItem(mean, medianValue, q1, q3, minRegularValue, maxRegularValue, minOutlier, maxOutlier, outliers);
+    }
+
+    /**
+     * Builds the box and whiskers from the estimated quartiles. The values themselves are gone, so the whiskers
+     * end at the outlier thresholds when there are values beyond them, and no outliers are drawn.
+     */
+    private BoxAndWhiskerItem sketchItem() {
+        double q1 = firstQuartile.estimate();
+        double q3 = thirdQuartile.estimate();
+        double iqr = q3 - q1;
+        double minRegularValue = Math.max(min, q1 - 1.5 * iqr);
+        double maxRegularValue = Math.min(max, q3 + 1.5 * iqr);
+        return new BoxAndWhiskerItem(sum / count, median.estimate(), q1, q3, minRegularValue, maxRegularValue,
+                minRegularValue, maxRegularValue, new ArrayList<Double>());
+    }
+
+    /**
+     * Streaming estimate of a single quantile with the P-square algorithm, using five markers: the minimum, the
+     * maximum, the quantile and the quantiles halfway to either end. Every value moves the markers whose desired
+     * position drifted more than one place, along a parabola through their neighbours.
+     */
+    static class P2Quantile {
+        private final double quantile;
+        private final double[] heights = new double[5];
+        private final double[] positions = {1, 2, 3, 4, 5};
+        private final double[] desiredPositions;
+        private final double[] increments;
+        private int count;
+
+        P2Quantile(double quantile) {
+            this.quantile = quantile;
+            this.desiredPositions = new double[]{1, 1 + 2 * quantile, 1 + 4 * quantile, 3 + 2 * quantile, 5};
+            this.increments = new double[]{0, quantile / 2, quantile, (1 + quantile) / 2, 1};
+        }
+
+        void add(double value) {
+            // The first five values become the markers
+            if (count < 5) {
+                heights[count++] = value;
+                if (count == 5) {
+                    Arrays.sort(heights);
+                }
+                return;
+            }
+            count++;
+
+            // Find the cell of the value, extending the outer markers when it falls outside them
+            int cell;
+            if (value < heights[0]) {
+                heights[0] = value;
+                cell = 0;
+            } else if (value >= heights[4]) {
+                heights[4] = value;
+                cell = 3;
+            } else {
+                cell = 0;
+                while (value >= heights[cell + 1]) {
+                    cell++;
+                }
+            }
+            for (int i = cell + 1; i < 5; i++) {
+                positions[i]++;
+            }
+            for (int i = 0; i < 5; i++) {
+                desiredPositions[i] += increments[i];
+            }
+
+            // Move the middle markers that are off by at least one position
+            for (int i = 1; i < 4; i++) {
+                double offset = desiredPositions[i] - positions[i];
+                if ((offset >= 1 && positions[i + 1] - positions[i] > 1) || (offset <= -1 && positions[i - 1] - positions[i] < -1)) {
+                    int step = offset > 0 ? 1 : -1;
+                    double height = parabolic(i, step);
+                    if (heights[i - 1] < height && height < heights[i + 1]) {
+                        heights[i] = height;
+                    } else {
+                        heights[i] += step * (heights[i + step] - heights[i]) / (positions[i + step] - positions[i]);
+                    }
+                    positions[i] += step;
+                }
+            }
+        }
+
+        private double parabolic(int i, int step) {
+            return heights[i] + step / (positions[i + 1] - positions[i - 1])
+                    * ((positions[i] - positions[i - 1] + step) * (heights[i + 1] - heights[i]) / (positions[i + 1] - positions[i])
+                    + (positions[i + 1] - positions[i] - step) * (heights[i] - heights[i - 1]) / (positions[i] - positions[i - 1]));
+        }
+
+        /**
+         * @return The estimated quantile, or the nearest of the values so far when fewer than five were added.
+         */
+        double estimate() {
+            if (count >= 5) {
+                return heights[2];
+            }
+            if (count == 0) {
+                return Double.NaN;
+            }
+            double[] sorted = Arrays.copyOf(heights, count);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.round(quantile * (count - 1))];
+        }
+    }
+}
@@ -10,11 +10,8 @@ import org.jfree.chart.ChartUtils;
 
 import javax.swing.*;
 import java.awt.*;
-import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.nio.file.Path;
 
 /**
  * class for generating and displaying boxplots.
@@ -22,93 +19,43 @@ import java.util.List;
 public class Boxplot {
 
     /**
-     * Creates a dataset for the boxplot based on the specified data type.
+     * Returns the value of a data type of a pathway.
      *
-     * @param results  A list of GSEARecord objects containing pathway enrichment results.
-     * @param dataType The type of data to include in the boxplot (e.g., "enrichmentscore", "pvalue", "adjustedpvalue").
-     * @return A DefaultBoxAndWhiskerCategoryDataset containing the processed data.
+     * @param pathway  The GSEA result of a pathway.
+     * @param dataType The type of data in the boxplot ("enrichmentscore", "pvalue", "adjusted_pvalue").
+     * @return The enrichment score, the p-value or, by default, the adjusted p-value.
      */
-    private static DefaultBoxAndWhiskerCategoryDataset createDataset(List<GSEARecord> results, String dataType) {
-        DefaultBoxAndWhiskerCategoryDataset dataset = new DefaultBoxAndWhiskerCategoryDataset();
-
-        // Check the data type and process accordingly
+    static double value(GSEARecord pathway, String dataType) {
         if (dataType.equalsIgnoreCase("enrichmentscore")) {
-            // Extract enrichment scores and filter out outliers
-            List<Double> enrichmentScores = new ArrayList<>();
-            for (GSEARecord pathway : results) {
-                enrichmentScores.add(pathway.enrichmentScore());
-            }
-
-            // Filter out outliers
-            List<Double> filteredScores = filterOutliers(enrichmentScores);
-
-            // Add filtered enrichment scores under a single category label
-            dataset.add(filteredScores, "Enrichment Scores", "Pathways");
-
+            return pathway.enrichmentScore();
         } else if (dataType.equalsIgnoreCase("pvalue")) {
-            // Extract p-values and filter out outliers
-            List<Double> pValues = new ArrayList<>();
-            for (GSEARecord pathway : results) {
-                pValues.add(pathway.pValue());
-            }
-
-            // Filter out outliers
-            List<Double> filteredScores = filterOutliers(pValues);
-
-            // Add filtered p-values under a single category label
-            dataset.add(filteredScores, "P-Values", "Pathways");
-
-        } else {
-            // Default: process adjusted p-values
-            List<Double> adjustedPValues = new ArrayList<>();
-            for (GSEARecord pathway : results) {
-                adjustedPValues.add(pathway.adjustedPValue());
-            }
-
-            // Filter out outliers
-            List<Double> filteredScores = filterOutliers(adjustedPValues);
-
-            // Add filtered adjusted p-values under a single category label
-            dataset.add(filteredScores, "Adjusted P-Values", "Pathways");
+            return pathway.pValue();
         }
-
-        return dataset;
+        return pathway.adjustedPValue();
     }
 
     /**
-     * Filters outliers from a list of numerical values using the interquartile range (IQR) method.
+     * Creates a dataset for the boxplot from the collected box statistics.
      *
-     * @param scores A list of numerical values to filter.
-     * @return A list of values with outliers removed.
+     * @param boxStatistics The statistics of the values in the boxplot, with the outliers already filtered out.
+     * @return A DefaultBoxAndWhiskerCategoryDataset holding the precomputed box.
      */
-    private static List<Double> filterOutliers(List<Double> scores) {
-        // If there are fewer than 4 scores, return them as they are (not enough data to calculate outliers)
-        if (scores.size() < 4) {
-            return scores;
-        }
-
-        // Sort the scores to calculate quartiles
-        List<Double> sortedScores = new ArrayList<>(scores);
-        Collections.sort(sortedScores);
-
-        // Calculate Q1 and Q3
-        double q1 = sortedScores.get(sortedScores.size() / 4);
-        double q3 = sortedScores.get(3 * sortedScores.size() / 4);
-        double iqr = q3 - q1;
-
-        // Define bounds for filtering
-        double lowerBound = q1 - 1.5 * iqr;
-        double upperBound = q3 + 1.5 * iqr;
+    private static DefaultBoxAndWhiskerCategoryDataset createDataset(BoxStatistics boxStatistics) {
+        DefaultBoxAndWhiskerCategoryDataset dataset = new DefaultBoxAndWhiskerCategoryDataset();
 
-        // Create a list to store non-outlier scores
-        List<Double> filteredScores = new ArrayList<>();
-        for (Double score : scores) {
-            if (score >= lowerBound && score <= upperBound) {
-                filteredScores.add(score);
-            }
+        // Add the box under a single category label named after the data type
+        String dataType = boxStatistics.dataType();
+        String seriesLabel;
+        if (dataType.equalsIgnoreCase("enrichmentscore")) {
+            seriesLabel = "Enrichment Scores";
+        } else if (dataType.equalsIgnoreCase("pvalue")) {
+            seriesLabel = "P-Values";
+        } else {
+            seriesLabel = "Adjusted P-Values";
         }
+        dataset.add(boxStatistics.toItem(), seriesLabel, "Pathways");
 
-        return filteredScores;
+        return dataset;
     }
 
     /**
@@ -155,20 +102,43 @@ public class Boxplot {
         return chart;
     }
 
+    /**
+     * Creates the boxplot of collected box statistics, without displaying it.
+     *
+     * @param boxStatistics The statistics of the values in the boxplot.
+     * @return A JFreeChart object representing the boxplot.
+     */
+    static JFreeChart buildChart(BoxStatistics boxStatistics) {
+        return createChart(createDataset(boxStatistics), boxStatistics.dataType());
+    }
+
+    /**
+     * Returns the name of the PNG file of the boxplot of a data type, so several boxplots can be saved side by side.
+     *
+     * @param dataType The type of data in the boxplot.
+     * @return The file name.
+     */
+    static String fileName(String dataType) {
+        return "boxplot_" + dataType.toLowerCase() + ".png";
+    }
+
     /**
      * Displays the boxplot chart in a JFrame and optionally saves it as a PNG file.
      *
-     * @param results  A list of GSEARecord objects containing pathway enrichment results.
-     * @param savePlot A boolean indicating whether to save the chart as a PNG file.
-     * @param dataType The type of data to include in the boxplot ("enrichmentscore", "pvalue", "adjustedpvalue").
+     * @param boxStatistics The statistics of the values in the boxplot.
+     * @param savePlot      A boolean indicating whether to save the chart as a PNG file.
+     * @param plotDirectory The directory the PNG file is saved in.
      */
-    static void showChart(List<GSEARecord> results, boolean savePlot, String dataType) {
-        DefaultBoxAndWhiskerCategoryDataset dataset = createDataset(results, dataType);
-        JFreeChart chart = createChart(dataset, dataType);
+    static void showChart(BoxStatistics boxStatistics, boolean savePlot, Path plotDirectory) {
+        JFreeChart chart = buildChart(boxStatistics);
 
         // If savePlot is true, save the chart as a PNG file
         if (savePlot) {
-            saveChartAsPNG(chart);
+            try {
+                saveChartAsPNG(chart, plotDirectory.resolve(fileName(boxStatistics.dataType())));
+            } catch (IOException e) {
+                System.err.println("Error saving chart as PNG: " + e.getMessage());
+            }
         }
 
         // Create and set up the window
@@ -188,19 +158,14 @@ public class Boxplot {
     }
 
     /**
-     * Saves the boxplot chart as a PNG file.
+     * Saves a chart as a PNG file of 800 by 600 pixels.
      *
-     * @param chart The JFreeChart object representing the boxplot.
+     * @param chart The JFreeChart object to save.
+     * @param file  The PNG file.
+     * @throws IOException If the file can't be written.
      */
-    private static void saveChartAsPNG(JFreeChart chart) {
-        try {
-            // Specify the file where you want to save the image
-            File file = new File("pathway_enrichment_scores.png");
-            // Save the chart as a PNG file with a width of 800 pixels and height of 600 pixels
-            ChartUtils.saveChartAsPNG(file, chart, 800, 600);
-            System.out.println("Chart saved as PNG: " + file.getAbsolutePath());
-        } catch (IOException e) {
-            System.err.println("Error saving chart as PNG: " + e.getMessage());
-        }
+    static void saveChartAsPNG(JFreeChart chart, Path file) throws IOException {
+        ChartUtils.saveChartAsPNG(file.toFile(), chart, 800, 600);
+        System.out.println("Chart saved as PNG: " + file.toAbsolutePath());
     }
 }
@@ -0,0 +1,98 @@
+package nl.bioinf.gse;
+
+import org.jfree.chart.JFreeChart;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders boxplots and scatter plots straight to PNG files without opening any window, for machines without a display.
+ * Every chart is rendered on its own thread; all charts read the same unmodifiable list of GSE results.
+ */
+public class ChartExporter {
+
+    private final Path plotDirectory;
+    private final int topPathways;
+
+    /**
+     * Creates an exporter that writes the charts to a directory.
+     *
+     * @param plotDirectory The directory of the PNG files, created if it doesn't exist.
+     * @param topPathways   The number of pathways with the highest values in a scatter plot.
+     */
+    public ChartExporter(Path plotDirectory, int topPathways) {
+        this.plotDirectory = plotDirectory;
+        this.topPathways = topPathways;
+    }
+
+    /**
+     * Renders the requested charts concurrently and saves them as PNG files.
+     *
+     * @param gseaResults  List of GSEARecord objects containing the analysis results.
+     * @param boxPlots     The collected statistics of the boxplots, one per data type such as "enrichmentscore" and "pvalue".
+     * @param scatterPlots The data types of the scatter plots, such as "avglogfoldchange".
+     * @return The saved PNG files, boxplots first, in the order of the data types.
+     * @throws IOException If the directory or a chart can't be written.
+     */
+    public List<Path> export(List<GSEARecord> gseaResults, List<BoxStatistics> boxPlots, List<String> scatterPlots) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (boxPlots.isEmpty() && scatterPlots.isEmpty()) {
+            return files;
+        }
+        Files.createDirectories(plotDirectory);
+
+        // One shared dataset, the charts only read it
+        List<GSEARecord> results = Collections.unmodifiableList(gseaResults);
+        int charts = boxPlots.size() + scatterPlots.size();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(charts, Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<Path>> renders = new ArrayList<>();
+            for (BoxStatistics boxStatistics : boxPlots) {
+                renders.add(executor.submit(() -> save(Boxplot.buildChart(boxStatistics), Boxplot.fileName(boxStatistics.dataType()))));
+            }
+            for (String dataType : scatterPlots) {
+                renders.add(executor.submit(() -> save(ScatterPlot.buildChart(results, dataType, topPathways), ScatterPlot.fileName(dataType))));
+            }
+
+            for (Future<Path> render : renders) {
+                files.add(get(render));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return files;
+    }
+
+    private Path save(JFreeChart chart, String fileName) throws IOException {
+        Path file = plotDirectory.resolve(fileName);
+        Boxplot.saveChartAsPNG(chart, file);
+        return file;
+    }
+
+    /**
+     * Waits for a chart and rethrows its failure, IOExceptions as they are.
+     */
+    private static Path get(Future<Path> render) throws IOException {
+        try {
+            return render.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Rendering the charts was interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            } else if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -5,6 +5,12 @@ import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 
 /**
@@ -18,30 +24,32 @@ public class CommandlineProcessor implements Callable<Integer> {
 
     // Required options
     /**
-     * The path to the gene file to analyze.
+     * The paths to the gene files to analyze, one per contrast. A file name may be a glob such as "degs_*.tsv".
      */
-    @Option(names = {"-g", "--genefile"}, description = "The path to the gene file to analyze.", required = true)
-    private File geneFile;
+    @Option(names = {"-g", "--genefile"}, arity = "1..*", description = "The path to the gene file to analyze. Several files or a glob like 'degs_*.tsv' run every file as a contrast against the same pathways. Not used by --serve.")
+    private List<String> geneFiles;
 
     /**
-     * The path to the pathway file containing pathways.
+     * The path to the pathway file containing pathways, either the four-column pathway layout or a GMT file.
      */
-    @Option(names = {"-pf", "--pathwayfile"}, description = "The path to the pathway file containing pathways.", required = true)
+    @Option(names = {"-pf", "--pathwayfile"}, description = "The path to the pathway file containing pathways, or a .gmt gene set file.", required = true)
     private File pathwayFile;
 
+    // Optional options
     /**
-     * The path to the pathway description file.
+     * The path to the pathway description file, required unless the pathway file is a GMT file.
      */
-    @Option(names = {"-pd", "--pathwaydescfile"}, description = "The path to the pathway description file.", required = true)
+    @Option(names = {"-pd", "--pathwaydescfile"}, description = "The path to the pathway description file, not used for .gmt files.")
     private File pathwayDescFile;
 
     /**
-     * The gene ID format used (options: Entrez, Ensembl, Gene_symbol).
+     * The gene ID format used (options: Entrez, Ensembl, Gene_symbol, auto).
+     * Default value is Gene_symbol. Auto detects the format from the gene file, but reads the pathways for all
+     * formats without the pathway database, so it is only used when it is asked for.
      */
-    @Option(names = {"-gid", "--geneid"}, description = "The gene ID format used (options: Entrez, Ensembl, Gene_symbol).", required = true)
+    @Option(names = {"-gid", "--geneid"}, description = "The gene ID format used (options: Entrez, Ensembl, Gene_symbol, auto to detect it from the gene file).", defaultValue = "gene_symbol")
     private String geneId;
 
-    // Optional options
     /**
      * The cutoff for the adjusted P-value of a gene to be considered as a DEG.
      * Default value is 0.05.
@@ -49,12 +57,103 @@ public class CommandlineProcessor implements Callable<Integer> {
     @Option(names = {"-t", "--treshold"}, description = "Sets the cutoff for the adjusted P-value of a gene to be seen as a DEG.", defaultValue = "0.05")
     private double treshold;
 
+    /**
+     * Comma separated list of adjusted P-value cutoffs to sweep, for example 0.001,0.01,0.05,0.1.
+     * When given, the results of all cutoffs are printed as one combined table.
+     */
+    @Option(names = {"-ts", "--thresholds"}, description = "Comma separated list of adjusted P-value cutoffs, the results of all cutoffs are printed as one table. The sweep has its own counting, -cb doesn't apply to it.")
+    private String thresholds;
+
     /**
      * Flag indicating whether to save all generated plots as PNG files.
      */
-    @Option(names = {"-png", "--saveplotstopng"}, description = "If used, all generated plots will be saved as PNG.")
+    @Option(names = {"-png", "--saveplotstopng"}, description = "If used, all generated plots will be saved as PNG in the plot directory.")
     private boolean savePlot = false;
 
+    /**
+     * Flag indicating whether the plots are rendered straight to PNG files without opening windows.
+     */
+    @Option(names = {"--headless"}, description = "If used, no plot windows are opened; all plots are rendered concurrently to PNG files in the plot directory. Used automatically when no display is available.")
+    private boolean headless = false;
+
+    /**
+     * The directory the PNG files of the plots are saved in.
+     * Default value is the working directory.
+     */
+    @Option(names = {"-pdir", "--plotdir"}, description = "The directory the PNG files of the plots are saved in.", defaultValue = ".")
+    private String plotDirectory;
+
+    /**
+     * Flag indicating whether the input files are read through a memory-mapped tokenizer instead of commons-csv.
+     */
+    @Option(names = {"--mmap"}, description = "If used, the input files are read with a memory-mapped tokenizer, which is faster for large files.")
+    private boolean memoryMapped = false;
+
+    /**
+     * The directory of the compiled pathway database.
+     * "user_cache" stores it in the cache directory of the user, "pathway_dir" next to the pathway file and
+     * "no_cache" always parses the pathway files. Default value is "user_cache", so shared or read-only pathway
+     * libraries still get a database.
+     */
+    @Option(names = {"-pc", "--pathwaycache"}, description = "Directory of the compiled pathway database, 'user_cache' for the cache directory of the user, 'pathway_dir' for the directory of the pathway file or 'no_cache' to disable it.", defaultValue = "user_cache")
+    private String pathwayCache;
+
+    /**
+     * The directory of the result cache, which stores the results of every analysis by the contents of its input files and its parameters.
+     * "user_cache" stores it in the cache directory of the user, "pathway_dir" next to the pathway file and
+     * "no_cache" always runs the analysis. Default value is "user_cache", so input directories stay untouched.
+     */
+    @Option(names = {"-rc", "--resultcache"}, description = "Directory of the result cache, 'user_cache' for the cache directory of the user, 'pathway_dir' for the directory of the pathway file or 'no_cache' to disable it.", defaultValue = "user_cache")
+    private String resultCache;
+
+    /**
+     * The size in megabytes the result cache may take up before the least recently used results are removed.
+     * Default value is 256.
+     */
+    @Option(names = {"--cachesize"}, description = "The size in MB the result cache may take up, the least recently used results are removed first.", defaultValue = "256")
+    private long cacheSize;
+
+    /**
+     * Disables the result cache and the compiled pathway database for this run.
+     */
+    @Option(names = {"--no-cache"}, description = "If used, the result cache and the compiled pathway database are neither read nor written.")
+    private boolean noCache = false;
+
+    /**
+     * The CSV or TSV file the GSEA results are written to.
+     * "no_output" only prints the results to the terminal.
+     */
+    @Option(names = {"-o", "--output"}, description = "Writes the GSEA results to a CSV file, or a TSV file for .tsv and .txt files. Default 'no_output'.", defaultValue = "no_output")
+    private String output;
+
+    /**
+     * The CSV or TSV file the genes are written to, with their DEG status and pathways.
+     * "no_output" skips the gene annotations.
+     */
+    @Option(names = {"-og", "--geneoutput"}, description = "Writes every gene with its DEG status and pathways to a CSV or TSV file. Default 'no_output'.", defaultValue = "no_output")
+    private String geneOutput;
+
+    /**
+     * The port of the local HTTP server that keeps the pathways loaded and analyses DEG tables sent to it.
+     * "no_server" runs a single analysis of the gene files.
+     */
+    @Option(names = {"--serve"}, description = "Runs a local HTTP server on this port (0 for a free port) that keeps the pathways loaded and answers POST /gsea requests with a DEG table. Default 'no_server'.", defaultValue = "no_server")
+    private String serve;
+
+    /**
+     * The number of requests the server handles at the same time.
+     * Default value is 0, which uses all available processors. The -th option only applies to a single analysis.
+     */
+    @Option(names = {"--server-threads"}, description = "The number of requests the server handles at the same time, 0 uses all available processors. Default 0.", defaultValue = "0")
+    private int serverThreads;
+
+    /**
+     * The analysis snapshot a changed gene file is compared to, only the pathways with changed genes are counted again.
+     * "no_snapshot" always analyses the gene file in full.
+     */
+    @Option(names = {"-snap", "--snapshot"}, description = "Snapshot file of the previous analysis. If it exists, only the pathways with changed genes are analysed again; the snapshot is then updated. Default 'no_snapshot'.", defaultValue = "no_snapshot")
+    private String snapshot;
+
     /**
      * The number of lines that the header takes up in the given files.
      * Default value is 0.
@@ -70,17 +169,65 @@ public class CommandlineProcessor implements Callable<Integer> {
     private String pathwayName;
 
     /**
-     * Specifies whether to generate a boxplot for the enrichment scores.
+     * The number of threads used to read the pathways file and evaluate the pathways.
+     * Default value is 1, 0 uses all available processors.
+     */
+    @Option(names = {"-th", "--threads"}, description = "The number of threads used to read the pathways file and evaluate the pathways, 0 uses all available processors.", defaultValue = "1")
+    private int threads;
+
+    /**
+     * The backend used to count the DEGs in every pathway.
+     * Options: hash, bitset. Default value is hash.
+     */
+    @Option(names = {"-cb", "--counting"}, description = "The backend used to count the DEGs in every pathway (options: hash, bitset).", defaultValue = "hash")
+    private String countingBackend;
+
+    /**
+     * The multiple testing correction of the pathway p-values.
+     * Options: bonferroni, holm, bh, by. Default value is bonferroni.
+     */
+    @Option(names = {"-mtc", "--correction"}, description = "The multiple testing correction of the pathway p-values (options: bonferroni, holm, bh for Benjamini-Hochberg, by for Benjamini-Yekutieli).", defaultValue = "bonferroni")
+    private String correction;
+
+    /**
+     * The number of gene label permutations used for the empirical p-values.
+     * Default value is 0, which skips the permutation test.
+     */
+    @Option(names = {"-perm", "--permutations"}, description = "The number of gene label permutations for empirical p-values, 0 skips the permutation test.", defaultValue = "0")
+    private int permutations;
+
+    /**
+     * The seed of the permutation test, the same seed gives the same empirical p-values.
+     */
+    @Option(names = {"--seed"}, description = "The seed of the permutation test.", defaultValue = "42")
+    private long seed;
+
+    /**
+     * The number of most significant pathways printed, and the number of pathways in a scatterplot.
+     * Default value is 0, which prints all pathways and plots the top 20.
+     */
+    @Option(names = {"--top"}, description = "Prints only this many pathways with the lowest p-values, ranked, and plots this many pathways in a scatterplot. 0 prints all pathways and plots 20.", defaultValue = "0")
+    private int top;
+
+    /**
+     * Specifies whether to generate boxplots, a comma separated list gives one boxplot per value.
      * Options: no_boxplot, enrichmentscore, pvalue, adjusted_pvalue.
      */
-    @Option(names = {"--boxplot"}, description = "Generates a boxplot of the enrichment scores for all pathways.", defaultValue = "no_boxplot")
+    @Option(names = {"--boxplot"}, description = "Generates a boxplot of the enrichment scores, p-values or adjusted p-values of all pathways; a comma separated list such as 'enrichmentscore,pvalue' gives one boxplot each.", defaultValue = "no_boxplot")
     private String boxplot;
 
     /**
-     * Specifies whether to generate a scatterplot for the enrichment score or the avg logfoldchange.
+     * How the quartiles of the boxplots are calculated.
+     * Options: exact, sketch. Default value is exact.
+     */
+    @Option(names = {"--quantiles"}, description = "How the quartiles of the boxplots are calculated (options: exact, sketch). A sketch estimates them without keeping the values.", defaultValue = "exact")
+    private String quantiles;
+
+    /**
+     * Specifies whether to generate scatterplots, a comma separated list gives one scatterplot per value.
      * Options: no_scatterplot, enrichmentscore, avglogfoldchange.
      */
-    @Option(names = {"--scatterplot"}, description = "Generates a scatterplot for the enrichment score or the avg logfoldchange.", defaultValue = "no_scatterplot")
+    @Option(names = {"--scatterplot"}, description = "Generates a scatterplot for the enrichment score or the avg logfoldchange; a comma separated list gives one scatterplot each.", defaultValue = "no_scatterplot")
     private String scatterplot;
 
     /**
@@ -91,19 +238,84 @@ public class CommandlineProcessor implements Callable<Integer> {
      */
     @Override
     public Integer call() throws Exception {
-        if (!geneFile.exists() || !pathwayFile.exists() || !pathwayDescFile.exists()) {
+        // The server receives its genes through requests, all other runs need a gene file
+        if (geneFiles == null && serve.equalsIgnoreCase("no_server")) {
+            System.err.println("A gene file is required unless --serve is used.");
+            return 1;
+        }
+
+        List<File> contrastFiles;
+        try {
+            contrastFiles = getGeneFiles();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        }
+
+        // A batch prints one combined table, the options that need a single gene file can't be combined with it
+        if (contrastFiles.size() > 1 && (thresholds != null || permutations > 0 || !geneOutput.equalsIgnoreCase("no_output")
+                || !snapshot.equalsIgnoreCase("no_snapshot")
+                || !boxplot.equalsIgnoreCase("no_boxplot") || !scatterplot.equalsIgnoreCase("no_scatterplot"))) {
+            System.err.println("Threshold sweeps, permutations, gene output, snapshots and plots can only be used with a single gene file.");
+            return 1;
+        }
+
+        // A GMT file holds its own descriptions, other pathway files need a description file
+        boolean gmt = FileParser.isGMT(pathwayFile.getName());
+        if (!gmt && pathwayDescFile == null) {
+            System.err.println("A pathway description file is required unless the pathway file is a .gmt file.");
+            return 1;
+        }
+        if (contrastFiles.stream().anyMatch(file -> !file.exists()) || !pathwayFile.exists() || (!gmt && !pathwayDescFile.exists())) {
             System.err.println("One or more input files do not exist.");
             return 1;
         }
 
         // Print options
-        System.out.println("Gene file: " + geneFile.getAbsolutePath());
+        for (File geneFile : contrastFiles) {
+            System.out.println("Gene file: " + geneFile.getAbsolutePath());
+        }
         System.out.println("Pathway file: " + pathwayFile.getAbsolutePath());
-        System.out.println("Pathway description file: " + pathwayDescFile.getAbsolutePath());
+        if (!gmt) {
+            System.out.println("Pathway description file: " + pathwayDescFile.getAbsolutePath());
+        }
         System.out.println("Gene ID format: " + geneId);
         System.out.println("Header length: " + headerLength);
+        System.out.println("Memory-mapped reading: " + memoryMapped);
+        System.out.println("Pathway cache: " + (noCache ? "no_cache" : pathwayCache));
+        System.out.println("Result cache: " + (noCache ? "no_cache" : resultCache));
+        System.out.println("Threads: " + getThreads());
+        System.out.println("Counting backend: " + countingBackend);
+        System.out.println("Multiple testing correction: " + correction);
+        if (thresholds != null) {
+            System.out.println("Threshold sweep: " + thresholds);
+        }
+        if (permutations > 0) {
+            System.out.println("Permutations: " + permutations + " (seed " + seed + ")");
+        }
+        if (!output.equalsIgnoreCase("no_output")) {
+            System.out.println("Output file: " + output);
+        }
+        if (!geneOutput.equalsIgnoreCase("no_output")) {
+            System.out.println("Gene output file: " + geneOutput);
+        }
+        if (!snapshot.equalsIgnoreCase("no_snapshot")) {
+            System.out.println("Snapshot: " + snapshot);
+        }
+        if (!serve.equalsIgnoreCase("no_server")) {
+            System.out.println("Server port: " + serve);
+        }
         System.out.println("Boxplot: " + boxplot);
         System.out.println("Scatterplot: " + scatterplot);
+        if (!boxplot.equalsIgnoreCase("no_boxplot")) {
+            System.out.println("Boxplot quartiles: " + quantiles);
+        }
+        if (top > 0) {
+            System.out.println("Top pathways: " + top);
+        }
+        if (headless) {
+            System.out.println("Headless plots in: " + plotDirectory);
+        }
 
         if (pathwayName != null) {
             System.out.println("Analyzing specific pathway: " + pathwayName);
@@ -116,14 +328,40 @@ public class CommandlineProcessor implements Callable<Integer> {
 
     // Getters with validation
     /**
-     * Retrieves the gene file.
-     * @return The gene file.
+     * Retrieves the gene files, with globs expanded to the matching files sorted by name.
+     * @return The gene files, one per contrast.
+     * @throws IllegalArgumentException if a glob matches no files.
      */
-    public File getGeneFile() {
-        if (!geneFile.exists()) {
-            System.err.println("The gene file does not exist.");
+    public List<File> getGeneFiles() {
+        List<File> files = new ArrayList<>();
+        if (geneFiles == null) {
+            return files;
         }
-        return geneFile;
+        for (String geneFile : geneFiles) {
+            Path path = Path.of(geneFile);
+            String fileName = path.getFileName().toString();
+            if (!fileName.contains("*") && !fileName.contains("?") && !fileName.contains("[") && !fileName.contains("{")) {
+                files.add(path.toFile());
+                continue;
+            }
+
+            // Only the file name may be a glob, the directory is taken literally
+            Path directory = path.getParent() != null ? path.getParent() : Path.of(".");
+            List<File> matches = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, fileName)) {
+                for (Path match : stream) {
+                    matches.add(match.toFile());
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not list the gene files matching " + geneFile + ": " + e.getMessage());
+            }
+            if (matches.isEmpty()) {
+                throw new IllegalArgumentException("No gene files match " + geneFile);
+            }
+            matches.sort(null);
+            files.addAll(matches);
+        }
+        return files;
     }
 
     /**
@@ -139,10 +377,10 @@ public class CommandlineProcessor implements Callable<Integer> {
 
     /**
      * Retrieves the pathway description file.
-     * @return The pathway description file.
+     * @return The pathway description file, or null if none was given.
      */
     public File getPathwayDescFile() {
-        if (!pathwayDescFile.exists()) {
+        if (pathwayDescFile != null && !pathwayDescFile.exists()) {
             System.err.println("The pathway description file does not exist.");
         }
         return pathwayDescFile;
@@ -164,6 +402,29 @@ public class CommandlineProcessor implements Callable<Integer> {
         return treshold;
     }
 
+    /**
+     * Retrieves the thresholds of the threshold sweep.
+     * @return The thresholds, empty if no sweep was requested.
+     */
+    public double[] getThresholds() {
+        if (thresholds == null || thresholds.isBlank()) {
+            return new double[0];
+        }
+        String[] values = thresholds.split(",");
+        double[] parsed = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            try {
+                parsed[i] = Double.parseDouble(values[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid threshold: " + values[i].trim());
+            }
+            if (!(parsed[i] > 0 && parsed[i] <= 1)) {
+                throw new IllegalArgumentException("Thresholds must be between 0 and 1: " + values[i].trim());
+            }
+        }
+        return parsed;
+    }
+
     /**
      * Retrieves the header length.
      * @return The header length.
@@ -172,6 +433,57 @@ public class CommandlineProcessor implements Callable<Integer> {
         return headerLength;
     }
 
+    /**
+     * Retrieves the number of threads, where 0 is replaced by the number of available processors.
+     * @return The number of threads.
+     */
+    public int getThreads() {
+        if (threads < 0) {
+            throw new IllegalArgumentException("The number of threads can't be negative.");
+        }
+        return threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+    }
+
+    /**
+     * Retrieves the DEG counting backend.
+     * @return The counting backend.
+     */
+    public String getCountingBackend() {
+        if (countingBackend.equalsIgnoreCase("hash") || countingBackend.equalsIgnoreCase("bitset")) {
+            return countingBackend;
+        } else {
+            throw new IllegalArgumentException("Unsupported counting backend chosen.");
+        }
+    }
+
+    /**
+     * Retrieves the multiple testing correction of the pathway p-values.
+     * @return The correction.
+     * @throws IllegalArgumentException if the correction isn't supported.
+     */
+    public MultipleTestingCorrection getCorrection() {
+        return MultipleTestingCorrection.forName(correction);
+    }
+
+    /**
+     * Retrieves the number of permutations for the empirical p-values.
+     * @return The number of permutations, 0 if no permutation test was requested.
+     */
+    public int getPermutations() {
+        if (permutations < 0) {
+            throw new IllegalArgumentException("The number of permutations can't be negative.");
+        }
+        return permutations;
+    }
+
+    /**
+     * Retrieves the seed of the permutation test.
+     * @return The seed.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
     /**
      * Retrieves the pathway name for analysis.
      * @return The pathway name.
@@ -181,27 +493,208 @@ public class CommandlineProcessor implements Callable<Integer> {
     }
 
     /**
-     * Retrieves the boxplot option.
-     * @return The boxplot option.
+     * Retrieves the number of most significant pathways to print.
+     * @return The number of pathways, 0 for all pathways.
+     * @throws IllegalArgumentException if the number is negative.
      */
-    public String getBoxPlot() {
-        if (boxplot.equalsIgnoreCase("no_boxplot") || boxplot.equalsIgnoreCase("enrichmentscore") || boxplot.equalsIgnoreCase("pvalue") || boxplot.equalsIgnoreCase("adjusted_pvalue")) {
-            return boxplot;
-        } else {
-            throw new IllegalArgumentException("Unsupported boxplot option chosen.");
+    public int getTop() {
+        if (top < 0) {
+            throw new IllegalArgumentException("The number of top pathways can't be negative.");
         }
+        return top;
     }
 
     /**
-     * Retrieves the scatterplot option.
-     * @return The scatterplot option.
+     * Retrieves the number of pathways in a scatterplot.
+     * @return The --top value, or 20 if all pathways are printed.
      */
-    public String getScatterPlot() {
-        if (scatterplot.equalsIgnoreCase("no_scatterplot") || scatterplot.equalsIgnoreCase("enrichmentscore") || scatterplot.equalsIgnoreCase("avglogfoldchange")) {
-            return scatterplot;
+    public int getTopPathways() {
+        return getTop() > 0 ? top : 20;
+    }
+
+    /**
+     * Retrieves the boxplots to generate.
+     * @return The data types of the boxplots, empty for "no_boxplot".
+     * @throws IllegalArgumentException if a data type isn't supported.
+     */
+    public List<String> getBoxPlots() {
+        return plotTypes(boxplot, "no_boxplot", List.of("enrichmentscore", "pvalue", "adjusted_pvalue"), "boxplot");
+    }
+
+    /**
+     * Retrieves how the quartiles of the boxplots are calculated.
+     * @return True if the quartiles are estimated with a sketch, false if they are calculated exactly.
+     * @throws IllegalArgumentException if the method isn't supported.
+     */
+    public boolean getSketchQuantiles() {
+        if (quantiles.equalsIgnoreCase("exact") || quantiles.equalsIgnoreCase("sketch")) {
+            return quantiles.equalsIgnoreCase("sketch");
         } else {
-            throw new IllegalArgumentException("Unsupported scatterplot option chosen.");
+            throw new IllegalArgumentException("Unsupported quantile method chosen.");
+        }
+    }
+
+    /**
+     * Retrieves the scatterplots to generate.
+     * @return The data types of the scatterplots, empty for "no_scatterplot".
+     * @throws IllegalArgumentException if a data type isn't supported.
+     */
+    public List<String> getScatterPlots() {
+        return plotTypes(scatterplot, "no_scatterplot", List.of("enrichmentscore", "avglogfoldchange"), "scatterplot");
+    }
+
+    /**
+     * Splits a comma separated list of plot data types, dropping duplicates.
+     */
+    private static List<String> plotTypes(String option, String none, List<String> supported, String plot) {
+        List<String> types = new ArrayList<>();
+        if (option.equalsIgnoreCase(none)) {
+            return types;
+        }
+        for (String value : option.split(",")) {
+            String type = value.trim().toLowerCase();
+            if (!supported.contains(type)) {
+                throw new IllegalArgumentException("Unsupported " + plot + " option chosen: " + value.trim());
+            }
+            if (!types.contains(type)) {
+                types.add(type);
+            }
+        }
+        return types;
+    }
+
+    /**
+     * Retrieves the headless flag.
+     * @return True if the plots are rendered to PNG files without windows.
+     */
+    public boolean getHeadless() {
+        return headless;
+    }
+
+    /**
+     * Retrieves the directory the PNG files of the plots are saved in.
+     * @return The plot directory.
+     */
+    public Path getPlotDirectory() {
+        return Path.of(plotDirectory);
+    }
+
+    /**
+     * Retrieves the memory-mapped reading flag.
+     * @return True if the input files should be read with the memory-mapped tokenizer, false otherwise.
+     */
+    public boolean getMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Retrieves the directory of the compiled pathway database.
+     * @return The cache directory, or null if the pathway database is disabled.
+     */
+    public Path getPathwayCacheDirectory() {
+        if (noCache || pathwayCache.equalsIgnoreCase("no_cache")) {
+            return null;
+        } else if (pathwayCache.equalsIgnoreCase("user_cache")) {
+            return userCacheDirectory();
+        } else if (pathwayCache.equalsIgnoreCase("pathway_dir")) {
+            return pathwayFile.getAbsoluteFile().getParentFile().toPath();
+        }
+        return Path.of(pathwayCache);
+    }
+
+    /**
+     * Retrieves the directory of the result cache.
+     * @return The cache directory, or null if the result cache is disabled.
+     */
+    public Path getResultCacheDirectory() {
+        if (noCache || resultCache.equalsIgnoreCase("no_cache")) {
+            return null;
+        } else if (resultCache.equalsIgnoreCase("user_cache")) {
+            return userCacheDirectory();
+        } else if (resultCache.equalsIgnoreCase("pathway_dir")) {
+            return pathwayFile.getAbsoluteFile().getParentFile().toPath();
+        }
+        return Path.of(resultCache);
+    }
+
+    /**
+     * The cache directory of the user, shared by the result cache and the pathway database:
+     * $XDG_CACHE_HOME/gse_analyse, or ~/.cache/gse_analyse when XDG_CACHE_HOME isn't set.
+     */
+    private static Path userCacheDirectory() {
+        String cacheHome = System.getenv("XDG_CACHE_HOME");
+        Path userCache = cacheHome != null && !cacheHome.isBlank()
+                ? Path.of(cacheHome)
+                : Path.of(System.getProperty("user.home"), ".cache");
+        return userCache.resolve("gse_analyse");
+    }
+
+    /**
+     * Retrieves the size limit of the result cache.
+     * @return The size limit in bytes.
+     * @throws IllegalArgumentException if the size is negative.
+     */
+    public long getCacheSize() {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("The cache size can't be negative.");
+        }
+        return cacheSize * 1024 * 1024;
+    }
+
+    /**
+     * Retrieves the file the GSEA results are written to.
+     * @return The output file, or null if the results are only printed.
+     */
+    public Path getOutputFile() {
+        return output.equalsIgnoreCase("no_output") ? null : Path.of(output);
+    }
+
+    /**
+     * Retrieves the file the gene annotations are written to.
+     * @return The gene output file, or null if no gene annotations are written.
+     */
+    public Path getGeneOutputFile() {
+        return geneOutput.equalsIgnoreCase("no_output") ? null : Path.of(geneOutput);
+    }
+
+    /**
+     * Retrieves the snapshot file of the previous analysis.
+     * @return The snapshot file, or null if no snapshot is used.
+     */
+    public Path getSnapshotFile() {
+        return snapshot.equalsIgnoreCase("no_snapshot") ? null : Path.of(snapshot);
+    }
+
+    /**
+     * Retrieves the port of the local HTTP server.
+     * @return The port, 0 for a free port, or -1 if no server should be started.
+     * @throws IllegalArgumentException if the port isn't a number between 0 and 65535.
+     */
+    public int getServerPort() {
+        if (serve.equalsIgnoreCase("no_server")) {
+            return -1;
+        }
+        try {
+            int port = Integer.parseInt(serve);
+            if (port >= 0 && port <= 65535) {
+                return port;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below like an out of range port
+        }
+        throw new IllegalArgumentException("The server port must be a number between 0 and 65535.");
+    }
+
+    /**
+     * Retrieves the number of requests the server handles at the same time.
+     * @return The number of server threads.
+     * @throws IllegalArgumentException if the number is negative.
+     */
+    public int getServerThreads() {
+        if (serverThreads < 0) {
+            throw new IllegalArgumentException("The number of server threads can't be negative.");
         }
+        return serverThreads == 0 ? Runtime.getRuntime().availableProcessors() : serverThreads;
     }
 
     /**
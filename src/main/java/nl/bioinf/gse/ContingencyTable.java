@@ -0,0 +1,87 @@
+package nl.bioinf.gse;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Represents the 2x2 contingency table of a pathway: DEGs and non-DEGs, in and not in the pathway.
+ * Only the four counts are stored, the other cells and sums are derived from them.
+ * A gene with an adjusted p-value exactly equal to the threshold is neither a DEG nor a non-DEG,
+ * the same as in the TableBuilder methods.
+ *
+ * @param pathwayID        The ID of the pathway the table belongs to.
+ * @param degsInPathway    Number of DEGs in the pathway.
+ * @param nonDEGsInPathway Number of non-DEGs in the pathway.
+ * @param totalDEGs        Total number of DEGs in the dataset.
+ * @param totalNonDEGs     Total number of non-DEGs in the dataset.
+ * @param treshold         The adjusted p-value threshold used to classify the genes.
+ */
+public record ContingencyTable(String pathwayID, long degsInPathway, long nonDEGsInPathway, long totalDEGs, long totalNonDEGs, double treshold) {
+
+    /**
+     * @return Total number of genes in the pathway.
+     */
+    public long genesInPathway() {
+        return degsInPathway + nonDEGsInPathway;
+    }
+
+    /**
+     * @return Number of DEGs not in the pathway.
+     */
+    public long degsNotInPathway() {
+        return totalDEGs - degsInPathway;
+    }
+
+    /**
+     * @return Number of non-DEGs not in the pathway.
+     */
+    public long nonDEGsNotInPathway() {
+        return totalNonDEGs - nonDEGsInPathway;
+    }
+
+    /**
+     * @return Number of genes not in the pathway.
+     */
+    public long genesNotInPathway() {
+        return totalGenes() - genesInPathway();
+    }
+
+    /**
+     * @return Total number of genes in the dataset.
+     */
+    public long totalGenes() {
+        return totalDEGs + totalNonDEGs;
+    }
+
+    /**
+     * Builds the contingency tables of all pathways in a single pass over the gene records.
+     * The tables are taken from PathwayStatistics.buildAll, which collects them in the same pass.
+     *
+     * @param pathwayIndex The index over all pathways.
+     * @param geneRecords  List of GeneRecord objects with gene expression data.
+     * @param treshold     The adjusted p-value threshold for classifying DEGs and non-DEGs.
+     * @return Map of pathway IDs to their contingency table, in the iteration order of the pathway records.
+     */
+    public static Map<String, ContingencyTable> buildAll(PathwayIndex pathwayIndex, List<GeneRecord> geneRecords, double treshold) {
+        Map<String, ContingencyTable> tables = new LinkedHashMap<>();
+        for (PathwayStatistics statistics : PathwayStatistics.buildAll(pathwayIndex, geneRecords, treshold).values()) {
+            tables.put(statistics.table().pathwayID(), statistics.table());
+        }
+        return tables;
+    }
+
+    /**
+     * Builds the contingency table of a single pathway in one pass over the gene records.
+     *
+     * @param pathwayID    The ID of the pathway.
+     * @param pathwayGenes The unique gene IDs of the pathway.
+     * @param geneRecords  List of GeneRecord objects with gene expression data.
+     * @param treshold     The adjusted p-value threshold for classifying DEGs and non-DEGs.
+     * @return The contingency table of the pathway.
+     */
+    public static ContingencyTable build(String pathwayID, Set<String> pathwayGenes, List<GeneRecord> geneRecords, double treshold) {
+        return PathwayStatistics.build(pathwayID, pathwayGenes, geneRecords, treshold).table();
+    }
+}
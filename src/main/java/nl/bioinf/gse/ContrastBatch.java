@@ -0,0 +1,160 @@
+package nl.bioinf.gse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the GSEA of several gene files, the contrasts, against one pathway index.
+ * The gene files are read concurrently and the contrasts are evaluated concurrently, each contrast on its
+ * own share of the threads, while the pathways are only read and indexed once for all of them.
+ */
+public class ContrastBatch {
+
+    private final FileParser fileParser;
+    private final int threads;
+    private final String countingBackend;
+    private final MultipleTestingCorrection correction;
+
+    /**
+     * Creates a batch that reads its gene files with the given parser.
+     *
+     * @param fileParser      The parser used to read the gene files.
+     * @param threads         The number of threads shared by all contrasts.
+     * @param countingBackend "hash" or "bitset", the DEG counting backend of every contrast.
+     * @throws IllegalArgumentException if threads is smaller than 1.
+     */
+    public ContrastBatch(FileParser fileParser, int threads, String countingBackend) {
+        this(fileParser, threads, countingBackend, new MultipleTestingCorrection.Bonferroni());
+    }
+
+    /**
+     * Creates a batch with a multiple testing correction, applied to the pathways of every contrast separately.
+     *
+     * @param fileParser      The parser used to read the gene files.
+     * @param threads         The number of threads shared by all contrasts.
+     * @param countingBackend "hash" or "bitset", the DEG counting backend of every contrast.
+     * @param correction      The multiple testing correction of the p-values of every contrast.
+     * @throws IllegalArgumentException if threads is smaller than 1.
+     */
+    public ContrastBatch(FileParser fileParser, int threads, String countingBackend, MultipleTestingCorrection correction) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1.");
+        }
+        this.fileParser = fileParser;
+        this.threads = threads;
+        this.countingBackend = countingBackend;
+        this.correction = correction;
+    }
+
+    /**
+     * Derives the name of a contrast from its gene file, the file name without its extensions.
+     * For example "degs_smokers.tsv.gz" becomes "degs_smokers".
+     *
+     * @param geneFile The gene file of the contrast.
+     * @return The name of the contrast.
+     */
+    public static String contrastName(File geneFile) {
+        String name = geneFile.getName();
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        int extension = name.lastIndexOf('.');
+        return extension > 0 ? name.substring(0, extension) : name;
+    }
+
+    /**
+     * Reads the gene files of all contrasts concurrently.
+     *
+     * @param geneFiles    The gene files, one per contrast.
+     * @param headerLength The number of header lines to skip in the gene files.
+     * @return Map of contrast names to their gene records, in the order of the gene files.
+     * @throws IOException If one of the gene files can't be read.
+     */
+    public Map<String, List<GeneRecord>> readContrasts(List<File> geneFiles, int headerLength) throws IOException {
+        List<Future<List<GeneRecord>>> futures = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, geneFiles.size()));
+        try {
+            for (File geneFile : geneFiles) {
+                futures.add(executor.submit(() -> fileParser.readDEGs(geneFile.getAbsolutePath(), headerLength)));
+            }
+
+            Map<String, List<GeneRecord>> contrasts = new LinkedHashMap<>();
+            for (int i = 0; i < geneFiles.size(); i++) {
+                String contrast = contrastName(geneFiles.get(i));
+                // Gene files with the same name in different directories are kept apart by their path
+                if (contrasts.containsKey(contrast)) {
+                    contrast = geneFiles.get(i).getPath();
+                }
+                contrasts.put(contrast, get(futures.get(i)));
+            }
+            return contrasts;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw failure(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Performs GSEA on every contrast. The contrasts are evaluated concurrently; the threads that are left
+     * when there are fewer contrasts than threads are used to evaluate the pathways within a contrast.
+     *
+     * @param pathwayIndex The index over all pathways, shared by all contrasts.
+     * @param contrasts    Map of contrast names to their gene records.
+     * @param treshold     The adjusted p-value below which a gene is a DEG.
+     * @return The GSEA results of every pathway in every contrast, ordered by contrast and then by pathway.
+     */
+    public List<ContrastResult> performGSEA(PathwayIndex pathwayIndex, Map<String, List<GeneRecord>> contrasts, double treshold) {
+        int contrastThreads = Math.max(1, Math.min(threads, contrasts.size()));
+        GSEAFactory gseaFactory = new GSEAFactory(Math.max(1, threads / contrastThreads), countingBackend, correction);
+
+        List<Future<List<GSEARecord>>> futures = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(contrastThreads);
+        try {
+            for (List<GeneRecord> geneRecords : contrasts.values()) {
+                futures.add(executor.submit(() -> gseaFactory.performGSEA(pathwayIndex,
+                        gseaFactory.collectStatistics(pathwayIndex, geneRecords, treshold))));
+            }
+
+            List<ContrastResult> contrastResults = new ArrayList<>();
+            int i = 0;
+            for (String contrast : contrasts.keySet()) {
+                for (GSEARecord result : get(futures.get(i++))) {
+                    contrastResults.add(new ContrastResult(contrast, result));
+                }
+            }
+            return contrastResults;
+        } catch (ExecutionException e) {
+            throw failure(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for the result of a contrast.
+     */
+    private static <T> T get(Future<T> future) throws ExecutionException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The batch was interrupted.", e);
+        }
+    }
+
+    private static IllegalStateException failure(ExecutionException e) {
+        return new IllegalStateException("The batch failed: " + e.getCause().getMessage(), e.getCause());
+    }
+}
@@ -0,0 +1,10 @@
+package nl.bioinf.gse;
+
+/**
+ * Represents the GSEA result of a pathway for one of the contrasts of a batch run.
+ *
+ * @param contrast The name of the contrast, taken from its gene file.
+ * @param result   The GSEA result of the pathway for this contrast.
+ */
+public record ContrastResult(String contrast, GSEARecord result) {
+}
@@ -4,19 +4,66 @@ import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 
-import java.io.File;
+import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * Class for parsing files containing gene and pathway data.
  */
 public class FileParser {
 
+    private final boolean memoryMapped;
+    private final int threads;
+
+    /**
+     * Creates a parser that reads the files with commons-csv.
+     */
+    public FileParser() {
+        this(false);
+    }
+
+    /**
+     * Creates a parser that optionally reads the files through a memory-mapped tokenizer.
+     * Both modes skip the same header lines and "NA" records and give the same records.
+     *
+     * @param memoryMapped True to read the files with the MappedTokenizer, false to use commons-csv.
+     */
+    public FileParser(boolean memoryMapped) {
+        this(memoryMapped, 1);
+    }
+
+    /**
+     * Creates a parser that reads the pathways file in parallel chunks when more than one thread is given.
+     * Chunks are always read with the memory-mapped tokenizer, because commons-csv can't start in the middle of a file.
+     *
+     * @param memoryMapped True to read the files with the MappedTokenizer, false to use commons-csv.
+     * @param threads      The number of threads used to read the pathways file.
+     * @throws IllegalArgumentException if threads is smaller than 1.
+     */
+    public FileParser(boolean memoryMapped, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1.");
+        }
+        this.memoryMapped = memoryMapped;
+        this.threads = threads;
+    }
+
     /**
      * Reads DEGs from a file.
      *
@@ -27,20 +74,31 @@ public class FileParser {
      */
     public List<GeneRecord> readDEGs(String filePath, int headerLength) throws IOException {
         List<GeneRecord> geneRecords = new ArrayList<>();
+        streamDEGs(filePath, headerLength, geneRecords::add);
+        return geneRecords;
+    }
 
+    /**
+     * Reads DEGs from a file and hands every gene record to a consumer as soon as it is parsed,
+     * so the records can be processed without keeping the whole file in a list.
+     *
+     * @param filePath     The path to the file containing DEG data.
+     * @param headerLength The number of header lines to skip in the file.
+     * @param consumer     Receives the gene records in the order of the file.
+     * @throws IOException If an error occurs while reading the file.
+     */
+    public void streamDEGs(String filePath, int headerLength, Consumer<GeneRecord> consumer) throws IOException {
         // Determine the delimiter based on file extension
-        CSVFormat format;
-        if (filePath.endsWith(".tsv")) {
-            format = CSVFormat.DEFAULT.withDelimiter('\t');
-        } else if (filePath.endsWith(".csv")) {
-            format = CSVFormat.DEFAULT.withDelimiter(',');
-        } else {
-            throw new IOException("Unsupported file format. Please provide a .csv or .tsv file.");
+        char delimiter = delimiter(filePath, "Unsupported file format. Please provide a .csv or .tsv file.");
+        if (memoryMapped) {
+            readDEGs(new MappedTokenizer(filePath, delimiter), headerLength, consumer);
+            return;
         }
+        CSVFormat format = CSVFormat.DEFAULT.withDelimiter(delimiter);
 
         // Create a parser with specified header length (lines to skip)
         try (CSVParser parser = new CSVParser(
-                new FileReader(new File(filePath)),
+                openReader(filePath),
                 format.withIgnoreHeaderCase().withTrim().withSkipHeaderRecord(true))) {
 
             // Skip the specified number of lines
@@ -64,11 +122,9 @@ public class FileParser {
                 double logFoldChange = Double.parseDouble(logFoldChangeStr);
                 double adjustedPValue = Double.parseDouble(adjustedPValueStr);
 
-                geneRecords.add(new GeneRecord(geneSymbol, logFoldChange, adjustedPValue));
+                consumer.accept(new GeneRecord(geneSymbol, logFoldChange, adjustedPValue));
             }
         }
-
-        return geneRecords;
     }
 
     /**
@@ -82,21 +138,39 @@ public class FileParser {
      * @throws IOException If an error occurs while reading the files.
      */
     public Map<String, PathwayRecord> readPathways(String pathwaysFilePath, String hsaPathwaysFilePath, int headerLength, String geneType) throws IOException {
-        Map<String, PathwayRecord> pathwayMap = new HashMap<>();
-        Map<String, String> pathwayDescriptions = new HashMap<>();
+        return readPathways(pathwaysFilePath, hsaPathwaysFilePath, headerLength, geneType, new GeneDictionary());
+    }
+
+    /**
+     * Reads pathway data from files and maps genes to pathways, interning the gene identifiers in the given dictionary.
+     *
+     * @param pathwaysFilePath     The path to the file containing pathway-gene mappings.
+     * @param hsaPathwaysFilePath  The path to the file containing pathway descriptions.
+     * @param headerLength         The number of header lines to skip in the files.
+     * @param geneType             The type of gene identifier to use ("Entrez", "Gene_symbol", or "Ensembl").
+     * @param geneDictionary       The dictionary shared by all pathways that are read.
+     * @return A map of pathway IDs to PathwayRecord objects.
+     * @throws IOException If an error occurs while reading the files.
+     */
+    public Map<String, PathwayRecord> readPathways(String pathwaysFilePath, String hsaPathwaysFilePath, int headerLength, String geneType, GeneDictionary geneDictionary) throws IOException {
+        Map<String, IntBuffer> pathwayGenes = new HashMap<>();
+
+        // Determine which column holds the geneID based on the geneType
+        int geneColumn = geneColumn(geneType);
 
         // Determine the delimiter based on file extension for hsaPathwaysFilePath
-        CSVFormat format;
-        if (hsaPathwaysFilePath.endsWith(".tsv")) {
-            format = CSVFormat.DEFAULT.withDelimiter('\t');
-        } else if (hsaPathwaysFilePath.endsWith(".csv")) {
-            format = CSVFormat.DEFAULT.withDelimiter(',');
-        } else {
-            throw new IOException("Unsupported file format for hsa pathways. Please provide a .csv or .tsv file.");
+        char delimiter = delimiter(hsaPathwaysFilePath, "Unsupported file format for hsa pathways. Please provide a .csv or .tsv file.");
+        // Read pathway descriptions file
+        Map<String, String> pathwayDescriptions = readDescriptions(hsaPathwaysFilePath, delimiter, headerLength);
+
+        if (memoryMapped || threads > 1) {
+            readPathwayGenesMapped(pathwaysFilePath, delimiter, headerLength, geneColumn, geneDictionary, pathwayGenes);
+            return toPathwayRecords(pathwayGenes, pathwayDescriptions, geneDictionary);
         }
+        CSVFormat format = CSVFormat.DEFAULT.withDelimiter(delimiter);
 
-        // Read pathway descriptions file
-        try (CSVParser parser = new CSVParser(new FileReader(hsaPathwaysFilePath), format.withIgnoreHeaderCase().withTrim().withSkipHeaderRecord(true))) {
+        // Read pathways file and map genes to pathways
+        try (CSVParser parser = new CSVParser(openReader(pathwaysFilePath), format.withIgnoreHeaderCase().withTrim().withSkipHeaderRecord(true))) {
             int linesSkipped = 0;
             for (CSVRecord record : parser) {
                 if (linesSkipped < headerLength) {
@@ -105,13 +179,284 @@ public class FileParser {
                 }
 
                 String pathwayID = record.get(0);
-                String description = record.get(1);
-                pathwayDescriptions.put(pathwayID, description);
+
+                // Columns: 1 Entrez, 2 Gene Symbol, 3 Ensembl
+                int geneIndex = geneDictionary.intern(record.get(geneColumn));
+
+                // Add the gene index to the pathway, no per-row list is allocated
+                pathwayGenes.computeIfAbsent(pathwayID, key -> new IntBuffer()).add(geneIndex);
             }
         }
 
-        // Read pathways file and map genes to pathways
-        try (CSVParser parser = new CSVParser(new FileReader(pathwaysFilePath), format.withIgnoreHeaderCase().withTrim().withSkipHeaderRecord(true))) {
+        return toPathwayRecords(pathwayGenes, pathwayDescriptions, geneDictionary);
+    }
+
+    /**
+     * Reads the pathway files once for all three types of gene identifier.
+     * Every row is split once and its Entrez ID, gene symbol and Ensembl ID are interned in a dictionary per type,
+     * so analysing the same pathways with another gene ID type doesn't need another parse.
+     * The pathways of each type are the same as those returned by readPathways for that type.
+     *
+     * @param pathwaysFilePath     The path to the file containing pathway-gene mappings.
+     * @param hsaPathwaysFilePath  The path to the file containing pathway descriptions.
+     * @param headerLength         The number of header lines to skip in the files.
+     * @return The pathway library holding the pathways of every gene ID type.
+     * @throws IOException If an error occurs while reading the files.
+     */
+    public PathwayLibrary readPathwayLibrary(String pathwaysFilePath, String hsaPathwaysFilePath, int headerLength) throws IOException {
+        char delimiter = delimiter(hsaPathwaysFilePath, "Unsupported file format for hsa pathways. Please provide a .csv or .tsv file.");
+        Map<String, String> pathwayDescriptions = readDescriptions(hsaPathwaysFilePath, delimiter, headerLength);
+
+        // pathwayGenes holds one buffer per gene ID type, in the order of PathwayLibrary.GENE_TYPES
+        int typeCount = PathwayLibrary.GENE_TYPES.size();
+        GeneDictionary[] geneDictionaries = new GeneDictionary[typeCount];
+        for (int type = 0; type < typeCount; type++) {
+            geneDictionaries[type] = new GeneDictionary();
+        }
+        Map<String, IntBuffer[]> pathwayGenes = new HashMap<>();
+
+        if (memoryMapped || threads > 1) {
+            MappedTokenizer pathways = skipHeader(new MappedTokenizer(pathwaysFilePath, delimiter), headerLength);
+            String lastPathwayID = null;
+            IntBuffer[] lastGenes = null;
+            while (pathways.nextLine()) {
+                if (!pathways.fieldEquals(0, lastPathwayID)) {
+                    lastPathwayID = pathways.field(0);
+                    lastGenes = pathwayGenes.computeIfAbsent(lastPathwayID, key -> newBuffers(typeCount));
+                }
+                for (int type = 0; type < typeCount; type++) {
+                    lastGenes[type].add(geneDictionaries[type].intern(pathways.field(type + 1)));
+                }
+            }
+        } else {
+            CSVFormat format = CSVFormat.DEFAULT.withDelimiter(delimiter);
+            try (CSVParser parser = new CSVParser(openReader(pathwaysFilePath), format.withIgnoreHeaderCase().withTrim().withSkipHeaderRecord(true))) {
+                int linesSkipped = 0;
+                for (CSVRecord record : parser) {
+                    if (linesSkipped < headerLength) {
+                        linesSkipped++;
+                        continue;
+                    }
+
+                    // Columns: 1 Entrez, 2 Gene Symbol, 3 Ensembl
+                    IntBuffer[] genes = pathwayGenes.computeIfAbsent(record.get(0), key -> newBuffers(typeCount));
+                    for (int type = 0; type < typeCount; type++) {
+                        genes[type].add(geneDictionaries[type].intern(record.get(type + 1)));
+                    }
+                }
+            }
+        }
+
+        // The pathways of every type are added in the same order as readPathways would add them
+        List<Map<String, PathwayRecord>> pathwayRecords = new ArrayList<>();
+        for (int type = 0; type < typeCount; type++) {
+            Map<String, IntBuffer> typeGenes = new LinkedHashMap<>();
+            for (Map.Entry<String, IntBuffer[]> entry : pathwayGenes.entrySet()) {
+                typeGenes.put(entry.getKey(), entry.getValue()[type]);
+            }
+            pathwayRecords.add(toPathwayRecords(typeGenes, pathwayDescriptions, geneDictionaries[type]));
+        }
+        return new PathwayLibrary(pathwayRecords);
+    }
+
+    private static IntBuffer[] newBuffers(int count) {
+        IntBuffer[] buffers = new IntBuffer[count];
+        for (int i = 0; i < count; i++) {
+            buffers[i] = new IntBuffer();
+        }
+        return buffers;
+    }
+
+    /**
+     * Reads gene sets from a GMT file, where every line holds a set name, a description and the genes of the set,
+     * separated by tabs. GMT files have no header, so no lines are skipped.
+     *
+     * @param gmtFilePath The path to the .gmt or .gmt.gz file.
+     * @return A map of set names to PathwayRecord objects.
+     * @throws IOException If an error occurs while reading the file or a line has no description.
+     */
+    public Map<String, PathwayRecord> readGMT(String gmtFilePath) throws IOException {
+        return readGMT(gmtFilePath, new GeneDictionary());
+    }
+
+    /**
+     * Reads gene sets from a GMT file, interning the genes in the given dictionary.
+     * The file is streamed line by line: the genes of a line are interned straight into one reused buffer and
+     * stored as a sorted array, so only the current line and the compact sets are kept in memory.
+     * A set name that occurs on more than one line gets the genes of all its lines.
+     *
+     * @param gmtFilePath    The path to the .gmt or .gmt.gz file.
+     * @param geneDictionary The dictionary shared by all gene sets that are read.
+     * @return A map of set names to PathwayRecord objects.
+     * @throws IOException If an error occurs while reading the file or a line has no description.
+     */
+    public Map<String, PathwayRecord> readGMT(String gmtFilePath, GeneDictionary geneDictionary) throws IOException {
+        Map<String, PathwayRecord> pathwayMap = new HashMap<>();
+        IntBuffer genes = new IntBuffer();
+
+        try (BufferedReader reader = new BufferedReader(openReader(gmtFilePath), 1 << 16)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                // Columns: 0 set name, 1 description, 2.. genes
+                int nameEnd = line.indexOf('\t');
+                if (nameEnd < 0) {
+                    throw new IOException("Line " + lineNumber + " of " + gmtFilePath + " has no description column.");
+                }
+                int descriptionEnd = line.indexOf('\t', nameEnd + 1);
+                if (descriptionEnd < 0) {
+                    descriptionEnd = line.length();
+                }
+                String pathwayID = line.substring(0, nameEnd).trim();
+                String description = line.substring(nameEnd + 1, descriptionEnd).trim();
+
+                genes.clear();
+                int start = descriptionEnd + 1;
+                while (start < line.length()) {
+                    int end = line.indexOf('\t', start);
+                    if (end < 0) {
+                        end = line.length();
+                    }
+                    String geneID = line.substring(start, end).trim();
+                    // Trailing tabs give empty columns, those are not genes
+                    if (!geneID.isEmpty()) {
+                        genes.add(geneDictionary.intern(geneID));
+                    }
+                    start = end + 1;
+                }
+
+                PathwayRecord existing = pathwayMap.get(pathwayID);
+                if (existing != null) {
+                    for (int geneIndex : existing.geneIndices()) {
+                        genes.add(geneIndex);
+                    }
+                    description = existing.description();
+                }
+                if (description.isEmpty()) {
+                    description = "Unknown Pathway";
+                }
+                pathwayMap.put(pathwayID, new PathwayRecord(pathwayID, description, geneDictionary, genes.toSortedUniqueArray()));
+            }
+        }
+
+        return pathwayMap;
+    }
+
+    /**
+     * Checks whether a pathway file is a GMT file, based on its extension.
+     *
+     * @param filePath The path to the pathway file.
+     * @return True for .gmt and .gmt.gz files.
+     */
+    public static boolean isGMT(String filePath) {
+        return filePath.endsWith(".gmt") || filePath.endsWith(".gmt.gz");
+    }
+
+    /**
+     * Reads pathway data through a compiled pathway database in the cache directory.
+     * The database is loaded when it was built from the same files, header length and gene type;
+     * otherwise the text files are parsed and the database is (re)written for the next run.
+     *
+     * @param pathwaysFilePath     The path to the file containing pathway-gene mappings.
+     * @param hsaPathwaysFilePath  The path to the file containing pathway descriptions.
+     * @param headerLength         The number of header lines to skip in the files.
+     * @param geneType             The type of gene identifier to use ("Entrez", "Gene_symbol", or "Ensembl").
+     * @param cacheDirectory       The directory the pathway database is stored in.
+     * @return A map of pathway IDs to PathwayRecord objects.
+     * @throws IOException If an error occurs while reading the files.
+     */
+    public Map<String, PathwayRecord> readPathwaysCached(String pathwaysFilePath, String hsaPathwaysFilePath, int headerLength, String geneType, Path cacheDirectory) throws IOException {
+        // Validate the gene type before any file is touched
+        geneColumn(geneType);
+
+        PathwayDatabase.Key key = PathwayDatabase.Key.of(pathwaysFilePath, hsaPathwaysFilePath, headerLength, geneType);
+        // Pathway files with the same name in different directories share a cache directory, so the name also
+        // holds a hash of the full path
+        Path pathwaysFile = Path.of(pathwaysFilePath).toAbsolutePath().normalize();
+        String pathHash = String.format("%08x", pathwaysFile.toString().hashCode());
+        Path databaseFile = cacheDirectory.resolve(pathwaysFile.getFileName() + "." + pathHash + "." + key.geneType() + ".gsedb");
+
+        GeneDictionary geneDictionary = new GeneDictionary();
+        Map<String, PathwayRecord> pathwayRecords = PathwayDatabase.read(databaseFile, key, geneDictionary);
+        if (pathwayRecords != null) {
+            return pathwayRecords;
+        }
+
+        pathwayRecords = readPathways(pathwaysFilePath, hsaPathwaysFilePath, headerLength, geneType, geneDictionary);
+        try {
+            PathwayDatabase.write(databaseFile, key, pathwayRecords, geneDictionary);
+        } catch (IOException e) {
+            // The analysis doesn't need the database, it is only slower without it
+            System.err.println("Could not write the pathway database: " + e.getMessage());
+        }
+        return pathwayRecords;
+    }
+
+    /**
+     * Reads DEGs from a table that is already in memory, such as the body of a request to the server.
+     *
+     * @param content      The bytes of the DEG table, in the same layout as a DEG file.
+     * @param delimiter    The field delimiter of the table.
+     * @param headerLength The number of header lines to skip in the table.
+     * @return A list of GeneRecord objects containing the parsed data.
+     * @throws IOException If a line has too few fields.
+     * @throws NumberFormatException if a value isn't a number.
+     */
+    public List<GeneRecord> readDEGs(byte[] content, char delimiter, int headerLength) throws IOException {
+        List<GeneRecord> geneRecords = new ArrayList<>();
+        readDEGs(new MappedTokenizer(ByteBuffer.wrap(content), delimiter), headerLength, geneRecords::add);
+        return geneRecords;
+    }
+
+    /**
+     * Reads the DEGs of a tokenizer, skipping the header lines and rows with "NA" values.
+     * Only the gene symbol becomes a String, the numbers are parsed from the bytes of the file.
+     */
+    private static void readDEGs(MappedTokenizer tokenizer, int headerLength, Consumer<GeneRecord> consumer) throws IOException {
+        while (tokenizer.nextLine()) {
+            if (tokenizer.getLineNumber() <= headerLength) {
+                continue;
+            }
+
+            // Check for "NA" and skip the entire record if "NA" is found in either relevant field
+            if (tokenizer.fieldEquals(1, "NA") || tokenizer.fieldEquals(2, "NA")) {
+                continue;
+            }
+
+            String geneSymbol = tokenizer.field(0);
+            double logFoldChange = tokenizer.parseDouble(1);
+            double adjustedPValue = tokenizer.parseDouble(2);
+
+            consumer.accept(new GeneRecord(geneSymbol, logFoldChange, adjustedPValue));
+        }
+    }
+
+    /**
+     * Reads the pathway descriptions file, with the memory-mapped tokenizer when it is used for the pathways file.
+     *
+     * @return Map of pathway IDs to their descriptions.
+     */
+    private Map<String, String> readDescriptions(String hsaPathwaysFilePath, char delimiter, int headerLength) throws IOException {
+        Map<String, String> pathwayDescriptions = new HashMap<>();
+
+        if (memoryMapped || threads > 1) {
+            MappedTokenizer descriptions = new MappedTokenizer(hsaPathwaysFilePath, delimiter);
+            while (descriptions.nextLine()) {
+                if (descriptions.getLineNumber() <= headerLength) {
+                    continue;
+                }
+                pathwayDescriptions.put(descriptions.field(0), descriptions.field(1));
+            }
+            return pathwayDescriptions;
+        }
+
+        CSVFormat format = CSVFormat.DEFAULT.withDelimiter(delimiter);
+        try (CSVParser parser = new CSVParser(openReader(hsaPathwaysFilePath), format.withIgnoreHeaderCase().withTrim().withSkipHeaderRecord(true))) {
             int linesSkipped = 0;
             for (CSVRecord record : parser) {
                 if (linesSkipped < headerLength) {
@@ -120,36 +465,178 @@ public class FileParser {
                 }
 
                 String pathwayID = record.get(0);
-                String entrezGeneID = record.get(1);  // Column 1: Entrez
-                String geneSymbol = record.get(2);   // Column 2: Gene Symbol
-                String ensemblGeneID = record.get(3); // Column 3: Ensembl
-
-                String description = pathwayDescriptions.getOrDefault(pathwayID, "Unknown Pathway");
-
-                // Determine which geneID to use based on the geneType
-                List<String> geneIDs = new ArrayList<>();
-                if ("Entrez".equalsIgnoreCase(geneType)) {
-                    geneIDs.add(entrezGeneID);
-                } else if ("Gene_symbol".equalsIgnoreCase(geneType)) {
-                    geneIDs.add(geneSymbol);
-                } else if ("Ensembl".equalsIgnoreCase(geneType)) {
-                    geneIDs.add(ensemblGeneID);
-                } else {
-                    throw new IllegalArgumentException("Unsupported gene type: " + geneType);
-                }
+                String description = record.get(1);
+                pathwayDescriptions.put(pathwayID, description);
+            }
+        }
+        return pathwayDescriptions;
+    }
 
-                // Add the gene IDs to the pathway record
-                PathwayRecord existingPathway = pathwayMap.get(pathwayID);
-                if (existingPathway == null) {
-                    // Create a new PathwayRecord if it doesn't exist
-                    pathwayMap.put(pathwayID, new PathwayRecord(pathwayID, description, geneIDs));
-                } else {
-                    // Otherwise, add the gene ID to the existing record
-                    existingPathway.geneIDs().addAll(geneIDs);
+    /**
+     * Reads the pathway genes with the memory-mapped tokenizer.
+     * The pathways file is read in parallel chunks when more than one thread is configured.
+     */
+    private void readPathwayGenesMapped(String pathwaysFilePath, char delimiter, int headerLength, int geneColumn,
+                                        GeneDictionary geneDictionary, Map<String, IntBuffer> pathwayGenes) throws IOException {
+        MappedTokenizer pathways = skipHeader(new MappedTokenizer(pathwaysFilePath, delimiter), headerLength);
+        if (threads > 1 && readPathwayGenesParallel(pathways, geneColumn, geneDictionary, pathwayGenes)) {
+            return;
+        }
+        readPathwayGenes(pathways, geneColumn, geneDictionary, pathwayGenes);
+    }
+
+    /**
+     * Reads the header lines of a file, so the tokenizer starts at the first record.
+     */
+    private static MappedTokenizer skipHeader(MappedTokenizer tokenizer, int headerLength) {
+        while (tokenizer.getLineNumber() < headerLength && tokenizer.nextLine()) {
+            // The header lines are not used
+        }
+        return tokenizer;
+    }
+
+    /**
+     * Reads the pathway genes from the current position of a tokenizer to its end.
+     * Rows of the same pathway are usually next to each other, so the pathway ID is only turned into a String
+     * when it differs from the previous row.
+     */
+    private static void readPathwayGenes(MappedTokenizer pathways, int geneColumn, GeneDictionary geneDictionary, Map<String, IntBuffer> pathwayGenes) throws IOException {
+        String lastPathwayID = null;
+        IntBuffer lastGenes = null;
+        while (pathways.nextLine()) {
+            if (!pathways.fieldEquals(0, lastPathwayID)) {
+                lastPathwayID = pathways.field(0);
+                lastGenes = pathwayGenes.computeIfAbsent(lastPathwayID, key -> new IntBuffer());
+            }
+            lastGenes.add(geneDictionary.intern(pathways.field(geneColumn)));
+        }
+    }
+
+    /**
+     * Gene indices and pathways read from one chunk of the pathways file, with a dictionary of its own.
+     */
+    private record PathwayChunk(GeneDictionary geneDictionary, Map<String, IntBuffer> pathwayGenes, boolean hasQuotes) {
+    }
+
+    /**
+     * Reads the pathway genes in chunks that are parsed on separate threads and merged in file order.
+     * Every chunk interns its genes in a local dictionary, in order of first appearance. Merging the chunks in
+     * file order interns the genes in the shared dictionary in the same order as a sequential read, and the
+     * pathways are added in the same order, so the result is the same as that of readPathwayGenes.
+     *
+     * @return False if a chunk contains quoted fields, which may hide line breaks; the caller then reads the file sequentially.
+     */
+    private boolean readPathwayGenesParallel(MappedTokenizer pathways, int geneColumn, GeneDictionary geneDictionary, Map<String, IntBuffer> pathwayGenes) throws IOException {
+        List<MappedTokenizer> chunks = pathways.split(threads * 4);
+        List<PathwayChunk> parsedChunks;
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            parsedChunks = pool.submit(() -> chunks.parallelStream().map(chunk -> {
+                GeneDictionary chunkDictionary = new GeneDictionary();
+                // A LinkedHashMap keeps the pathways in order of first appearance
+                Map<String, IntBuffer> chunkGenes = new LinkedHashMap<>();
+                try {
+                    readPathwayGenes(chunk, geneColumn, chunkDictionary, chunkGenes);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
+                return new PathwayChunk(chunkDictionary, chunkGenes, chunk.hasQuotes());
+            }).collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Reading the pathways file was interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IllegalStateException("Reading the pathways file failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        for (PathwayChunk chunk : parsedChunks) {
+            if (chunk.hasQuotes()) {
+                return false;
+            }
+        }
+
+        for (PathwayChunk chunk : parsedChunks) {
+            // Translate the local gene indices of the chunk to indices of the shared dictionary
+            int[] mapping = new int[chunk.geneDictionary().size()];
+            for (int localIndex = 0; localIndex < mapping.length; localIndex++) {
+                mapping[localIndex] = geneDictionary.intern(chunk.geneDictionary().geneID(localIndex));
+            }
+            for (Map.Entry<String, IntBuffer> entry : chunk.pathwayGenes().entrySet()) {
+                pathwayGenes.computeIfAbsent(entry.getKey(), key -> new IntBuffer()).addAll(entry.getValue(), mapping);
             }
         }
+        return true;
+    }
 
+    /**
+     * Turns the collected gene indices into compact, sorted pathway records.
+     */
+    private static Map<String, PathwayRecord> toPathwayRecords(Map<String, IntBuffer> pathwayGenes, Map<String, String> pathwayDescriptions, GeneDictionary geneDictionary) {
+        Map<String, PathwayRecord> pathwayMap = new HashMap<>();
+        for (Map.Entry<String, IntBuffer> entry : pathwayGenes.entrySet()) {
+            String pathwayID = entry.getKey();
+            String description = pathwayDescriptions.getOrDefault(pathwayID, "Unknown Pathway");
+            pathwayMap.put(pathwayID, new PathwayRecord(pathwayID, description, geneDictionary, entry.getValue().toSortedUniqueArray()));
+        }
         return pathwayMap;
     }
+
+    /**
+     * Opens a file for reading, gzip-compressed files are decompressed on a separate thread while they are read.
+     *
+     * @param filePath The path to the file.
+     * @return A reader over the (decompressed) contents of the file.
+     * @throws IOException If the file can't be opened.
+     */
+    static Reader openReader(String filePath) throws IOException {
+        if (filePath.endsWith(".gz")) {
+            return new InputStreamReader(new GzipPipeInputStream(Path.of(filePath)), Charset.defaultCharset());
+        }
+        return new FileReader(filePath);
+    }
+
+    /**
+     * Determines the delimiter of a file based on its extension.
+     *
+     * @param filePath     The path to the file.
+     * @param errorMessage The message of the exception for unsupported extensions.
+     * @return '\t' for .tsv and .tsv.gz files, ',' for .csv and .csv.gz files.
+     * @throws IOException If the file is neither a .csv nor a .tsv file.
+     */
+    static char delimiter(String filePath, String errorMessage) throws IOException {
+        // Compressed files are recognised by the extension before .gz
+        if (filePath.endsWith(".gz")) {
+            filePath = filePath.substring(0, filePath.length() - ".gz".length());
+        }
+        if (filePath.endsWith(".tsv")) {
+            return '\t';
+        } else if (filePath.endsWith(".csv")) {
+            return ',';
+        }
+        throw new IOException(errorMessage);
+    }
+
+    /**
+     * Determines the column of the pathways file that holds the chosen type of gene identifier.
+     *
+     * @param geneType The type of gene identifier ("Entrez", "Gene_symbol", or "Ensembl").
+     * @return The column index.
+     * @throws IllegalArgumentException if the gene type is not supported.
+     */
+    static int geneColumn(String geneType) {
+        if ("Entrez".equalsIgnoreCase(geneType)) {
+            return 1;
+        } else if ("Gene_symbol".equalsIgnoreCase(geneType)) {
+            return 2;
+        } else if ("Ensembl".equalsIgnoreCase(geneType)) {
+            return 3;
+        }
+        throw new IllegalArgumentException("Unsupported gene type: " + geneType);
+    }
 }
@@ -0,0 +1,93 @@
+package nl.bioinf.gse;
+
+/**
+ * Summary of the log fold changes of a group of genes.
+ *
+ * @param count    The number of genes with a valid (not NaN) log fold change.
+ * @param mean     The average log fold change, NaN if count is 0.
+ * @param variance The sample variance of the log fold changes, NaN if count is below 2.
+ */
+public record FoldChangeSummary(long count, double mean, double variance) {
+
+    /**
+     * Collects log fold changes one value at a time, without storing them.
+     * The variance is updated with Welford's algorithm so a single pass is enough.
+     */
+    public static class Accumulator {
+        private long count;
+        private double sum;
+        private double runningMean;
+        private double sumOfSquares;
+
+        /**
+         * Adds a log fold change to the summary, NaN values are ignored.
+         *
+         * @param logFoldChange The log fold change of a gene.
+         */
+        public void add(double logFoldChange) {
+            if (Double.isNaN(logFoldChange)) {
+                return;
+            }
+            count++;
+            sum += logFoldChange;
+
+            double delta = logFoldChange - runningMean;
+            runningMean += delta / count;
+            sumOfSquares += delta * (logFoldChange - runningMean);
+        }
+
+        /**
+         * Continues an earlier summary, so values can be added to it or removed from it.
+         * The sum is restored from the mean, so the result can differ from a fresh summary in the last digits.
+         *
+         * @param summary The earlier summary.
+         * @return An accumulator holding the values of the summary.
+         */
+        public static Accumulator of(FoldChangeSummary summary) {
+            Accumulator accumulator = new Accumulator();
+            if (summary.count() > 0) {
+                accumulator.count = summary.count();
+                accumulator.runningMean = summary.mean();
+                accumulator.sum = summary.mean() * summary.count();
+                accumulator.sumOfSquares = summary.count() > 1 ? summary.variance() * (summary.count() - 1) : 0;
+            }
+            return accumulator;
+        }
+
+        /**
+         * Removes a log fold change that was added before, NaN values are ignored.
+         * This is Welford's update in reverse.
+         *
+         * @param logFoldChange The log fold change of a gene.
+         */
+        public void remove(double logFoldChange) {
+            if (Double.isNaN(logFoldChange)) {
+                return;
+            }
+            if (count <= 1) {
+                count = 0;
+                sum = 0;
+                runningMean = 0;
+                sumOfSquares = 0;
+                return;
+            }
+            count--;
+            sum -= logFoldChange;
+
+            double delta = logFoldChange - runningMean;
+            runningMean -= delta / count;
+            // Rounding can push a variance of zero just below it
+            sumOfSquares = Math.max(0, sumOfSquares - delta * (logFoldChange - runningMean));
+        }
+
+        /**
+         * @return The summary of all values added so far.
+         */
+        public FoldChangeSummary toSummary() {
+            // The mean is sum / count, the same division the original average used
+            double mean = count > 0 ? sum / count : Double.NaN;
+            double variance = count > 1 ? sumOfSquares / (count - 1) : Double.NaN;
+            return new FoldChangeSummary(count, mean, variance);
+        }
+    }
+}
@@ -126,6 +126,8 @@ public class GSEA {
 
     /**
      * Calculates the average log fold change of genes associated with a specified pathway.
+     * Kept for compatibility, GSEAFactory collects the average in the same pass as the DEG counts
+     * with PathwayStatistics.
      *
      * @param geneRecords   List of GeneRecord objects containing gene data.
      * @param pathwayMap    Map of PathwayRecord objects with pathway IDs as keys.
@@ -141,25 +143,14 @@ public class GSEA {
             throw new IllegalArgumentException("Pathway with ID " + pathwayId + " not found.");
         }
 
-        // Initialize variables for sum and count of log fold changes
-        double sumLogFoldChange = 0.0;
-        int count = 0;
-
-        // Loop through each gene ID in the pathway and find its corresponding log fold change
-        for (String geneId : pathway.geneIDs()) {
-            for (GeneRecord geneRecord : geneRecords) {
-                if (geneRecord.geneSymbol().equals(geneId)) {
-                    // Check if log fold change is a valid number (not NaN)
-                    if (!Double.isNaN(geneRecord.logFoldChange())) {
-                        sumLogFoldChange += geneRecord.logFoldChange();
-                        count++;
-                    }
-                }
+        // Every gene record is a single dictionary lookup and binary search
+        FoldChangeSummary.Accumulator accumulator = new FoldChangeSummary.Accumulator();
+        for (GeneRecord geneRecord : geneRecords) {
+            if (pathway.containsGene(geneRecord.geneSymbol())) {
+                accumulator.add(geneRecord.logFoldChange());
             }
         }
 
-        // Calculate the average, handling case when no valid genes are found
-        return count > 0 ? sumLogFoldChange / count : Double.NaN;
+        return accumulator.toSummary().mean();
     }
 }
-
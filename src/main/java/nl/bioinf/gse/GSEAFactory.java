@@ -3,14 +3,86 @@ package nl.bioinf.gse;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * GSEAFactory is responsible for performing Gene Set Enrichment Analysis (GSEA) on given pathways.
  * This class calculates the p-values, adjusted p-values, and enrichment scores for each pathway,
- * given pathway records and gene records.
+ * given pathway records and gene records. The p-values are adjusted by a multiple testing correction over all
+ * pathways once they are evaluated, Bonferroni by default.
  */
 public class GSEAFactory {
 
+    private final int threads;
+    private final String countingBackend;
+    private final MultipleTestingCorrection correction;
+
+    /**
+     * Creates a factory that evaluates the pathways on a single thread.
+     */
+    public GSEAFactory() {
+        this(1);
+    }
+
+    /**
+     * Creates a factory that evaluates the pathways in parallel.
+     *
+     * @param threads The number of threads to use, 1 evaluates the pathways sequentially.
+     * @throws IllegalArgumentException if threads is smaller than 1.
+     */
+    public GSEAFactory(int threads) {
+        this(threads, "hash");
+    }
+
+    /**
+     * Creates a factory with a specific DEG counting backend.
+     *
+     * @param threads         The number of threads to use, 1 evaluates the pathways sequentially.
+     * @param countingBackend "hash" to count with the gene to pathway index, "bitset" to count with bitset intersections.
+     * @throws IllegalArgumentException if threads is smaller than 1 or the counting backend is unknown.
+     */
+    public GSEAFactory(int threads, String countingBackend) {
+        this(threads, countingBackend, new MultipleTestingCorrection.Bonferroni());
+    }
+
+    /**
+     * Creates a factory with a specific DEG counting backend and multiple testing correction.
+     *
+     * @param threads         The number of threads to use, 1 evaluates the pathways sequentially.
+     * @param countingBackend "hash" to count with the gene to pathway index, "bitset" to count with bitset intersections.
+     * @param correction      The multiple testing correction of the p-values of all pathways.
+     * @throws IllegalArgumentException if threads is smaller than 1 or the counting backend is unknown.
+     */
+    public GSEAFactory(int threads, String countingBackend, MultipleTestingCorrection correction) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1.");
+        }
+        if (!"hash".equalsIgnoreCase(countingBackend) && !"bitset".equalsIgnoreCase(countingBackend)) {
+            throw new IllegalArgumentException("Unsupported counting backend: " + countingBackend);
+        }
+        this.threads = threads;
+        this.countingBackend = countingBackend;
+        this.correction = correction;
+    }
+
+    /**
+     * Collects the contingency tables and log fold change summaries of all pathways with the configured backend.
+     *
+     * @param pathwayIndex The index over all pathways.
+     * @param geneRecords  A list of GeneRecord objects representing individual genes.
+     * @param threshold    The threshold for classifying a gene as a DEG.
+     * @return Map of pathway IDs to their statistics.
+     */
+    public Map<String, PathwayStatistics> collectStatistics(PathwayIndex pathwayIndex, List<GeneRecord> geneRecords, double threshold) {
+        if ("bitset".equalsIgnoreCase(countingBackend)) {
+            return pathwayIndex.getPathwayBitsets().buildStatistics(geneRecords, threshold);
+        }
+        return PathwayStatistics.buildAll(pathwayIndex, geneRecords, threshold);
+    }
+
     /**
      * Performs GSEA over the given pathways.
      *
@@ -22,46 +94,222 @@ public class GSEAFactory {
      * @return A list of GSEARecord objects, each containing enrichment data for a specific pathway.
      */
     public List<GSEARecord> performGSEA(long totalDEGs, long totalGenes, Map<String, PathwayRecord> pathwayRecords, List<GeneRecord> geneRecords, double threshold) {
-        GSEA gsea = new GSEA();
-        List<GSEARecord> gseaResults = new ArrayList<>();
+        return performGSEA(totalDEGs, totalGenes, new PathwayIndex(pathwayRecords), geneRecords, threshold);
+    }
 
-        // Store the number of pathways for p-value adjustment calculations
-        int numPathways = pathwayRecords.size();
+    /**
+     * Performs GSEA over the pathways of a prebuilt pathway index.
+     *
+     * @param totalDEGs    The total number of Differentially Expressed Genes (DEGs).
+     * @param totalGenes   The total number of genes in the dataset.
+     * @param pathwayIndex The index over all pathways, built once after reading the pathway files.
+     * @param geneRecords  A list of GeneRecord objects representing individual genes.
+     * @param threshold    The threshold for filtering genes in enrichment calculations to classify if it's a DEG.
+     * @return A list of GSEARecord objects, each containing enrichment data for a specific pathway.
+     */
+    public List<GSEARecord> performGSEA(long totalDEGs, long totalGenes, PathwayIndex pathwayIndex, List<GeneRecord> geneRecords, double threshold) {
+        Map<String, PathwayStatistics> pathwayStatistics = collectStatistics(pathwayIndex, geneRecords, threshold);
+        return performGSEA(totalDEGs, totalGenes, pathwayIndex, pathwayStatistics, Map.of());
+    }
 
-        // Loop over each pathwayID in the pathway records map
-        for (String pathwayID : pathwayRecords.keySet()) {
+    /**
+     * Performs GSEA using pathway statistics that were collected beforehand with PathwayStatistics.buildAll.
+     * The global totals are taken from the contingency tables, so they are only counted once per run.
+     *
+     * @param pathwayIndex      The index over all pathways.
+     * @param pathwayStatistics Map of pathway IDs to their statistics.
+     * @return A list of GSEARecord objects, each containing enrichment data for a specific pathway.
+     */
+    public List<GSEARecord> performGSEA(PathwayIndex pathwayIndex, Map<String, PathwayStatistics> pathwayStatistics) {
+        if (pathwayStatistics.isEmpty()) {
+            return new ArrayList<>();
+        }
 
-            // Calculate the number of DEGs associated with the current pathway, applying the threshold filter
-            long degsInPathway = TableBuilder.degsInPathway(pathwayRecords, geneRecords, pathwayID, threshold);
+        // Every table holds the same global totals
+        ContingencyTable firstTable = pathwayStatistics.values().iterator().next().table();
+        return performGSEA(firstTable.totalDEGs(), firstTable.totalGenes(), pathwayIndex, pathwayStatistics, Map.of());
+    }
 
-            // Calculate the total number of genes in the pathway that meet the threshold
-            long genesInPathway = TableBuilder.genesInPathway(geneRecords, pathwayRecords, pathwayID, threshold);
+    /**
+     * Performs GSEA using pathway statistics, reusing the earlier results of pathways whose statistics didn't change.
+     * Only the pathways without an earlier result are evaluated. The earlier results must have been calculated
+     * with the same global totals, otherwise every pathway has to be evaluated again.
+     *
+     * @param pathwayIndex      The index over all pathways.
+     * @param pathwayStatistics Map of pathway IDs to their statistics.
+     * @param unchangedResults  Map of pathway IDs to the results that can be reused.
+     * @return A list of GSEARecord objects, each containing enrichment data for a specific pathway.
+     */
+    public List<GSEARecord> performGSEA(PathwayIndex pathwayIndex, Map<String, PathwayStatistics> pathwayStatistics, Map<String, GSEARecord> unchangedResults) {
+        if (pathwayStatistics.isEmpty()) {
+            return new ArrayList<>();
+        }
 
-            // Calculate the p-value if DEGs are present; otherwise, set p-value to 1.0
-            double pValue = (degsInPathway > 0)
-                    ? gsea.calculatePValue(degsInPathway, totalDEGs, genesInPathway, totalGenes)
-                    : 1.0;
+        ContingencyTable firstTable = pathwayStatistics.values().iterator().next().table();
+        return performGSEA(firstTable.totalDEGs(), firstTable.totalGenes(), pathwayIndex, pathwayStatistics, unchangedResults);
+    }
 
-            // Adjust the p-value based on the number of pathways
-            double adjustedPValue = gsea.adjustPValue(pValue, numPathways);
+    /**
+     * Performs GSEA using pathway statistics and hands every result to a consumer as soon as it is calculated,
+     * so the results can be written while the remaining pathways are still being evaluated.
+     * The consumer is called one result at a time, in the same order as the results of performGSEA.
+     * A correction that adjusts each p-value on its own, such as Bonferroni, is applied to every result before it is
+     * handed over; with another correction the results are handed over once all of them are evaluated and corrected.
+     *
+     * @param pathwayIndex      The index over all pathways.
+     * @param pathwayStatistics Map of pathway IDs to their statistics.
+     * @param consumer          Receives the GSEA record of every pathway.
+     */
+    public void streamGSEA(PathwayIndex pathwayIndex, Map<String, PathwayStatistics> pathwayStatistics, Consumer<GSEARecord> consumer) {
+        if (pathwayStatistics.isEmpty()) {
+            return;
+        }
 
-            // Calculate the expected number of DEGs for this pathway
-            double expectedDEGs = gsea.calculateExpectedDEGs(totalDEGs, genesInPathway, totalGenes);
+        ContingencyTable firstTable = pathwayStatistics.values().iterator().next().table();
+        if (correction.adjustsEachPValue()) {
+            // Every pathway is a test
+            int tests = pathwayIndex.size();
+            evaluateAll(firstTable.totalDEGs(), firstTable.totalGenes(), pathwayIndex, pathwayStatistics, Map.of(),
+                    result -> consumer.accept(withAdjustedPValue(result, correction.adjust(result.pValue(), tests))));
+        } else {
+            performGSEA(firstTable.totalDEGs(), firstTable.totalGenes(), pathwayIndex, pathwayStatistics, Map.of()).forEach(consumer);
+        }
+    }
 
-            // Set observedDEGs to degsInPathway and calculate the enrichment score
-            double observedDEGs = degsInPathway;
-            double enrichmentScore = gsea.calculateEnrichmentScore(observedDEGs, expectedDEGs);
+    /**
+     * Performs GSEA at several DEG thresholds in one run.
+     * The statistics of all thresholds are collected in a single sweep over the genes sorted by adjusted p-value,
+     * after which every threshold is evaluated like a normal run. The sweep has its own counting, so the counting
+     * backend of the factory isn't used; it gives the same counts as both backends.
+     *
+     * @param pathwayIndex The index over all pathways.
+     * @param geneRecords  A list of GeneRecord objects representing individual genes.
+     * @param thresholds   The thresholds for classifying a gene as a DEG.
+     * @return The GSEA results of every pathway at every threshold, ordered by threshold and then by pathway.
+     */
+    public List<ThresholdResult> performThresholdSweep(PathwayIndex pathwayIndex, List<GeneRecord> geneRecords, double[] thresholds) {
+        List<ThresholdResult> sweepResults = new ArrayList<>();
+        for (Map.Entry<Double, Map<String, PathwayStatistics>> entry : ThresholdSweep.sweep(pathwayIndex, geneRecords, thresholds).entrySet()) {
+            for (GSEARecord result : performGSEA(pathwayIndex, entry.getValue())) {
+                sweepResults.add(new ThresholdResult(entry.getKey(), result));
+            }
+        }
+        return sweepResults;
+    }
 
-            double avgLogFoldChange = gsea.calculateAverageLogFoldChange(geneRecords, pathwayRecords, pathwayID);
+    /**
+     * Calculates the GSEA results of all pathways from their statistics, in the order of the pathway records,
+     * and corrects their p-values for multiple testing.
+     */
+    private List<GSEARecord> performGSEA(long totalDEGs, long totalGenes, PathwayIndex pathwayIndex, Map<String, PathwayStatistics> pathwayStatistics,
+                                         Map<String, GSEARecord> unchangedResults) {
+        List<GSEARecord> gseaResults = new ArrayList<>();
+        evaluateAll(totalDEGs, totalGenes, pathwayIndex, pathwayStatistics, unchangedResults, gseaResults::add);
+        return correct(gseaResults);
+    }
 
-            // Retrieve the description of the pathway
-            String description = pathwayRecords.get(pathwayID).description();
+    /**
+     * Replaces the adjusted p-values of the results with the correction over all of their p-values.
+     * Reused results are corrected again as well, their earlier adjusted p-values depend on the earlier p-values
+     * of the other pathways.
+     */
+    private List<GSEARecord> correct(List<GSEARecord> gseaResults) {
+        double[] pValues = new double[gseaResults.size()];
+        for (int i = 0; i < pValues.length; i++) {
+            pValues[i] = gseaResults.get(i).pValue();
+        }
+        double[] adjustedPValues = correction.adjust(pValues);
 
-            // Add the calculated values to a new GSEARecord and store it in the results list
-            gseaResults.add(new GSEARecord(pathwayID, pValue, adjustedPValue, enrichmentScore, observedDEGs, expectedDEGs, description, avgLogFoldChange));
+        List<GSEARecord> correctedResults = new ArrayList<>(gseaResults.size());
+        for (int i = 0; i < pValues.length; i++) {
+            correctedResults.add(withAdjustedPValue(gseaResults.get(i), adjustedPValues[i]));
         }
+        return correctedResults;
+    }
+
+    /**
+     * Sets the adjusted p-value of a result, a result that already has it is reused.
+     */
+    private static GSEARecord withAdjustedPValue(GSEARecord record, double adjustedPValue) {
+        if (Double.compare(record.adjustedPValue(), adjustedPValue) == 0) {
+            return record;
+        }
+        return new GSEARecord(record.pathwayID(), record.pValue(), adjustedPValue, record.enrichmentScore(),
+                record.observedDEGs(), record.expectedDEGs(), record.description(), record.avgLogFoldChange());
+    }
+
+    /**
+     * Evaluates all pathways and hands their results to a consumer.
+     * The pathways are evaluated in a fixed order, in parallel when more than one thread is configured,
+     * and the results always reach the consumer in that order.
+     */
+    private void evaluateAll(long totalDEGs, long totalGenes, PathwayIndex pathwayIndex, Map<String, PathwayStatistics> pathwayStatistics,
+                             Map<String, GSEARecord> unchangedResults, Consumer<GSEARecord> consumer) {
+        Map<String, PathwayRecord> pathwayRecords = pathwayIndex.getPathwayRecords();
+        GSEA gsea = new GSEA();
+        // One log-factorial table is shared by every pathway in this run
+        HypergeometricEngine hypergeometricEngine = new HypergeometricEngine(totalGenes);
+
+        List<String> pathwayIDs = new ArrayList<>(pathwayRecords.keySet());
+
+        // Each pathway only reads shared, unchanging data, so pathways can be evaluated independently
+        Function<String, GSEARecord> evaluation = pathwayID -> {
+            GSEARecord unchangedResult = unchangedResults.get(pathwayID);
+            return unchangedResult != null ? unchangedResult : evaluatePathway(pathwayID, pathwayStatistics.get(pathwayID),
+                    totalDEGs, totalGenes, gsea, hypergeometricEngine, pathwayRecords);
+        };
+
+        if (threads == 1) {
+            for (String pathwayID : pathwayIDs) {
+                consumer.accept(evaluation.apply(pathwayID));
+            }
+            return;
+        }
+
+        // forEachOrdered hands the results over in the order of pathwayIDs while later pathways are still evaluated
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> pathwayIDs.parallelStream()
+                    .map(evaluation)
+                    .forEachOrdered(consumer)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("GSEA was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("GSEA failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Calculates the GSEA result of a single pathway. Its adjusted p-value is NaN, the multiple testing correction
+     * sets it once the p-values of all pathways are known.
+     */
+    private GSEARecord evaluatePathway(String pathwayID, PathwayStatistics statistics, long totalDEGs, long totalGenes,
+                                       GSEA gsea, HypergeometricEngine hypergeometricEngine, Map<String, PathwayRecord> pathwayRecords) {
+        // The number of DEGs and genes in the current pathway, taken from its contingency table
+        long degsInPathway = statistics.table().degsInPathway();
+        long genesInPathway = statistics.table().genesInPathway();
+
+        // Calculate the p-value if DEGs are present; otherwise, set p-value to 1.0
+        double pValue = (degsInPathway > 0)
+                ? hypergeometricEngine.calculatePValue(degsInPathway, totalDEGs, genesInPathway, totalGenes)
+                : 1.0;
+
+        // Calculate the expected number of DEGs for this pathway
+        double expectedDEGs = gsea.calculateExpectedDEGs(totalDEGs, genesInPathway, totalGenes);
+
+        // Set observedDEGs to degsInPathway and calculate the enrichment score
+        double observedDEGs = degsInPathway;
+        double enrichmentScore = gsea.calculateEnrichmentScore(observedDEGs, expectedDEGs);
+
+        // The average log fold change was collected in the same pass as the DEG counts
+        double avgLogFoldChange = statistics.avgLogFoldChange();
+
+        // Retrieve the description of the pathway
+        String description = pathwayRecords.get(pathwayID).description();
 
-        // Return the list of GSEA results containing enrichment information for all pathways
-        return gseaResults;
+        return new GSEARecord(pathwayID, pValue, Double.NaN, enrichmentScore, observedDEGs, expectedDEGs, description, avgLogFoldChange);
     }
 }
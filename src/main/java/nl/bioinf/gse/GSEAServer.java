@@ -0,0 +1,312 @@
+package nl.bioinf.gse;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local HTTP server that keeps the pathway indices in memory and runs GSEA on DEG tables sent to it,
+ * so every analysis after the first one skips the JVM startup and the reading of the pathway files.
+ * <p>
+ * Endpoints:
+ * <ul>
+ *     <li>POST /gsea with a DEG table (gene, log fold change, adjusted p-value; tab or comma separated) as body.
+ *     Optional query parameters: geneid (default the -gid option), threshold (default the -t option) and
+ *     header (default the -hl option). Returns the GSEA records as JSON.</li>
+ *     <li>GET /health returns the number of pathways of every loaded library.</li>
+ * </ul>
+ * Requests are served concurrently by a fixed pool of threads, each request evaluates its pathways on its own thread.
+ */
+public class GSEAServer implements AutoCloseable {
+
+    private final Map<String, PathwayIndex> pathwayIndices;
+    private final GSEAFactory gseaFactory;
+    private final String geneType;
+    private final double treshold;
+    private final int headerLength;
+    private final ExecutorService executor;
+    private HttpServer server;
+
+    /**
+     * Creates a server over pathway indices that were loaded beforehand.
+     *
+     * @param pathwayIndices  Map of gene ID types to the pathway index of that type, a GMT file has a single index.
+     * @param threads         The number of requests that are served at the same time.
+     * @param countingBackend "hash" or "bitset", the DEG counting backend.
+     * @param geneType        The gene ID type of requests without a geneid parameter, "auto" detects it.
+     * @param treshold        The DEG threshold of requests without a threshold parameter.
+     * @param headerLength    The number of header lines of requests without a header parameter.
+     * @throws IllegalArgumentException if threads is smaller than 1 or the counting backend is unknown.
+     */
+    public GSEAServer(Map<String, PathwayIndex> pathwayIndices, int threads, String countingBackend, String geneType, double treshold, int headerLength) {
+        this(pathwayIndices, threads, countingBackend, new MultipleTestingCorrection.Bonferroni(), geneType, treshold, headerLength);
+    }
+
+    /**
+     * Creates a server that adjusts the p-values of every request with a multiple testing correction.
+     *
+     * @param pathwayIndices  Map of gene ID types to the pathway index of that type, a GMT file has a single index.
+     * @param threads         The number of requests that are served at the same time.
+     * @param countingBackend "hash" or "bitset", the DEG counting backend.
+     * @param correction      The multiple testing correction of the p-values of every request.
+     * @param geneType        The gene ID type of requests without a geneid parameter, "auto" detects it.
+     * @param treshold        The DEG threshold of requests without a threshold parameter.
+     * @param headerLength    The number of header lines of requests without a header parameter.
+     * @throws IllegalArgumentException if threads is smaller than 1 or the counting backend is unknown.
+     */
+    public GSEAServer(Map<String, PathwayIndex> pathwayIndices, int threads, String countingBackend, MultipleTestingCorrection correction,
+                      String geneType, double treshold, int headerLength) {
+        // Requests run side by side, so every request evaluates its pathways sequentially
+        this.gseaFactory = new GSEAFactory(1, countingBackend, correction);
+        this.pathwayIndices = pathwayIndices;
+        this.geneType = geneType;
+        this.treshold = treshold;
+        this.headerLength = headerLength;
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Starts listening on the loopback address.
+     *
+     * @param port The port to listen on, 0 picks a free port.
+     * @return The port the server listens on.
+     * @throws IOException If the port can't be bound.
+     */
+    public int start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(executor);
+        server.createContext("/gsea", exchange -> handle(exchange, "POST", () -> analyse(
+                exchange.getRequestBody().readAllBytes(), queryParameters(exchange.getRequestURI().getRawQuery()))));
+        server.createContext("/health", exchange -> handle(exchange, "GET", this::health));
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server and its threads.
+     */
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Produces the body of a response, can fail with the errors of a bad request.
+     */
+    private interface ResponseBody {
+        String create() throws IOException;
+    }
+
+    /**
+     * Answers a request with JSON. Bad input gives status 400, any other failure status 500.
+     */
+    private void handle(HttpExchange exchange, String method, ResponseBody responseBody) throws IOException {
+        int status = 200;
+        String body;
+        if (!method.equals(exchange.getRequestMethod())) {
+            status = 405;
+            body = error("Use " + method + " for " + exchange.getRequestURI().getPath() + ".");
+        } else {
+            try {
+                body = responseBody.create();
+            } catch (IOException | IllegalArgumentException e) {
+                status = 400;
+                body = error(e.getMessage());
+            } catch (RuntimeException e) {
+                status = 500;
+                body = error(e.toString());
+            }
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Runs GSEA on a DEG table.
+     *
+     * @param content    The bytes of the DEG table, tab separated if the first line contains a tab, comma separated otherwise.
+     * @param parameters The query parameters of the request.
+     * @return The GSEA records as JSON.
+     * @throws IOException If the table has lines with too few fields.
+     * @throws IllegalArgumentException if a parameter or value is invalid, or no genes are found in the pathways.
+     */
+    String analyse(byte[] content, Map<String, String> parameters) throws IOException {
+        double threshold = parameters.containsKey("threshold") ? Double.parseDouble(parameters.get("threshold")) : treshold;
+        int header = parameters.containsKey("header") ? Integer.parseInt(parameters.get("header")) : headerLength;
+        if (threshold <= 0 || threshold > 1) {
+            throw new IllegalArgumentException("The threshold must be between 0 and 1.");
+        }
+
+        List<GeneRecord> geneRecords = new FileParser().readDEGs(content, delimiter(content), header);
+        String type = resolveGeneType(parameters.getOrDefault("geneid", geneType), geneRecords);
+        PathwayIndex pathwayIndex = pathwayIndices.get(type);
+        List<GSEARecord> gseaResults = gseaFactory.performGSEA(pathwayIndex, gseaFactory.collectStatistics(pathwayIndex, geneRecords, threshold));
+
+        StringBuilder json = new StringBuilder(256 + gseaResults.size() * 256);
+        json.append("{\"geneType\":");
+        appendString(json, type);
+        json.append(",\"threshold\":").append(threshold)
+                .append(",\"genes\":").append(geneRecords.size())
+                .append(",\"results\":[");
+        for (int i = 0; i < gseaResults.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendRecord(json, gseaResults.get(i));
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Lists the loaded libraries with their number of pathways.
+     */
+    private String health() {
+        StringBuilder json = new StringBuilder("{\"status\":\"ok\",\"libraries\":{");
+        boolean first = true;
+        for (Map.Entry<String, PathwayIndex> entry : pathwayIndices.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            appendString(json, entry.getKey());
+            json.append(':').append(entry.getValue().size());
+        }
+        return json.append("}}").toString();
+    }
+
+    /**
+     * Finds the library of a gene ID type. "auto" picks the library that knows most of the genes,
+     * a server with a single library uses it for every type.
+     */
+    private String resolveGeneType(String requestedType, List<GeneRecord> geneRecords) {
+        if ("auto".equalsIgnoreCase(requestedType)) {
+            String bestType = null;
+            int bestMatches = 0;
+            for (Map.Entry<String, PathwayIndex> entry : pathwayIndices.entrySet()) {
+                int matches = PathwayLibrary.countMatches(entry.getValue().getGeneDictionary(), geneRecords);
+                if (matches > bestMatches) {
+                    bestType = entry.getKey();
+                    bestMatches = matches;
+                }
+            }
+            if (bestType == null) {
+                throw new IllegalArgumentException("Could not detect the gene ID type, none of the genes occur in the pathways.");
+            }
+            return bestType;
+        }
+
+        for (String type : pathwayIndices.keySet()) {
+            if (type.equalsIgnoreCase(requestedType)) {
+                return type;
+            }
+        }
+        if (pathwayIndices.size() == 1) {
+            return pathwayIndices.keySet().iterator().next();
+        }
+        throw new IllegalArgumentException("Unsupported gene ID type: " + requestedType);
+    }
+
+    /**
+     * Uses a tab as delimiter if the first line of the table contains one, a comma otherwise.
+     */
+    private static char delimiter(byte[] content) {
+        for (byte b : content) {
+            if (b == '\t') {
+                return '\t';
+            }
+            if (b == '\n') {
+                break;
+            }
+        }
+        return ',';
+    }
+
+    /**
+     * Splits a raw query string into decoded parameters.
+     */
+    private static Map<String, String> queryParameters(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static void appendRecord(StringBuilder json, GSEARecord record) {
+        json.append("{\"pathwayID\":");
+        appendString(json, record.pathwayID());
+        json.append(",\"description\":");
+        appendString(json, record.description());
+        json.append(",\"pValue\":");
+        appendNumber(json, record.pValue());
+        json.append(",\"adjustedPValue\":");
+        appendNumber(json, record.adjustedPValue());
+        json.append(",\"enrichmentScore\":");
+        appendNumber(json, record.enrichmentScore());
+        json.append(",\"expectedDEGs\":");
+        appendNumber(json, record.expectedDEGs());
+        json.append(",\"observedDEGs\":");
+        appendNumber(json, record.observedDEGs());
+        json.append(",\"avgLogFoldChange\":");
+        appendNumber(json, record.avgLogFoldChange());
+        json.append('}');
+    }
+
+    /**
+     * Appends a number, NaN and infinity have no JSON form and become null.
+     */
+    private static void appendNumber(StringBuilder json, double value) {
+        if (Double.isFinite(value)) {
+            json.append(value);
+        } else {
+            json.append("null");
+        }
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private static String error(String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, message == null ? "Unknown error" : message);
+        return json.append('}').toString();
+    }
+}
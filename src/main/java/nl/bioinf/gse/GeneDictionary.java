@@ -0,0 +1,97 @@
+package nl.bioinf.gse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary that interns gene identifiers to dense integers 0..size-1.
+ * Pathways store these integers instead of Strings, which saves memory for large libraries
+ * and turns set operations into array or bitset operations.
+ * Interning is not thread-safe, the dictionary should be filled while the files are read and only read afterwards.
+ */
+public class GeneDictionary {
+
+    private final Map<String, Integer> indices = new HashMap<>();
+    private final List<String> geneIDs = new ArrayList<>();
+
+    /**
+     * Returns the index of a gene identifier, adding it to the dictionary if it is new.
+     *
+     * @param geneID The gene identifier.
+     * @return The dense index of the gene.
+     */
+    public int intern(String geneID) {
+        Integer index = indices.get(geneID);
+        if (index == null) {
+            index = geneIDs.size();
+            indices.put(geneID, index);
+            geneIDs.add(geneID);
+        }
+        return index;
+    }
+
+    /**
+     * Looks up the index of a gene identifier without adding it.
+     *
+     * @param geneID The gene identifier.
+     * @return The dense index of the gene, or -1 if it is not in the dictionary.
+     */
+    public int indexOf(String geneID) {
+        Integer index = indices.get(geneID);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Retrieves the gene identifier of an index.
+     *
+     * @param index The dense index of the gene.
+     * @return The gene identifier.
+     */
+    public String geneID(int index) {
+        return geneIDs.get(index);
+    }
+
+    /**
+     * @return The number of genes in the dictionary.
+     */
+    public int size() {
+        return geneIDs.size();
+    }
+
+    /**
+     * Interns a collection of gene identifiers and returns their indices sorted and without duplicates.
+     *
+     * @param geneIDs The gene identifiers.
+     * @return Sorted array of unique gene indices.
+     */
+    public int[] encode(Collection<String> geneIDs) {
+        int[] encoded = new int[geneIDs.size()];
+        int size = 0;
+        for (String geneID : geneIDs) {
+            encoded[size++] = intern(geneID);
+        }
+        return sortedUnique(encoded, size);
+    }
+
+    /**
+     * Sorts the first size values of an array and removes duplicates.
+     *
+     * @param values The values, the array is sorted in place.
+     * @param size   The number of values in use.
+     * @return A new array with the sorted, unique values.
+     */
+    static int[] sortedUnique(int[] values, int size) {
+        Arrays.sort(values, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || values[i] != values[unique - 1]) {
+                values[unique++] = values[i];
+            }
+        }
+        return Arrays.copyOf(values, unique);
+    }
+}
@@ -0,0 +1,145 @@
+package nl.bioinf.gse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a gzip-compressed file, decompressing it on a separate thread.
+ * The decompression thread fills a fixed set of blocks and hands them to the reader through a bounded queue,
+ * so inflating the next part of the file overlaps with parsing the current part and the memory use stays
+ * bounded no matter how large the file is. Blocks are handed back after they are read and reused.
+ */
+public class GzipPipeInputStream extends InputStream {
+
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final int BLOCK_COUNT = 8;
+
+    /**
+     * A block of decompressed bytes, length -1 marks the end of the file.
+     */
+    private static class Block {
+        private final byte[] data;
+        private int length;
+
+        private Block(int size) {
+            this.data = new byte[size];
+        }
+    }
+
+    private static final Block END = new Block(0);
+
+    private final BlockingQueue<Block> freeBlocks = new ArrayBlockingQueue<>(BLOCK_COUNT);
+    private final BlockingQueue<Block> filledBlocks = new ArrayBlockingQueue<>(BLOCK_COUNT + 1);
+    private final Thread inflater;
+    private final Path path;
+    private volatile IOException failure;
+
+    private Block current;
+    private int offset;
+    private boolean finished;
+
+    /**
+     * Opens a gzip-compressed file and starts decompressing it.
+     *
+     * @param path The path to the .gz file.
+     * @throws IOException If the file can't be opened.
+     */
+    public GzipPipeInputStream(Path path) throws IOException {
+        this.path = path;
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            freeBlocks.add(new Block(BLOCK_SIZE));
+        }
+
+        // Opening the file here reports a missing file to the caller instead of the decompression thread
+        InputStream compressed = Files.newInputStream(path);
+        inflater = new Thread(() -> inflate(compressed), "gzip-inflater-" + path.getFileName());
+        inflater.setDaemon(true);
+        inflater.start();
+    }
+
+    /**
+     * Decompresses the file into free blocks until the end of the file, an error or close.
+     */
+    private void inflate(InputStream compressed) {
+        try (InputStream input = new GZIPInputStream(compressed, BLOCK_SIZE)) {
+            while (true) {
+                Block block = freeBlocks.take();
+                block.length = input.readNBytes(block.data, 0, block.data.length);
+                if (block.length == 0) {
+                    break;
+                }
+                filledBlocks.put(block);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            // The reader was closed, nobody waits for the end marker
+            return;
+        }
+        // There is always room for the end marker, the queue holds one more element than there are blocks
+        filledBlocks.offer(END);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextBlock()) {
+            return -1;
+        }
+        return current.data[offset++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextBlock()) {
+            return -1;
+        }
+        int count = Math.min(len, current.length - offset);
+        System.arraycopy(current.data, offset, buffer, off, count);
+        offset += count;
+        return count;
+    }
+
+    /**
+     * Makes sure the current block has unread bytes, waiting for the decompression thread if needed.
+     *
+     * @return False at the end of the file.
+     */
+    private boolean nextBlock() throws IOException {
+        while (!finished && (current == null || offset == current.length)) {
+            if (current != null) {
+                freeBlocks.offer(current);
+                current = null;
+            }
+            try {
+                Block block = filledBlocks.take();
+                if (block == END) {
+                    finished = true;
+                    if (failure != null) {
+                        throw new IOException("Failed to decompress " + path + ": " + failure.getMessage(), failure);
+                    }
+                } else {
+                    current = block;
+                    offset = 0;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while decompressing " + path, e);
+            }
+        }
+        return !finished;
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        inflater.interrupt();
+    }
+}
@@ -0,0 +1,165 @@
+package nl.bioinf.gse;
+
+import org.apache.commons.math3.special.Gamma;
+
+/**
+ * Hypergeometric engine that calculates enrichment p-values in log space.
+ * All binomial coefficients are derived from one shared log-factorial table, so every term
+ * of the tail sum costs O(1) and large pathways no longer overflow to Infinity or NaN.
+ * The table is filled once at construction and never changed afterwards, which makes one engine
+ * safe to share between threads.
+ */
+public class HypergeometricEngine {
+
+    /**
+     * Largest table size that is precomputed, bigger arguments fall back to the log-gamma function.
+     */
+    private static final int MAX_TABLE_SIZE = 10_000_000;
+
+    /**
+     * Relative size below which the remaining terms of a tail sum are ignored.
+     */
+    private static final double TAIL_EPSILON = 1e-17;
+
+    /**
+     * logFactorials[n] holds ln(n!).
+     */
+    private final double[] logFactorials;
+
+    /**
+     * Creates an engine with a log-factorial table covering 0..maxN.
+     *
+     * @param maxN The largest n the table should cover, normally the total number of genes.
+     */
+    public HypergeometricEngine(long maxN) {
+        int size = (int) Math.min(Math.max(maxN, 1), MAX_TABLE_SIZE) + 1;
+        logFactorials = new double[size];
+
+        // ln(n!) = ln((n-1)!) + ln(n), every entry costs a single addition
+        for (int i = 1; i < size; i++) {
+            logFactorials[i] = logFactorials[i - 1] + Math.log(i);
+        }
+    }
+
+    /**
+     * Returns ln(n!), using the table when possible and the log-gamma function otherwise.
+     *
+     * @param n The number to take the factorial of.
+     * @return The natural logarithm of n!.
+     */
+    public double logFactorial(long n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Factorial of a negative number: " + n);
+        }
+        if (n < logFactorials.length) {
+            return logFactorials[(int) n];
+        }
+        return Gamma.logGamma(n + 1.0);
+    }
+
+    /**
+     * Calculates the natural logarithm of the binomial coefficient (n choose k).
+     *
+     * @param n Total items.
+     * @param k Items to choose.
+     * @return ln(n choose k), or negative infinity if k is outside 0..n.
+     */
+    public double logBinomialCoefficient(long n, long k) {
+        if (k < 0 || k > n) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return logFactorial(n) - logFactorial(k) - logFactorial(n - k);
+    }
+
+    /**
+     * Calculates the natural logarithm of the probability of finding exactly degsInPathway DEGs in the pathway.
+     *
+     * @param degsInPathway  Number of DEGs observed in the pathway.
+     * @param genesInPathway Total number of genes in the pathway.
+     * @param totalDEGs      Total number of DEGs in the entire dataset.
+     * @param totalGenes     Total number of genes in the entire dataset.
+     * @return The log probability, or negative infinity if the combination is impossible.
+     */
+    public double logProbability(long degsInPathway, long genesInPathway, long totalDEGs, long totalGenes) {
+        if (totalDEGs > totalGenes || genesInPathway > totalGenes || totalDEGs < 0 || genesInPathway < 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return logBinomialCoefficient(totalDEGs, degsInPathway)
+                + logBinomialCoefficient(totalGenes - totalDEGs, genesInPathway - degsInPathway)
+                - logBinomialCoefficient(totalGenes, genesInPathway);
+    }
+
+    /**
+     * Calculates the p-value for enrichment, the probability of observing degsInPathway or more DEGs in the pathway.
+     * Tails at or below the mode are calculated as one minus the lower tail, so both sums only add
+     * decreasing terms and can stop as soon as the remaining terms no longer change the result.
+     *
+     * @param degsInPathway  Number of DEGs observed in the pathway.
+     * @param totalDEGs      Total number of DEGs in the dataset.
+     * @param genesInPathway Total number of genes in the pathway.
+     * @param totalGenes     Total number of genes in the dataset.
+     * @return P-value for enrichment, 1.0 if pathway or total DEGs are zero.
+     */
+    public double calculatePValue(long degsInPathway, long totalDEGs, long genesInPathway, long totalGenes) {
+        // Same edge case as GSEA.calculatePValue
+        if (genesInPathway == 0 || totalDEGs == 0) {
+            return 1.0;
+        }
+        if (totalDEGs > totalGenes || genesInPathway > totalGenes || totalDEGs < 0 || genesInPathway < 0) {
+            return 1.0;
+        }
+
+        // The range of DEG counts that are actually possible
+        long lowest = Math.max(0, genesInPathway - (totalGenes - totalDEGs));
+        long highest = Math.min(genesInPathway, totalDEGs);
+        if (degsInPathway <= lowest) {
+            return 1.0;
+        }
+        if (degsInPathway > highest) {
+            return 0.0;
+        }
+
+        long mode = (genesInPathway + 1) * (totalDEGs + 1) / (totalGenes + 2);
+        if (degsInPathway > mode) {
+            return Math.min(1.0, upperTail(degsInPathway, highest, genesInPathway, totalDEGs, totalGenes));
+        }
+        return Math.max(0.0, 1.0 - lowerTail(degsInPathway - 1, lowest, genesInPathway, totalDEGs, totalGenes));
+    }
+
+    /**
+     * Sums P(X = i) for i = from..highest, walking away from the mode.
+     */
+    private double upperTail(long from, long highest, long n, long k, long N) {
+        double logFirst = logProbability(from, n, k, N);
+
+        // Every term is expressed relative to the first one and derived from its predecessor
+        double term = 1.0;
+        double sum = 1.0;
+        for (long i = from; i < highest; i++) {
+            term *= ((double) (k - i) * (n - i)) / ((double) (i + 1) * (N - k - n + i + 1));
+            sum += term;
+            if (term < sum * TAIL_EPSILON) {
+                break;
+            }
+        }
+        return Math.exp(logFirst + Math.log(sum));
+    }
+
+    /**
+     * Sums P(X = i) for i = from down to lowest, walking away from the mode.
+     */
+    private double lowerTail(long from, long lowest, long n, long k, long N) {
+        double logFirst = logProbability(from, n, k, N);
+
+        double term = 1.0;
+        double sum = 1.0;
+        for (long i = from; i > lowest; i--) {
+            term *= ((double) i * (N - k - n + i)) / ((double) (k - i + 1) * (n - i + 1));
+            sum += term;
+            if (term < sum * TAIL_EPSILON) {
+                break;
+            }
+        }
+        return Math.exp(logFirst + Math.log(sum));
+    }
+}
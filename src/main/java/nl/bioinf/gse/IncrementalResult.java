@@ -0,0 +1,16 @@
+package nl.bioinf.gse;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of re-analysing a changed gene file against an analysis snapshot.
+ *
+ * @param pathwayStatistics  Map of pathway IDs to their statistics for the new gene file.
+ * @param gseaResults        The GSEA results of all pathways for the new gene file.
+ * @param changedGenes       The number of genes that were added, removed or changed since the snapshot,
+ *                           -1 if the gene files couldn't be compared gene by gene and were analysed in full.
+ * @param recountedPathways  The number of pathways whose statistics were counted again.
+ */
+public record IncrementalResult(Map<String, PathwayStatistics> pathwayStatistics, List<GSEARecord> gseaResults, int changedGenes, int recountedPathways) {
+}
@@ -0,0 +1,69 @@
+package nl.bioinf.gse;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive ints, used to collect the gene indices of a pathway while a file is read
+ * without boxing every value or allocating a list per row.
+ */
+class IntBuffer {
+
+    private int[] values = new int[16];
+    private int size;
+
+    /**
+     * Appends a value, doubling the capacity when the buffer is full.
+     *
+     * @param value The value to add.
+     */
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Appends all values of another buffer.
+     *
+     * @param other The buffer to copy the values from.
+     */
+    void addAll(IntBuffer other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.values[i]);
+        }
+    }
+
+    /**
+     * Appends all values of another buffer, translating every value through a mapping.
+     *
+     * @param other   The buffer to copy the values from.
+     * @param mapping The new value of every old value.
+     */
+    void addAll(IntBuffer other, int[] mapping) {
+        for (int i = 0; i < other.size; i++) {
+            add(mapping[other.values[i]]);
+        }
+    }
+
+    /**
+     * Removes all values, the capacity is kept so the buffer can be reused.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return The number of values in the buffer.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The values sorted and without duplicates, the buffer itself is sorted in place.
+     */
+    int[] toSortedUniqueArray() {
+        return GeneDictionary.sortedUnique(values, size);
+    }
+}
@@ -2,8 +2,12 @@ package nl.bioinf.gse;
 
 import picocli.CommandLine;
 
+import java.awt.GraphicsEnvironment;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -33,56 +37,312 @@ public class Main {
         }
 
         // Retrieve parsed command-line options
-        File geneFile = commandlineProcessor.getGeneFile();
+        List<File> geneFiles = commandlineProcessor.getGeneFiles();
         File pathwayFile = commandlineProcessor.getPathwayFile();
         File pathwayDescFile = commandlineProcessor.getPathwayDescFile();
         String geneId = commandlineProcessor.getGeneId();
         int headerLength = commandlineProcessor.getHeaderLength();
         String pathwayName = commandlineProcessor.getPathwayName();
-        String boxPlot = commandlineProcessor.getBoxPlot();
-        String scatterPlot = commandlineProcessor.getScatterPlot();
+        int top = commandlineProcessor.getTop();
         double treshold = commandlineProcessor.getTreshold();
-        boolean savePlot = commandlineProcessor.getSavePlot();
+        int threads = commandlineProcessor.getThreads();
+        String countingBackend = commandlineProcessor.getCountingBackend();
+        MultipleTestingCorrection correction = commandlineProcessor.getCorrection();
+        double[] thresholds = commandlineProcessor.getThresholds();
+        int permutations = commandlineProcessor.getPermutations();
+        long seed = commandlineProcessor.getSeed();
+        boolean memoryMapped = commandlineProcessor.getMemoryMapped();
+        Path pathwayCacheDirectory = commandlineProcessor.getPathwayCacheDirectory();
+        Path outputFile = commandlineProcessor.getOutputFile();
+        Path geneOutputFile = commandlineProcessor.getGeneOutputFile();
+        int serverPort = commandlineProcessor.getServerPort();
+        Path snapshotFile = commandlineProcessor.getSnapshotFile();
+        Path resultCacheDirectory = commandlineProcessor.getResultCacheDirectory();
+        long cacheSize = commandlineProcessor.getCacheSize();
+
+        // Without a display the plots can only be rendered to files. The property has to be set before AWT is used.
+        boolean headless = commandlineProcessor.getHeadless();
+        if (headless) {
+            System.setProperty("java.awt.headless", "true");
+        } else {
+            headless = GraphicsEnvironment.isHeadless();
+        }
+        PlotOptions plotOptions = new PlotOptions(commandlineProcessor.getBoxPlots(), commandlineProcessor.getScatterPlots(),
+                commandlineProcessor.getSavePlot(), headless, commandlineProcessor.getPlotDirectory(), commandlineProcessor.getTopPathways(),
+                commandlineProcessor.getSketchQuantiles());
 
         // Validate input files and retrieve their paths
-        String degsFilePath = geneFile.getAbsolutePath();
         String pathwaysFilePath = pathwayFile.getAbsolutePath();
-        String hsaPathwaysFilePath = pathwayDescFile.getAbsolutePath();
+        String hsaPathwaysFilePath = pathwayDescFile != null ? pathwayDescFile.getAbsolutePath() : null;
 
         // Initialize the FileParser to process input files
-        FileParser fileParser = new FileParser();
+        FileParser fileParser = new FileParser(memoryMapped, threads);
 
         try {
-            // Read differentially expressed genes (DEGs) and pathway data
-            List<GeneRecord> geneRecords = fileParser.readDEGs(degsFilePath, headerLength);
-            Map<String, PathwayRecord> pathwayRecords = fileParser.readPathways(pathwaysFilePath, hsaPathwaysFilePath, headerLength, geneId);
-
-            // Perform Gene Set Enrichment Analysis (GSEA)
-            GSEAFactory gseaFactory = new GSEAFactory();
-            List<GSEARecord> gseaResults = gseaFactory.performGSEA(
-                    TableBuilder.totalDEGS(geneRecords, treshold),
-                    TableBuilder.totalGenes(geneRecords, treshold),
-                    pathwayRecords,
-                    geneRecords,
-                    treshold
-            );
-
-            // Generate terminal output for GSEA results
-            TerminalOutput.printGSEAResults(gseaResults, pathwayRecords, pathwayName);
-
-            // Generate boxplot if specified
-            if (!"no_boxplot".equals(boxPlot)) {
-                Boxplot.showChart(gseaResults, savePlot, boxPlot);
+            // The server loads the pathways of every gene ID type once and keeps running to answer requests
+            if (serverPort >= 0) {
+                Map<String, PathwayIndex> pathwayIndices = new LinkedHashMap<>();
+                if (FileParser.isGMT(pathwaysFilePath)) {
+                    pathwayIndices.put("gmt", new PathwayIndex(fileParser.readGMT(pathwaysFilePath)));
+                } else {
+                    PathwayLibrary pathwayLibrary = fileParser.readPathwayLibrary(pathwaysFilePath, hsaPathwaysFilePath, headerLength);
+                    for (String geneType : PathwayLibrary.GENE_TYPES) {
+                        pathwayIndices.put(geneType, pathwayLibrary.getPathwayIndex(geneType));
+                    }
+                }
+                // The server has its own thread count, -th defaults to a single thread for a single analysis
+                GSEAServer server = new GSEAServer(pathwayIndices, commandlineProcessor.getServerThreads(), countingBackend, correction, geneId, treshold, headerLength);
+                int port = server.start(serverPort);
+                System.out.println("Serving GSEA on http://localhost:" + port + "/gsea");
+                return;
+            }
+
+            // Sweeps, snapshots and gene output need all parsed genes, other runs of a single gene file are a single analysis
+            boolean singleAnalysis = geneFiles.size() == 1 && thresholds.length == 0 && snapshotFile == null && geneOutputFile == null;
+
+            // A single analysis that ran before with the same input files and parameters is loaded from the result cache
+            // before anything is parsed
+            ResultCache resultCache = null;
+            String cacheKey = null;
+            if (resultCacheDirectory != null && singleAnalysis) {
+                List<Path> inputFiles = new ArrayList<>();
+                inputFiles.add(geneFiles.get(0).toPath());
+                inputFiles.add(pathwayFile.toPath());
+                if (pathwayDescFile != null) {
+                    inputFiles.add(pathwayDescFile.toPath());
+                }
+                // Every parameter that changes the statistics or p-values is part of the key
+                Map<String, String> parameters = new LinkedHashMap<>();
+                parameters.put("geneId", geneId);
+                parameters.put("headerLength", Integer.toString(headerLength));
+                parameters.put("treshold", Double.toString(treshold));
+                parameters.put("correction", correction.name());
+                // The backends give the same counts, but sum the fold changes in a different order
+                parameters.put("countingBackend", countingBackend);
+                parameters.put("permutations", Integer.toString(permutations));
+                parameters.put("seed", permutations > 0 ? Long.toString(seed) : "none");
+
+                resultCache = new ResultCache(resultCacheDirectory, cacheSize);
+                cacheKey = ResultCache.key(inputFiles, parameters);
+                ResultCache.Entry cachedEntry = null;
+                try {
+                    cachedEntry = resultCache.get(cacheKey);
+                } catch (IOException e) {
+                    // The analysis doesn't need the cache, it is only slower without it
+                    System.err.println("Could not read the result cache: " + e.getMessage());
+                }
+                if (cachedEntry != null) {
+                    System.out.println("Loaded the results from the result cache.");
+                    showResults(cachedEntry.gseaResults(), pathwayName, top, cachedEntry.pathwayStatistics(), cachedEntry.empiricalPValues(),
+                            outputFile, plotOptions);
+                    return;
+                }
+            }
+
+            // A single analysis streams the genes into the statistics and the results to the output while the next ones are calculated
+            if (singleAnalysis) {
+                String geneType = geneId;
+                // The top pathways are only known once all pathways are evaluated, so they are printed afterwards
+                boolean printTop = top > 0 && pathwayName.equals("all_pathways");
+                // The box statistics of the plots are collected while the results are written
+                List<BoxStatistics> boxStatistics = plotOptions.newBoxStatistics();
+                AnalysisPipeline analysisPipeline = new AnalysisPipeline(fileParser, threads, countingBackend, correction);
+                ResultCache.Entry results = analysisPipeline.run(geneFiles.get(0).getAbsolutePath(), headerLength, treshold,
+                        sampleGenes -> loadPathways(fileParser, pathwaysFilePath, hsaPathwaysFilePath, headerLength, geneType, pathwayCacheDirectory, sampleGenes),
+                        permutations, seed, printTop ? "no_pathways" : pathwayName, outputFile, result -> {
+                            for (BoxStatistics statistics : boxStatistics) {
+                                statistics.accept(result);
+                            }
+                        });
+                if (printTop) {
+                    TerminalOutput.printTopResults(results.gseaResults(), top, results.pathwayStatistics(), results.empiricalPValues());
+                }
+                showCharts(results.gseaResults(), boxStatistics, plotOptions);
+                if (resultCache != null) {
+                    try {
+                        resultCache.put(cacheKey, results);
+                    } catch (IOException e) {
+                        // The results are already shown, the next run only has to calculate them again
+                        System.err.println("Could not write the result cache: " + e.getMessage());
+                    }
+                }
+                return;
+            }
+
+            // Read differentially expressed genes (DEGs), every gene file of a batch is a separate contrast
+            ContrastBatch contrastBatch = new ContrastBatch(fileParser, threads, countingBackend, correction);
+            Map<String, List<GeneRecord>> contrasts = geneFiles.size() > 1
+                    ? contrastBatch.readContrasts(geneFiles, headerLength)
+                    : Map.of(ContrastBatch.contrastName(geneFiles.get(0)), fileParser.readDEGs(geneFiles.get(0).getAbsolutePath(), headerLength));
+            // The gene ID type is detected from the first contrast
+            List<GeneRecord> geneRecords = contrasts.values().iterator().next();
+
+            // Read the pathway data once, it is shared by all contrasts
+            Map<String, PathwayRecord> pathwayRecords = loadPathways(fileParser, pathwaysFilePath, hsaPathwaysFilePath, headerLength, geneId,
+                    pathwayCacheDirectory, geneRecords);
+
+            // Build the gene to pathway index once, it is shared by all enrichment calculations
+            PathwayIndex pathwayIndex = new PathwayIndex(pathwayRecords);
+
+            // A batch of contrasts gives one combined table keyed by contrast instead of the normal output
+            if (contrasts.size() > 1) {
+                List<ContrastResult> contrastResults = contrastBatch.performGSEA(pathwayIndex, contrasts, treshold);
+                if (outputFile != null) {
+                    try (ResultsWriter resultsWriter = new ResultsWriter(outputFile)) {
+                        resultsWriter.writeContrastResults(contrastResults);
+                    }
+                } else {
+                    TerminalOutput.printContrastResults(contrastResults);
+                }
+                return;
             }
 
-            // Generate scatter plot if specified
-            if (!"no_scatterplot".equals(scatterPlot)) {
-                ScatterPlot.showChart(gseaResults, savePlot, scatterPlot);
+            // Write the genes with their DEG status and pathways if requested
+            if (geneOutputFile != null) {
+                try (ResultsWriter resultsWriter = new ResultsWriter(geneOutputFile)) {
+                    resultsWriter.writeGeneAnnotations(geneRecords, pathwayIndex, treshold);
+                }
             }
 
+            GSEAFactory gseaFactory = new GSEAFactory(threads, countingBackend, correction);
+
+            // A threshold sweep prints the results of every cutoff as one combined table instead of the normal output
+            if (thresholds.length > 0) {
+                List<ThresholdResult> sweepResults = gseaFactory.performThresholdSweep(pathwayIndex, geneRecords, thresholds);
+                if (outputFile != null) {
+                    try (ResultsWriter resultsWriter = new ResultsWriter(outputFile)) {
+                        resultsWriter.writeThresholdSweep(sweepResults);
+                    }
+                } else {
+                    TerminalOutput.printThresholdSweep(sweepResults);
+                }
+                return;
+            }
+
+            Map<String, PathwayStatistics> pathwayStatistics;
+            List<GSEARecord> gseaResults;
+            AnalysisSnapshot snapshot = snapshotFile != null ? AnalysisSnapshot.read(snapshotFile, pathwayIndex, treshold) : null;
+            if (snapshot != null) {
+                // Only count the pathways with genes that changed since the snapshot
+                IncrementalResult incrementalResult = snapshot.update(pathwayIndex, geneRecords, gseaFactory);
+                pathwayStatistics = incrementalResult.pathwayStatistics();
+                gseaResults = incrementalResult.gseaResults();
+                System.out.println("Snapshot: " + incrementalResult.changedGenes() + " changed genes, "
+                        + incrementalResult.recountedPathways() + " of " + pathwayIndex.size() + " pathways counted again.");
+            } else {
+                // Count the contingency tables and log fold changes of all pathways, and the global totals, in a single pass
+                pathwayStatistics = gseaFactory.collectStatistics(pathwayIndex, geneRecords, treshold);
+
+                // Perform Gene Set Enrichment Analysis (GSEA)
+                gseaResults = gseaFactory.performGSEA(pathwayIndex, pathwayStatistics);
+            }
+            if (snapshotFile != null) {
+                new AnalysisSnapshot(pathwayIndex, treshold, geneRecords, pathwayStatistics, gseaResults).write(snapshotFile);
+            }
+
+            // Calculate empirical p-values from gene label permutations if requested
+            Map<String, PermutationResult> empiricalPValues = permutations > 0
+                    ? new PermutationEngine(permutations, seed, threads).calculateEmpiricalPValues(pathwayStatistics)
+                    : Map.of();
+
+            showResults(gseaResults, pathwayName, top, pathwayStatistics, empiricalPValues, outputFile, plotOptions);
+
         } catch (IOException e) {
             // Handle exceptions related to file reading
             System.err.println("Error reading CSV files: " + e.getMessage());
         }
     }
+
+    /**
+     * Reads the pathways of the gene ID type, detecting the type from the genes for "auto".
+     *
+     * @param fileParser            The parser used to read the pathway files.
+     * @param pathwaysFilePath      The path to the pathway file or GMT file.
+     * @param hsaPathwaysFilePath   The path to the pathway description file, or null for a GMT file.
+     * @param headerLength          The number of header lines of the pathway files.
+     * @param geneId                The gene ID type, or "auto".
+     * @param pathwayCacheDirectory The directory of the compiled pathway database, or null.
+     * @param geneRecords           The gene records, or the first of them, to detect the gene ID type from.
+     * @return Map of pathway IDs to PathwayRecord objects.
+     * @throws IOException If the pathway files can't be read.
+     */
+    private static Map<String, PathwayRecord> loadPathways(FileParser fileParser, String pathwaysFilePath, String hsaPathwaysFilePath, int headerLength,
+                                                           String geneId, Path pathwayCacheDirectory, List<GeneRecord> geneRecords) throws IOException {
+        if (FileParser.isGMT(pathwaysFilePath)) {
+            // GMT files hold the gene sets and their descriptions in one file
+            return fileParser.readGMT(pathwaysFilePath);
+        } else if ("auto".equalsIgnoreCase(geneId)) {
+            // Read all gene ID types at once and pick the one the gene file uses, the pathway database holds a single type
+            PathwayLibrary pathwayLibrary = fileParser.readPathwayLibrary(pathwaysFilePath, hsaPathwaysFilePath, headerLength);
+            String geneType = pathwayLibrary.detectGeneType(geneRecords);
+            System.out.println("Detected gene ID format: " + geneType);
+            return pathwayLibrary.getPathwayRecords(geneType);
+        } else if (pathwayCacheDirectory == null) {
+            return fileParser.readPathways(pathwaysFilePath, hsaPathwaysFilePath, headerLength, geneId);
+        }
+        // The pathways are loaded from the compiled pathway database when it is up to date
+        return fileParser.readPathwaysCached(pathwaysFilePath, hsaPathwaysFilePath, headerLength, geneId, pathwayCacheDirectory);
+    }
+
+    /**
+     * Prints the GSEA results, writes them to the output file and shows the requested plots.
+     *
+     * @param gseaResults       List of GSEARecord objects containing the analysis results.
+     * @param pathwayName       The pathway to print, "all_pathways" or "no_pathways".
+     * @param top               The number of most significant pathways printed for "all_pathways", 0 prints all of them.
+     * @param pathwayStatistics Map of pathway IDs to their statistics.
+     * @param empiricalPValues  Map of pathway IDs to their permutation results, empty if no permutation test was run.
+     * @param outputFile        The file the results are written to, or null.
+     * @param plotOptions       The plots to show.
+     * @throws IOException If the output file can't be written.
+     */
+    private static void showResults(List<GSEARecord> gseaResults, String pathwayName, int top, Map<String, PathwayStatistics> pathwayStatistics,
+                                    Map<String, PermutationResult> empiricalPValues, Path outputFile, PlotOptions plotOptions) throws IOException {
+        // Generate terminal output for GSEA results
+        if (top > 0 && pathwayName.equals("all_pathways")) {
+            TerminalOutput.printTopResults(gseaResults, top, pathwayStatistics, empiricalPValues);
+        } else {
+            TerminalOutput.printGSEAResults(gseaResults, pathwayName, pathwayStatistics, empiricalPValues);
+        }
+
+        // Write the GSEA results to a file if requested
+        if (outputFile != null) {
+            try (ResultsWriter resultsWriter = new ResultsWriter(outputFile)) {
+                resultsWriter.writeGSEAResults(gseaResults, empiricalPValues);
+            }
+        }
+
+        // The results are complete, so the box statistics are collected from them in one go
+        List<BoxStatistics> boxStatistics = new ArrayList<>();
+        for (String dataType : plotOptions.boxPlots()) {
+            boxStatistics.add(BoxStatistics.of(gseaResults, dataType, plotOptions.sketchQuantiles()));
+        }
+        showCharts(gseaResults, boxStatistics, plotOptions);
+    }
+
+    /**
+     * Shows the requested plots of the GSEA results, or renders them to PNG files when running headless.
+     *
+     * @param gseaResults   List of GSEARecord objects containing the analysis results.
+     * @param boxStatistics The collected statistics of the requested boxplots.
+     * @param plotOptions   The plots to show.
+     * @throws IOException If a headless plot can't be written.
+     */
+    private static void showCharts(List<GSEARecord> gseaResults, List<BoxStatistics> boxStatistics, PlotOptions plotOptions) throws IOException {
+        if (plotOptions.headless()) {
+            // All plots are rendered concurrently from the same results
+            new ChartExporter(plotOptions.plotDirectory(), plotOptions.topPathways()).export(gseaResults, boxStatistics, plotOptions.scatterPlots());
+            return;
+        }
+
+        // Generate the boxplots if specified
+        for (BoxStatistics boxPlot : boxStatistics) {
+            Boxplot.showChart(boxPlot, plotOptions.savePlot(), plotOptions.plotDirectory());
+        }
+
+        // Generate the scatter plots if specified
+        for (String scatterPlot : plotOptions.scatterPlots()) {
+            ScatterPlot.showChart(gseaResults, plotOptions.savePlot(), scatterPlot, plotOptions.plotDirectory(), plotOptions.topPathways());
+        }
+    }
 }
@@ -0,0 +1,395 @@
+package nl.bioinf.gse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits a memory-mapped delimited file into lines and fields without creating a String per field.
+ * Gzip-compressed files are decompressed into memory and split the same way.
+ * Fields are kept as byte ranges of the mapped file; only the fields that are needed are turned into Strings,
+ * and numeric fields are parsed directly from the bytes.
+ * The tokenizer follows the commons-csv settings used by FileParser: empty lines are skipped, fields are trimmed
+ * and fields can be quoted with '"', where a doubled quote inside a quoted field is a literal quote.
+ */
+public class MappedTokenizer {
+
+    /**
+     * Powers of ten that are exactly representable as a double, used by the fast double parser.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final ByteBuffer buffer;
+    private final byte delimiter;
+    private final int limit;
+    private int position;
+    private int lineNumber;
+    private boolean quoted;
+
+    /**
+     * fieldStarts[i] and fieldEnds[i] hold the trimmed byte range of field i of the current line.
+     */
+    private int[] fieldStarts = new int[8];
+    private int[] fieldEnds = new int[8];
+    private boolean[] fieldEscaped = new boolean[8];
+    private int fieldCount;
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Maps a file into memory, a .gz file is decompressed into memory instead.
+     *
+     * @param filePath  The path to the file.
+     * @param delimiter The field delimiter, an ASCII character.
+     * @throws IOException If the file can't be read or is larger than 2 GB.
+     */
+    public MappedTokenizer(String filePath, char delimiter) throws IOException {
+        this(map(filePath), delimiter);
+    }
+
+    /**
+     * Creates a tokenizer over bytes that are already in memory, such as the body of a request.
+     *
+     * @param buffer    The bytes to tokenize, from position 0 up to the limit.
+     * @param delimiter The field delimiter, an ASCII character.
+     */
+    MappedTokenizer(ByteBuffer buffer, char delimiter) {
+        this(buffer, (byte) delimiter, 0, buffer.limit());
+    }
+
+    /**
+     * Creates a tokenizer over a byte range of an already mapped file.
+     * Only absolute reads are used, so tokenizers over different ranges of one buffer can run on different threads.
+     */
+    private MappedTokenizer(ByteBuffer buffer, byte delimiter, int start, int end) {
+        this.buffer = buffer;
+        this.delimiter = delimiter;
+        this.position = start;
+        this.limit = end;
+    }
+
+    private static ByteBuffer map(String filePath) throws IOException {
+        // A compressed file can't be mapped, it is decompressed into memory instead
+        if (filePath.endsWith(".gz")) {
+            try (InputStream input = new GzipPipeInputStream(Path.of(filePath))) {
+                return ByteBuffer.wrap(input.readAllBytes());
+            }
+        }
+        try (FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File is too large to be memory-mapped: " + filePath);
+            }
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Splits the rest of the file, from the current position, into chunks that start and end on line breaks.
+     * Every chunk gets its own tokenizer, whose line numbers start at 0 again.
+     * Line breaks inside quoted fields are not recognised, callers should check hasQuotes() on the chunks.
+     *
+     * @param chunks The number of chunks to aim for, fewer are returned for small files.
+     * @return The tokenizers of the chunks, in file order.
+     */
+    public List<MappedTokenizer> split(int chunks) {
+        List<MappedTokenizer> tokenizers = new ArrayList<>();
+        long chunkSize = Math.max(1, ((long) limit - position + chunks - 1) / chunks);
+        int start = position;
+        while (start < limit) {
+            int end = (int) Math.min(limit, start + chunkSize);
+            // Move the end of the chunk to the start of the next line
+            while (end < limit && !isLineBreak(buffer.get(end - 1))) {
+                end++;
+            }
+            if (end < limit && buffer.get(end - 1) == '\r' && buffer.get(end) == '\n') {
+                end++;
+            }
+            tokenizers.add(new MappedTokenizer(buffer, delimiter, start, end));
+            start = end;
+        }
+        return tokenizers;
+    }
+
+    /**
+     * Advances to the next non-empty line and splits it into fields.
+     *
+     * @return True if a line was read, false at the end of the file.
+     */
+    public boolean nextLine() {
+        // Skip empty lines, like commons-csv does
+        while (position < limit && isLineBreak(buffer.get(position))) {
+            position = skipLineBreak(position);
+        }
+        if (position >= limit) {
+            return false;
+        }
+
+        lineNumber++;
+        fieldCount = 0;
+        while (true) {
+            int start = position;
+            int end;
+            boolean escaped = false;
+
+            // Leading whitespace is trimmed, so a quote may follow it
+            int contentStart = start;
+            while (contentStart < limit && isWhitespace(buffer.get(contentStart))) {
+                contentStart++;
+            }
+
+            if (contentStart < limit && buffer.get(contentStart) == '"') {
+                quoted = true;
+                // Quoted field, delimiters and line breaks inside the quotes belong to the field
+                int i = contentStart + 1;
+                while (i < limit) {
+                    if (buffer.get(i) == '"') {
+                        if (i + 1 < limit && buffer.get(i + 1) == '"') {
+                            escaped = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                start = contentStart + 1;
+                end = Math.min(i, limit);
+                // Anything between the closing quote and the delimiter is ignored
+                position = Math.min(i + 1, limit);
+                while (position < limit && buffer.get(position) != delimiter && !isLineBreak(buffer.get(position))) {
+                    position++;
+                }
+            } else {
+                while (position < limit && buffer.get(position) != delimiter && !isLineBreak(buffer.get(position))) {
+                    position++;
+                }
+                end = position;
+            }
+
+            // Trim the field
+            while (start < end && isWhitespace(buffer.get(start))) {
+                start++;
+            }
+            while (end > start && isWhitespace(buffer.get(end - 1))) {
+                end--;
+            }
+            addField(start, end, escaped);
+
+            if (position < limit && buffer.get(position) == delimiter) {
+                position++;
+                continue;
+            }
+            if (position < limit) {
+                position = skipLineBreak(position);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return The number of the current line among the non-empty lines, starting at 1.
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return True if a quoted field was read, such a field may contain line breaks.
+     */
+    public boolean hasQuotes() {
+        return quoted;
+    }
+
+    /**
+     * @return The number of fields on the current line.
+     */
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Retrieves a field of the current line as a String.
+     *
+     * @param index The index of the field.
+     * @return The trimmed field.
+     * @throws IOException If the current line has no field with this index.
+     */
+    public String field(int index) throws IOException {
+        checkField(index);
+        int length = fieldEnds[index] - fieldStarts[index];
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buffer.get(fieldStarts[index], scratch, 0, length);
+        String value = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        return fieldEscaped[index] ? value.replace("\"\"", "\"") : value;
+    }
+
+    /**
+     * Checks whether a field of the current line equals an ASCII string, without creating a String.
+     *
+     * @param index The index of the field.
+     * @param value The string to compare with.
+     * @return True if the field equals the string.
+     * @throws IOException If the current line has no field with this index.
+     */
+    public boolean fieldEquals(int index, String value) throws IOException {
+        checkField(index);
+        int start = fieldStarts[index];
+        int length = fieldEnds[index] - start;
+        if (value == null) {
+            return false;
+        }
+        // Escaped quotes are compared on the String, the raw bytes differ from the value
+        if (fieldEscaped[index]) {
+            return field(index).equals(value);
+        }
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c > 0x7F || buffer.get(start + i) != (byte) c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a field of the current line as a double.
+     * Plain decimal numbers with at most 18 significant digits and a small exponent are parsed directly from
+     * the bytes; these values are exact when converted, so the result is the same as Double.parseDouble.
+     * Everything else falls back to Double.parseDouble.
+     *
+     * @param index The index of the field.
+     * @return The parsed value.
+     * @throws IOException If the current line has no field with this index.
+     * @throws NumberFormatException If the field is not a number.
+     */
+    public double parseDouble(int index) throws IOException {
+        checkField(index);
+        int i = fieldStarts[index];
+        int end = fieldEnds[index];
+        if (fieldEscaped[index] || i == end) {
+            return Double.parseDouble(field(index));
+        }
+
+        boolean negative = false;
+        byte b = buffer.get(i);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+
+        // Integer part
+        while (i < end && (b = buffer.get(i)) >= '0' && b <= '9') {
+            if (mantissa != 0 || b != '0') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+            }
+            anyDigit = true;
+            i++;
+        }
+        // Fraction part
+        if (i < end && buffer.get(i) == '.') {
+            i++;
+            while (i < end && (b = buffer.get(i)) >= '0' && b <= '9') {
+                if (mantissa != 0 || b != '0') {
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                }
+                exponent--;
+                anyDigit = true;
+                i++;
+            }
+        }
+        // Exponent part
+        if (anyDigit && i < end && ((b = buffer.get(i)) == 'e' || b == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && ((b = buffer.get(i)) == '-' || b == '+')) {
+                negativeExponent = b == '-';
+                i++;
+            }
+            int explicitExponent = 0;
+            int exponentDigits = 0;
+            while (i < end && (b = buffer.get(i)) >= '0' && b <= '9' && exponentDigits < 9) {
+                explicitExponent = explicitExponent * 10 + (b - '0');
+                exponentDigits++;
+                i++;
+            }
+            if (exponentDigits == 0) {
+                return Double.parseDouble(field(index));
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        // Anything unusual (NaN, Infinity, hex, type suffixes, too many digits) goes through the JDK parser
+        if (!anyDigit || i != end || digits > 18) {
+            return Double.parseDouble(field(index));
+        }
+        if (mantissa == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+        // Both the mantissa and the power of ten are exact doubles, so one multiplication or division rounds correctly
+        if (mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+            double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(field(index));
+    }
+
+    private void addField(int start, int end, boolean escaped) {
+        if (fieldCount == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+            fieldEscaped = Arrays.copyOf(fieldEscaped, fieldCount * 2);
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldEscaped[fieldCount] = escaped;
+        fieldCount++;
+    }
+
+    private void checkField(int index) throws IOException {
+        if (index < 0 || index >= fieldCount) {
+            throw new IOException("Line " + lineNumber + " has no column " + (index + 1) + ".");
+        }
+    }
+
+    /**
+     * Skips one line break, where \r\n counts as a single line break.
+     */
+    private int skipLineBreak(int index) {
+        if (buffer.get(index) == '\r' && index + 1 < limit && buffer.get(index + 1) == '\n') {
+            return index + 2;
+        }
+        return index + 1;
+    }
+
+    private static boolean isLineBreak(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * Matches String.trim, which commons-csv uses to trim fields, but never matches the delimiter or a line break.
+     */
+    private boolean isWhitespace(byte b) {
+        return b >= 0 && b <= ' ' && b != delimiter && !isLineBreak(b);
+    }
+}
@@ -0,0 +1,223 @@
+package nl.bioinf.gse;
+
+import java.util.Arrays;
+
+/**
+ * Corrects the p-values of all pathways of an analysis for multiple testing.
+ * A correction is applied once to the p-values of all pathways after they are evaluated, because the step-up and
+ * step-down methods need every p-value to adjust any of them.
+ * <p>
+ * The p-values are sorted once into a primitive array. The adjusted p-value of every rank is calculated in a single
+ * pass over the sorted p-values, and every pathway finds its rank with a binary search. Tied p-values get the same
+ * adjusted p-value with all of these methods, so any matching rank will do. Correcting n p-values therefore takes
+ * O(n log n) time. NaN p-values stay NaN and don't count as tests.
+ */
+public interface MultipleTestingCorrection {
+
+    /**
+     * Adjusts the p-values of all tests.
+     *
+     * @param pValues The p-values, not modified.
+     * @return The adjusted p-values in the same order, capped at 1.0.
+     */
+    double[] adjust(double[] pValues);
+
+    /**
+     * Checks whether the correction can adjust a p-value on its own, knowing only the number of tests.
+     * Such a correction can be applied to every result as soon as it is calculated.
+     *
+     * @return True if adjust(pValue, tests) is supported.
+     */
+    default boolean adjustsEachPValue() {
+        return false;
+    }
+
+    /**
+     * Adjusts a single p-value without the p-values of the other tests.
+     *
+     * @param pValue The p-value.
+     * @param tests  The number of tests.
+     * @return The adjusted p-value, capped at 1.0.
+     * @throws UnsupportedOperationException if the correction needs the p-values of all tests.
+     */
+    default double adjust(double pValue, int tests) {
+        throw new UnsupportedOperationException("The " + name() + " correction needs the p-values of all tests.");
+    }
+
+    /**
+     * @return The name of the correction as it is given on the command line.
+     */
+    String name();
+
+    /**
+     * Looks up a correction by its command line name.
+     *
+     * @param name "bonferroni", "holm", "bh" (Benjamini-Hochberg) or "by" (Benjamini-Yekutieli).
+     * @return The correction.
+     * @throws IllegalArgumentException if the name is unknown.
+     */
+    static MultipleTestingCorrection forName(String name) {
+        switch (name.toLowerCase()) {
+            case "bonferroni":
+                return new Bonferroni();
+            case "holm":
+                return new Holm();
+            case "bh":
+                return new BenjaminiHochberg();
+            case "by":
+                return new BenjaminiYekutieli();
+            default:
+                throw new IllegalArgumentException("Unsupported multiple testing correction: " + name);
+        }
+    }
+
+    /**
+     * Bonferroni correction: every p-value is multiplied by the number of tests.
+     * It only needs the number of tests, so it can also be applied to every pathway while the results stream out.
+     */
+    class Bonferroni implements MultipleTestingCorrection {
+        @Override
+        public double[] adjust(double[] pValues) {
+            int tests = 0;
+            for (double pValue : pValues) {
+                if (!Double.isNaN(pValue)) {
+                    tests++;
+                }
+            }
+            double[] adjusted = new double[pValues.length];
+            for (int i = 0; i < pValues.length; i++) {
+                adjusted[i] = adjust(pValues[i], tests);
+            }
+            return adjusted;
+        }
+
+        @Override
+        public boolean adjustsEachPValue() {
+            return true;
+        }
+
+        @Override
+        public double adjust(double pValue, int tests) {
+            return Math.min(1.0, pValue * tests);
+        }
+
+        @Override
+        public String name() {
+            return "bonferroni";
+        }
+    }
+
+    /**
+     * Holm's step-down correction: the k-th smallest of n p-values is multiplied by n - k + 1, and an adjusted
+     * p-value is never smaller than the one of a smaller p-value.
+     */
+    class Holm implements MultipleTestingCorrection {
+        @Override
+        public double[] adjust(double[] pValues) {
+            double[] sorted = sortedPValues(pValues);
+            int tests = countTests(sorted);
+            double[] adjustedByRank = new double[tests];
+            double running = 0.0;
+            for (int rank = 0; rank < tests; rank++) {
+                running = Math.max(running, Math.min(1.0, (tests - rank) * sorted[rank]));
+                adjustedByRank[rank] = running;
+            }
+            return byRank(pValues, sorted, adjustedByRank);
+        }
+
+        @Override
+        public String name() {
+            return "holm";
+        }
+    }
+
+    /**
+     * Benjamini-Hochberg step-up correction of the false discovery rate: the k-th smallest of n p-values is
+     * multiplied by n / k, and an adjusted p-value is never larger than the one of a larger p-value.
+     */
+    class BenjaminiHochberg implements MultipleTestingCorrection {
+        @Override
+        public double[] adjust(double[] pValues) {
+            return stepUp(pValues, 1.0);
+        }
+
+        @Override
+        public String name() {
+            return "bh";
+        }
+    }
+
+    /**
+     * Benjamini-Yekutieli correction of the false discovery rate, which also holds for dependent tests such as
+     * overlapping pathways: the Benjamini-Hochberg correction multiplied by the harmonic number of n.
+     */
+    class BenjaminiYekutieli implements MultipleTestingCorrection {
+        @Override
+        public double[] adjust(double[] pValues) {
+            int tests = 0;
+            for (double pValue : pValues) {
+                if (!Double.isNaN(pValue)) {
+                    tests++;
+                }
+            }
+            double harmonicNumber = 0.0;
+            for (int k = 1; k <= tests; k++) {
+                harmonicNumber += 1.0 / k;
+            }
+            return stepUp(pValues, harmonicNumber);
+        }
+
+        @Override
+        public String name() {
+            return "by";
+        }
+    }
+
+    /**
+     * The step-up correction of Benjamini and Hochberg, with every p-value multiplied by an extra factor.
+     */
+    private static double[] stepUp(double[] pValues, double factor) {
+        double[] sorted = sortedPValues(pValues);
+        int tests = countTests(sorted);
+        double[] adjustedByRank = new double[tests];
+        double running = 1.0;
+        for (int rank = tests - 1; rank >= 0; rank--) {
+            running = Math.min(running, factor * tests / (rank + 1) * sorted[rank]);
+            adjustedByRank[rank] = running;
+        }
+        return byRank(pValues, sorted, adjustedByRank);
+    }
+
+    /**
+     * Sorts a copy of the p-values, NaN values end up last.
+     */
+    private static double[] sortedPValues(double[] pValues) {
+        double[] sorted = pValues.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Counts the p-values before the NaN values at the end of the sorted p-values.
+     */
+    private static int countTests(double[] sorted) {
+        int tests = sorted.length;
+        while (tests > 0 && Double.isNaN(sorted[tests - 1])) {
+            tests--;
+        }
+        return tests;
+    }
+
+    /**
+     * Looks up the adjusted p-value of every p-value by its rank in the sorted p-values.
+     */
+    private static double[] byRank(double[] pValues, double[] sorted, double[] adjustedByRank) {
+        double[] adjusted = new double[pValues.length];
+        for (int i = 0; i < pValues.length; i++) {
+            adjusted[i] = Double.isNaN(pValues[i])
+                    ? Double.NaN
+                    : adjustedByRank[Arrays.binarySearch(sorted, 0, adjustedByRank.length, pValues[i])];
+        }
+        return adjusted;
+    }
+}
@@ -0,0 +1,164 @@
+package nl.bioinf.gse;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bitset representation of the pathways of a PathwayIndex, used as an alternative DEG counting backend.
+ * Every pathway is a sparse bitset over the gene indices of the shared GeneDictionary: only the 64-bit words
+ * that contain at least one gene are stored, together with their position. The DEGs of a gene table are a dense
+ * bitset over the same indices, so the number of DEGs in a pathway is the popcount of pathway AND DEGs.
+ * A bitset holds every gene once, while the hash backend counts every row of the gene table. When a pathway gene
+ * occurs in more than one row the statistics are therefore collected with the hash backend instead, so both
+ * backends always give the same counts.
+ */
+public class PathwayBitsets {
+
+    private final PathwayIndex pathwayIndex;
+    private final int wordCount;
+
+    /**
+     * wordPositions[ordinal] holds the positions of the non-empty words of a pathway, words[ordinal] the words themselves.
+     */
+    private final int[][] wordPositions;
+    private final long[][] words;
+
+    /**
+     * Builds the bitsets of all pathways in the index.
+     *
+     * @param pathwayIndex The index over all pathways.
+     */
+    public PathwayBitsets(PathwayIndex pathwayIndex) {
+        this.pathwayIndex = pathwayIndex;
+        this.wordCount = (pathwayIndex.getGeneDictionary().size() + 63) >>> 6;
+
+        List<String> pathwayIDs = pathwayIndex.getPathwayIDs();
+        wordPositions = new int[pathwayIDs.size()][];
+        words = new long[pathwayIDs.size()][];
+
+        for (int ordinal = 0; ordinal < pathwayIDs.size(); ordinal++) {
+            // The gene indices are sorted, so genes of the same word are next to each other
+            int[] geneIndices = pathwayIndex.getPathwayRecords().get(pathwayIDs.get(ordinal)).geneIndices();
+            IntBuffer positions = new IntBuffer();
+            long[] pathwayWords = new long[geneIndices.length];
+            int used = 0;
+            int lastPosition = -1;
+            for (int geneIndex : geneIndices) {
+                int position = geneIndex >>> 6;
+                if (position != lastPosition) {
+                    positions.add(position);
+                    used++;
+                    lastPosition = position;
+                }
+                pathwayWords[used - 1] |= 1L << geneIndex;
+            }
+            wordPositions[ordinal] = positions.toSortedUniqueArray();
+            words[ordinal] = Arrays.copyOf(pathwayWords, used);
+        }
+    }
+
+    /**
+     * Counts the genes of a pathway that are set in a dense gene bitset.
+     *
+     * @param ordinal  The ordinal of the pathway in the index.
+     * @param geneBits Dense bitset over the gene indices.
+     * @return The number of genes in both the pathway and the bitset.
+     */
+    public long intersectionCount(int ordinal, long[] geneBits) {
+        int[] positions = wordPositions[ordinal];
+        long[] pathwayWords = words[ordinal];
+
+        long count = 0;
+        for (int i = 0; i < positions.length; i++) {
+            count += Long.bitCount(pathwayWords[i] & geneBits[positions[i]]);
+        }
+        return count;
+    }
+
+    /**
+     * Collects the statistics of all pathways with bitset intersections.
+     * DEG and non-DEG counts are popcounts, the log fold change summaries are collected by walking the
+     * gene indices of each pathway over an array of fold changes by gene index.
+     * Gene tables with a pathway gene in more than one row are counted with PathwayStatistics.buildAll instead.
+     *
+     * @param geneRecords List of GeneRecord objects with gene expression data.
+     * @param treshold    The adjusted p-value threshold for classifying DEGs and non-DEGs.
+     * @return Map of pathway IDs to their statistics, in ordinal order.
+     */
+    public Map<String, PathwayStatistics> buildStatistics(List<GeneRecord> geneRecords, double treshold) {
+        GeneDictionary geneDictionary = pathwayIndex.getGeneDictionary();
+        long[] degBits = new long[wordCount];
+        long[] nonDEGBits = new long[wordCount];
+        long[] measuredBits = new long[wordCount];
+        double[] logFoldChanges = new double[wordCount << 6];
+
+        // Classify every gene once and set its bit; genes outside all pathways only count towards the totals
+        long totalDEGs = 0;
+        long totalNonDEGs = 0;
+        for (GeneRecord geneRecord : geneRecords) {
+            boolean isDEG = geneRecord.adjustedPValue() < treshold;
+            boolean isNonDEG = geneRecord.adjustedPValue() > treshold;
+            if (isDEG) {
+                totalDEGs++;
+            } else if (isNonDEG) {
+                totalNonDEGs++;
+            }
+
+            int geneIndex = geneDictionary.indexOf(geneRecord.geneSymbol());
+            if (geneIndex < 0 || geneIndex >= logFoldChanges.length) {
+                continue;
+            }
+            long bit = 1L << geneIndex;
+            if ((measuredBits[geneIndex >>> 6] & bit) != 0) {
+                // A second row of the same gene can't be represented by a single bit, count every row like the hash backend
+                return PathwayStatistics.buildAll(pathwayIndex, geneRecords, treshold);
+            }
+            measuredBits[geneIndex >>> 6] |= bit;
+            logFoldChanges[geneIndex] = geneRecord.logFoldChange();
+            if (isDEG) {
+                degBits[geneIndex >>> 6] |= bit;
+            } else if (isNonDEG) {
+                nonDEGBits[geneIndex >>> 6] |= bit;
+            }
+        }
+
+        List<String> pathwayIDs = pathwayIndex.getPathwayIDs();
+        Map<String, PathwayStatistics> statistics = new LinkedHashMap<>();
+        for (int ordinal = 0; ordinal < pathwayIDs.size(); ordinal++) {
+            String pathwayID = pathwayIDs.get(ordinal);
+            long degsInPathway = intersectionCount(ordinal, degBits);
+            long nonDEGsInPathway = intersectionCount(ordinal, nonDEGBits);
+
+            FoldChangeSummary.Accumulator allGenes = new FoldChangeSummary.Accumulator();
+            FoldChangeSummary.Accumulator upRegulated = new FoldChangeSummary.Accumulator();
+            FoldChangeSummary.Accumulator downRegulated = new FoldChangeSummary.Accumulator();
+            for (int geneIndex : pathwayIndex.getPathwayRecords().get(pathwayID).geneIndices()) {
+                if (!isSet(measuredBits, geneIndex)) {
+                    continue;
+                }
+                double logFoldChange = logFoldChanges[geneIndex];
+                allGenes.add(logFoldChange);
+                if (isSet(degBits, geneIndex)) {
+                    if (logFoldChange > 0) {
+                        upRegulated.add(logFoldChange);
+                    } else if (logFoldChange < 0) {
+                        downRegulated.add(logFoldChange);
+                    }
+                }
+            }
+
+            ContingencyTable table = new ContingencyTable(pathwayID, degsInPathway, nonDEGsInPathway, totalDEGs, totalNonDEGs, treshold);
+            statistics.put(pathwayID, new PathwayStatistics(table, allGenes.toSummary(), upRegulated.toSummary(), downRegulated.toSummary()));
+        }
+        return statistics;
+    }
+
+    /**
+     * Checks whether a bit is set in a dense bitset.
+     */
+    private static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+}
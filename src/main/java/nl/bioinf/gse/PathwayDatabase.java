@@ -0,0 +1,219 @@
+package nl.bioinf.gse;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary, pre-compiled form of the pathway files, so they don't have to be parsed again on every run.
+ * The database stores the gene dictionary, the sorted gene indices of every pathway and the descriptions,
+ * and is read back through a memory mapping. It starts with a key describing the source files (size,
+ * modification time and CRC32C checksum), the header length and the gene type it was built from;
+ * a database whose key doesn't match the current files is ignored and rebuilt.
+ * <p>
+ * Layout, big-endian: magic "GSEPWDB", version, key, gene count, gene IDs, pathway count and per pathway
+ * the ID, description, gene count and gene indices. Strings are stored as a length followed by UTF-8 bytes.
+ */
+public class PathwayDatabase {
+
+    private static final byte[] MAGIC = "GSEPWDB".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    /**
+     * Describes a source file by its size, modification time and checksum.
+     *
+     * @param size         The size of the file in bytes.
+     * @param lastModified The modification time of the file in milliseconds.
+     * @param checksum     The CRC32C checksum of the file contents.
+     */
+    public record SourceFile(long size, long lastModified, long checksum) {
+
+        /**
+         * Describes a file on disk, the checksum is calculated over a memory mapping of the file.
+         *
+         * @param path The path to the file.
+         * @return The description of the file.
+         * @throws IOException If the file can't be read.
+         */
+        public static SourceFile of(Path path) throws IOException {
+            CRC32C crc = new CRC32C();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                for (long offset = 0; offset < size; offset += Integer.MAX_VALUE) {
+                    crc.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(Integer.MAX_VALUE, size - offset)));
+                }
+                return new SourceFile(size, Files.getLastModifiedTime(path).toMillis(), crc.getValue());
+            }
+        }
+    }
+
+    /**
+     * Everything the contents of a database depend on.
+     *
+     * @param geneType     The type of gene identifier the pathways were read with.
+     * @param headerLength The number of header lines that were skipped.
+     * @param pathways     The pathways file.
+     * @param descriptions The pathway descriptions file.
+     */
+    public record Key(String geneType, int headerLength, SourceFile pathways, SourceFile descriptions) {
+
+        /**
+         * Builds the key of the current pathway files.
+         *
+         * @param pathwaysFilePath    The path to the file containing pathway-gene mappings.
+         * @param hsaPathwaysFilePath The path to the file containing pathway descriptions.
+         * @param headerLength        The number of header lines to skip in the files.
+         * @param geneType            The type of gene identifier to use.
+         * @return The key of the files.
+         * @throws IOException If one of the files can't be read.
+         */
+        public static Key of(String pathwaysFilePath, String hsaPathwaysFilePath, int headerLength, String geneType) throws IOException {
+            // The gene type is case-insensitive, so it is normalised for the key
+            return new Key(geneType.toLowerCase(), headerLength, SourceFile.of(Path.of(pathwaysFilePath)), SourceFile.of(Path.of(hsaPathwaysFilePath)));
+        }
+    }
+
+    /**
+     * Writes a database. The file is written next to its final location and then moved into place,
+     * so concurrent runs never see a partially written database.
+     *
+     * @param databaseFile   The path of the database.
+     * @param key            The key of the source files.
+     * @param pathwayRecords The pathway records read from the source files.
+     * @param geneDictionary The dictionary shared by the pathway records.
+     * @throws IOException If the database can't be written.
+     */
+    public static void write(Path databaseFile, Key key, Map<String, PathwayRecord> pathwayRecords, GeneDictionary geneDictionary) throws IOException {
+        Path directory = databaseFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporaryFile = Files.createTempFile(directory, databaseFile.getFileName().toString(), ".tmp");
+
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile), 1 << 16))) {
+                output.write(MAGIC);
+                output.writeInt(VERSION);
+                BinaryFormat.writeString(output, key.geneType());
+                output.writeInt(key.headerLength());
+                writeSourceFile(output, key.pathways());
+                writeSourceFile(output, key.descriptions());
+
+                output.writeInt(geneDictionary.size());
+                for (int geneIndex = 0; geneIndex < geneDictionary.size(); geneIndex++) {
+                    BinaryFormat.writeString(output, geneDictionary.geneID(geneIndex));
+                }
+
+                // The pathways are written in iteration order, so reading them back gives the same map order
+                output.writeInt(pathwayRecords.size());
+                for (PathwayRecord pathway : pathwayRecords.values()) {
+                    BinaryFormat.writeString(output, pathway.pathwayID());
+                    BinaryFormat.writeString(output, pathway.description());
+                    output.writeInt(pathway.geneIndices().length);
+                    for (int geneIndex : pathway.geneIndices()) {
+                        output.writeInt(geneIndex);
+                    }
+                }
+            }
+            Files.move(temporaryFile, databaseFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * Reads a database if it exists and was built from the same source files.
+     *
+     * @param databaseFile   The path of the database.
+     * @param key            The key of the current source files.
+     * @param geneDictionary The dictionary the genes of the pathways are interned in.
+     * @return Map of pathway IDs to PathwayRecord objects, or null if the database is missing, outdated or damaged.
+     * @throws IOException If the database exists but can't be read.
+     */
+    public static Map<String, PathwayRecord> read(Path databaseFile, Key key, GeneDictionary geneDictionary) throws IOException {
+        if (!Files.isRegularFile(databaseFile)) {
+            return null;
+        }
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(databaseFile, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || buffer.getInt() != VERSION) {
+                return null;
+            }
+            Key storedKey = new Key(BinaryFormat.readString(buffer), buffer.getInt(), readSourceFile(buffer), readSourceFile(buffer));
+            if (!storedKey.equals(key)) {
+                return null;
+            }
+
+            String[] geneIDs = new String[buffer.getInt()];
+            for (int storedIndex = 0; storedIndex < geneIDs.length; storedIndex++) {
+                geneIDs[storedIndex] = BinaryFormat.readString(buffer);
+            }
+
+            String[][] pathwayTexts = new String[buffer.getInt()][];
+            int[][] pathwayGenes = new int[pathwayTexts.length][];
+            for (int i = 0; i < pathwayTexts.length; i++) {
+                pathwayTexts[i] = new String[]{BinaryFormat.readString(buffer), BinaryFormat.readString(buffer)};
+                pathwayGenes[i] = new int[buffer.getInt()];
+                buffer.asIntBuffer().get(pathwayGenes[i]);
+                buffer.position(buffer.position() + pathwayGenes[i].length * Integer.BYTES);
+                for (int geneIndex : pathwayGenes[i]) {
+                    if (geneIndex < 0 || geneIndex >= geneIDs.length) {
+                        return null;
+                    }
+                }
+            }
+
+            // Only intern the genes once the whole database was read, so a damaged file leaves the dictionary untouched.
+            // Interned into an empty dictionary the genes keep their stored indices
+            int[] mapping = new int[geneIDs.length];
+            boolean identity = true;
+            for (int storedIndex = 0; storedIndex < geneIDs.length; storedIndex++) {
+                mapping[storedIndex] = geneDictionary.intern(geneIDs[storedIndex]);
+                identity &= mapping[storedIndex] == storedIndex;
+            }
+
+            Map<String, PathwayRecord> pathwayRecords = new HashMap<>();
+            for (int i = 0; i < pathwayTexts.length; i++) {
+                int[] geneIndices = pathwayGenes[i];
+                if (!identity) {
+                    for (int g = 0; g < geneIndices.length; g++) {
+                        geneIndices[g] = mapping[geneIndices[g]];
+                    }
+                    geneIndices = GeneDictionary.sortedUnique(geneIndices, geneIndices.length);
+                }
+                pathwayRecords.put(pathwayTexts[i][0], new PathwayRecord(pathwayTexts[i][0], pathwayTexts[i][1], geneDictionary, geneIndices));
+            }
+            return pathwayRecords;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+            // A truncated or damaged database is rebuilt like an outdated one
+            return null;
+        }
+    }
+
+    private static void writeSourceFile(DataOutputStream output, SourceFile sourceFile) throws IOException {
+        output.writeLong(sourceFile.size());
+        output.writeLong(sourceFile.lastModified());
+        output.writeLong(sourceFile.checksum());
+    }
+
+    private static SourceFile readSourceFile(MappedByteBuffer buffer) {
+        return new SourceFile(buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+}
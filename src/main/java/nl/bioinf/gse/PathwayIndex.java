@@ -0,0 +1,197 @@
+package nl.bioinf.gse;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Prebuilt lookup structure over the pathway records.
+ * Maps every pathway to its genes and every gene to the pathways it is a member of,
+ * so membership checks during DEG counting are lookups instead of list scans.
+ * Pathways are numbered 0..size-1 in the iteration order of the pathway records and genes
+ * use the indices of the GeneDictionary shared by all pathway records.
+ * The index is built once after the pathways have been read and is not changed afterwards.
+ */
+public class PathwayIndex {
+
+    private static final int[] NO_PATHWAYS = new int[0];
+
+    private final Map<String, PathwayRecord> pathwayRecords;
+    private final GeneDictionary geneDictionary;
+    private final List<String> pathwayIDs;
+    private final Map<String, Integer> pathwayOrdinals = new HashMap<>();
+
+    /**
+     * genePathways[geneIndex] holds the ordinals of the pathways containing the gene.
+     */
+    private final int[][] genePathways;
+
+    /**
+     * Bitsets of the pathways, only built when the bitset counting backend is used.
+     */
+    private PathwayBitsets pathwayBitsets;
+
+    /**
+     * Builds the index from the pathway records returned by FileParser.readPathways.
+     *
+     * @param pathwayRecords Map of pathway IDs to PathwayRecord objects.
+     * @throws IllegalArgumentException if the pathway records don't share one gene dictionary.
+     */
+    public PathwayIndex(Map<String, PathwayRecord> pathwayRecords) {
+        this.pathwayRecords = pathwayRecords;
+        this.pathwayIDs = new ArrayList<>(pathwayRecords.keySet());
+
+        // All pathways must refer to the same dictionary, otherwise their gene indices can't be compared
+        GeneDictionary dictionary = null;
+        for (PathwayRecord pathway : pathwayRecords.values()) {
+            if (dictionary == null) {
+                dictionary = pathway.geneDictionary();
+            } else if (dictionary != pathway.geneDictionary()) {
+                throw new IllegalArgumentException("All pathways must share one gene dictionary.");
+            }
+        }
+        this.geneDictionary = dictionary != null ? dictionary : new GeneDictionary();
+
+        // Count the memberships of every gene first, so every gene gets an exactly sized array
+        int[] membershipCounts = new int[geneDictionary.size()];
+        for (int ordinal = 0; ordinal < pathwayIDs.size(); ordinal++) {
+            pathwayOrdinals.put(pathwayIDs.get(ordinal), ordinal);
+            for (int geneIndex : pathwayRecords.get(pathwayIDs.get(ordinal)).geneIndices()) {
+                membershipCounts[geneIndex]++;
+            }
+        }
+
+        genePathways = new int[membershipCounts.length][];
+        for (int geneIndex = 0; geneIndex < membershipCounts.length; geneIndex++) {
+            genePathways[geneIndex] = membershipCounts[geneIndex] == 0 ? NO_PATHWAYS : new int[membershipCounts[geneIndex]];
+            membershipCounts[geneIndex] = 0;
+        }
+        for (int ordinal = 0; ordinal < pathwayIDs.size(); ordinal++) {
+            for (int geneIndex : pathwayRecords.get(pathwayIDs.get(ordinal)).geneIndices()) {
+                genePathways[geneIndex][membershipCounts[geneIndex]++] = ordinal;
+            }
+        }
+    }
+
+    /**
+     * Retrieves the pathway records the index was built from.
+     * @return Map of pathway IDs to PathwayRecord objects.
+     */
+    public Map<String, PathwayRecord> getPathwayRecords() {
+        return pathwayRecords;
+    }
+
+    /**
+     * Retrieves the gene dictionary shared by the pathways.
+     * @return The gene dictionary.
+     */
+    public GeneDictionary getGeneDictionary() {
+        return geneDictionary;
+    }
+
+    /**
+     * Retrieves the pathway IDs in ordinal order.
+     * @return The pathway IDs, the position of an ID is its ordinal.
+     */
+    public List<String> getPathwayIDs() {
+        return pathwayIDs;
+    }
+
+    /**
+     * Retrieves the ordinal of a pathway.
+     *
+     * @param pathwayID The ID of the pathway.
+     * @return The ordinal of the pathway.
+     * @throws IllegalArgumentException if the pathway is not in the index.
+     */
+    public int getPathwayOrdinal(String pathwayID) {
+        Integer ordinal = pathwayOrdinals.get(pathwayID);
+        if (ordinal == null) {
+            throw new IllegalArgumentException("Pathway with ID " + pathwayID + " not found.");
+        }
+        return ordinal;
+    }
+
+    /**
+     * Retrieves the unique genes of a pathway.
+     *
+     * @param pathwayID The ID of the pathway.
+     * @return Set view of the gene IDs in the pathway.
+     * @throws IllegalArgumentException if the pathway is not in the index.
+     */
+    public Set<String> getPathwayGenes(String pathwayID) {
+        PathwayRecord pathway = pathwayRecords.get(pathwayID);
+        if (pathway == null) {
+            throw new IllegalArgumentException("Pathway with ID " + pathwayID + " not found.");
+        }
+        return pathway.geneSet();
+    }
+
+    /**
+     * Retrieves the ordinals of the pathways a gene is a member of.
+     *
+     * @param geneID The gene identifier.
+     * @return The pathway ordinals, empty if the gene is in no pathway. The array must not be changed.
+     */
+    public int[] getGenePathwayOrdinals(String geneID) {
+        int geneIndex = geneDictionary.indexOf(geneID);
+        // Genes that were added to the dictionary after the index was built are in no pathway
+        if (geneIndex < 0 || geneIndex >= genePathways.length) {
+            return NO_PATHWAYS;
+        }
+        return genePathways[geneIndex];
+    }
+
+    /**
+     * Retrieves the pathways a gene is a member of.
+     *
+     * @param geneID The gene identifier.
+     * @return The IDs of the pathways containing the gene, empty if the gene is in no pathway.
+     */
+    public List<String> getGenePathways(String geneID) {
+        int[] ordinals = getGenePathwayOrdinals(geneID);
+        return new AbstractList<>() {
+            @Override
+            public String get(int index) {
+                return pathwayIDs.get(ordinals[index]);
+            }
+
+            @Override
+            public int size() {
+                return ordinals.length;
+            }
+        };
+    }
+
+    /**
+     * Retrieves the bitsets of the pathways, building them the first time they are needed.
+     * @return The pathway bitsets.
+     */
+    public synchronized PathwayBitsets getPathwayBitsets() {
+        if (pathwayBitsets == null) {
+            pathwayBitsets = new PathwayBitsets(this);
+        }
+        return pathwayBitsets;
+    }
+
+    /**
+     * Checks whether a pathway is part of the index.
+     *
+     * @param pathwayID The ID of the pathway.
+     * @return True if the pathway is known, false otherwise.
+     */
+    public boolean containsPathway(String pathwayID) {
+        return pathwayOrdinals.containsKey(pathwayID);
+    }
+
+    /**
+     * Retrieves the number of pathways in the index.
+     * @return The number of pathways.
+     */
+    public int size() {
+        return pathwayIDs.size();
+    }
+}
@@ -0,0 +1,120 @@
+package nl.bioinf.gse;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The pathways of a pathway file for every type of gene identifier, read in a single parse.
+ * Each type has its own gene dictionary; the pathway IDs and descriptions are shared between the types.
+ * The library can also detect which type of gene identifier a gene file uses.
+ */
+public class PathwayLibrary {
+
+    /**
+     * The supported gene ID types, in the order of their columns in the pathways file.
+     */
+    public static final List<String> GENE_TYPES = List.of("Entrez", "Gene_symbol", "Ensembl");
+
+    /**
+     * The number of gene records that is sampled to detect the gene ID type of a gene file.
+     */
+    private static final int DETECTION_SAMPLE_SIZE = 1000;
+
+    private final List<Map<String, PathwayRecord>> pathwayRecords;
+    private final PathwayIndex[] pathwayIndices;
+
+    /**
+     * Creates a library from the pathway records of every gene ID type.
+     *
+     * @param pathwayRecords The pathway records of every type, in the order of GENE_TYPES.
+     */
+    PathwayLibrary(List<Map<String, PathwayRecord>> pathwayRecords) {
+        this.pathwayRecords = pathwayRecords;
+        this.pathwayIndices = new PathwayIndex[pathwayRecords.size()];
+    }
+
+    /**
+     * Retrieves the pathways with genes of one type of gene identifier.
+     *
+     * @param geneType The type of gene identifier ("Entrez", "Gene_symbol", or "Ensembl").
+     * @return Map of pathway IDs to PathwayRecord objects.
+     * @throws IllegalArgumentException if the gene type is not supported.
+     */
+    public Map<String, PathwayRecord> getPathwayRecords(String geneType) {
+        return pathwayRecords.get(typeIndex(geneType));
+    }
+
+    /**
+     * Retrieves the index over the pathways of one type of gene identifier, building it the first time it is needed.
+     *
+     * @param geneType The type of gene identifier ("Entrez", "Gene_symbol", or "Ensembl").
+     * @return The pathway index.
+     * @throws IllegalArgumentException if the gene type is not supported.
+     */
+    public synchronized PathwayIndex getPathwayIndex(String geneType) {
+        int type = typeIndex(geneType);
+        if (pathwayIndices[type] == null) {
+            pathwayIndices[type] = new PathwayIndex(pathwayRecords.get(type));
+        }
+        return pathwayIndices[type];
+    }
+
+    /**
+     * Detects the type of gene identifier of a gene file by looking up the first gene records in the
+     * gene dictionary of every type. The type that knows the most of them wins.
+     *
+     * @param geneRecords List of GeneRecord objects with gene expression data.
+     * @return The detected gene ID type, one of GENE_TYPES.
+     * @throws IllegalArgumentException if none of the sampled genes is found in the pathways.
+     */
+    public String detectGeneType(List<GeneRecord> geneRecords) {
+        int bestType = -1;
+        int bestMatches = 0;
+
+        for (int type = 0; type < pathwayRecords.size(); type++) {
+            int matches = countMatches(dictionary(type), geneRecords);
+            if (matches > bestMatches) {
+                bestType = type;
+                bestMatches = matches;
+            }
+        }
+
+        if (bestType < 0) {
+            throw new IllegalArgumentException("Could not detect the gene ID type, none of the genes occur in the pathways.");
+        }
+        return GENE_TYPES.get(bestType);
+    }
+
+    /**
+     * Counts how many of the first gene records of a gene file occur in a gene dictionary.
+     *
+     * @param geneDictionary The gene dictionary of one type of gene identifier.
+     * @param geneRecords    List of GeneRecord objects with gene expression data.
+     * @return The number of sampled genes found in the dictionary.
+     */
+    static int countMatches(GeneDictionary geneDictionary, List<GeneRecord> geneRecords) {
+        int sampleSize = Math.min(DETECTION_SAMPLE_SIZE, geneRecords.size());
+        int matches = 0;
+        for (int i = 0; i < sampleSize; i++) {
+            if (geneDictionary.indexOf(geneRecords.get(i).geneSymbol()) >= 0) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Finds the gene dictionary of a type through its pathway records.
+     */
+    private GeneDictionary dictionary(int type) {
+        Map<String, PathwayRecord> records = pathwayRecords.get(type);
+        return records.isEmpty() ? new GeneDictionary() : records.values().iterator().next().geneDictionary();
+    }
+
+    /**
+     * Converts a gene type to its position in GENE_TYPES, using the same validation as FileParser.
+     */
+    private static int typeIndex(String geneType) {
+        return FileParser.geneColumn(geneType) - 1;
+    }
+}
@@ -1,12 +1,162 @@
 package nl.bioinf.gse;
 
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * A record representing a biological pathway and its associated metadata.
+ * The genes are stored as a sorted array of indices into a shared GeneDictionary,
+ * the gene identifiers are only looked up when the String views are used.
+ * Two pathway records are equal when they have the same ID, description and genes, also when they were read
+ * into different dictionaries.
  *
- * @param pathwayID  The unique identifier for the pathway.
- * @param description A textual description of the pathway.
- * @param geneIDs    A list of gene identifiers associated with the pathway.
+ * @param pathwayID      The unique identifier for the pathway.
+ * @param description    A textual description of the pathway.
+ * @param geneDictionary The dictionary the gene indices refer to.
+ * @param geneIndices    Sorted, unique indices of the genes in the pathway. The array is shared with the record and
+ *                       its views and must not be changed.
  */
-public record PathwayRecord(String pathwayID, String description, List<String> geneIDs) {}
+public record PathwayRecord(String pathwayID, String description, GeneDictionary geneDictionary, int[] geneIndices) {
+
+    /**
+     * Creates a pathway record from gene identifiers, interning them in the given dictionary.
+     *
+     * @param pathwayID      The unique identifier for the pathway.
+     * @param description    A textual description of the pathway.
+     * @param geneIDs        The gene identifiers of the pathway, duplicates are removed.
+     * @param geneDictionary The dictionary shared by all pathways of a library.
+     * @return The new pathway record.
+     */
+    public static PathwayRecord of(String pathwayID, String description, Collection<String> geneIDs, GeneDictionary geneDictionary) {
+        return new PathwayRecord(pathwayID, description, geneDictionary, geneDictionary.encode(geneIDs));
+    }
+
+    /**
+     * Retrieves the gene indices without copying them, they are read for every pathway during counting.
+     *
+     * @return Sorted, unique indices of the genes in the pathway. The array must not be changed.
+     */
+    @Override
+    public int[] geneIndices() {
+        return geneIndices;
+    }
+
+    /**
+     * @return The number of unique genes in the pathway.
+     */
+    public int size() {
+        return geneIndices.length;
+    }
+
+    /**
+     * Checks whether a gene index is part of the pathway, using a binary search.
+     *
+     * @param geneIndex The dictionary index of the gene.
+     * @return True if the gene is in the pathway.
+     */
+    public boolean containsGene(int geneIndex) {
+        return geneIndex >= 0 && Arrays.binarySearch(geneIndices, geneIndex) >= 0;
+    }
+
+    /**
+     * Checks whether a gene identifier is part of the pathway.
+     *
+     * @param geneID The gene identifier.
+     * @return True if the gene is in the pathway.
+     */
+    public boolean containsGene(String geneID) {
+        return containsGene(geneDictionary.indexOf(geneID));
+    }
+
+    /**
+     * @return Read-only list view of the gene identifiers in the pathway, in dictionary order.
+     */
+    public List<String> geneIDs() {
+        return new AbstractList<>() {
+            @Override
+            public String get(int index) {
+                return geneDictionary.geneID(geneIndices[index]);
+            }
+
+            @Override
+            public int size() {
+                return geneIndices.length;
+            }
+
+            @Override
+            public boolean contains(Object geneID) {
+                return geneID instanceof String && containsGene((String) geneID);
+            }
+        };
+    }
+
+    /**
+     * @return Read-only set view of the gene identifiers in the pathway, with lookups by binary search.
+     */
+    public Set<String> geneSet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<String> iterator() {
+                return geneIDs().iterator();
+            }
+
+            @Override
+            public int size() {
+                return geneIndices.length;
+            }
+
+            @Override
+            public boolean contains(Object geneID) {
+                return geneID instanceof String && containsGene((String) geneID);
+            }
+        };
+    }
+
+    /**
+     * Compares the ID, description and genes of two pathways. The genes are compared by identifier, because the
+     * indices of the same gene differ between dictionaries.
+     *
+     * @param other The object to compare with.
+     * @return True if the other object is a pathway record with the same ID, description and genes.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof PathwayRecord)) {
+            return false;
+        }
+        PathwayRecord pathway = (PathwayRecord) other;
+        if (!pathwayID.equals(pathway.pathwayID) || !description.equals(pathway.description)) {
+            return false;
+        }
+        // Within one dictionary the sorted, unique indices are equal exactly when the genes are
+        if (geneDictionary == pathway.geneDictionary) {
+            return Arrays.equals(geneIndices, pathway.geneIndices);
+        }
+        return geneSet().equals(pathway.geneSet());
+    }
+
+    /**
+     * @return A hash code of the ID, description and gene identifiers, consistent with equals.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(pathwayID, description, geneSet());
+    }
+
+    /**
+     * @return The ID, description and gene identifiers of the pathway.
+     */
+    @Override
+    public String toString() {
+        return "PathwayRecord[pathwayID=" + pathwayID + ", description=" + description + ", geneIDs=" + geneIDs() + "]";
+    }
+}
@@ -0,0 +1,235 @@
+package nl.bioinf.gse;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * All per-pathway statistics that are collected in the single pass over the gene records:
+ * the contingency table and summaries of the log fold changes.
+ * Up-regulated genes are DEGs with a positive log fold change, down-regulated genes are DEGs with a negative one.
+ *
+ * @param table          The contingency table of the pathway.
+ * @param allGenes       Log fold change summary of every measured gene in the pathway, DEG or not.
+ * @param upRegulated    Log fold change summary of the up-regulated genes in the pathway.
+ * @param downRegulated  Log fold change summary of the down-regulated genes in the pathway.
+ */
+public record PathwayStatistics(ContingencyTable table, FoldChangeSummary allGenes, FoldChangeSummary upRegulated, FoldChangeSummary downRegulated) {
+
+    /**
+     * @return The average log fold change of all genes in the pathway, NaN if no valid genes are found.
+     */
+    public double avgLogFoldChange() {
+        return allGenes.mean();
+    }
+
+    /**
+     * Running counts of a single pathway while the gene records are streamed.
+     */
+    private static class Counters {
+        private long degs;
+        private long nonDEGs;
+        private final FoldChangeSummary.Accumulator allGenes;
+        private final FoldChangeSummary.Accumulator upRegulated;
+        private final FoldChangeSummary.Accumulator downRegulated;
+
+        private Counters() {
+            this(new FoldChangeSummary.Accumulator(), new FoldChangeSummary.Accumulator(), new FoldChangeSummary.Accumulator());
+        }
+
+        private Counters(FoldChangeSummary.Accumulator allGenes, FoldChangeSummary.Accumulator upRegulated, FoldChangeSummary.Accumulator downRegulated) {
+            this.allGenes = allGenes;
+            this.upRegulated = upRegulated;
+            this.downRegulated = downRegulated;
+        }
+
+        /**
+         * Adds a gene record that is a member of this pathway.
+         */
+        private void add(GeneRecord geneRecord, boolean isDEG, boolean isNonDEG) {
+            double logFoldChange = geneRecord.logFoldChange();
+            allGenes.add(logFoldChange);
+
+            if (isDEG) {
+                degs++;
+                if (logFoldChange > 0) {
+                    upRegulated.add(logFoldChange);
+                } else if (logFoldChange < 0) {
+                    downRegulated.add(logFoldChange);
+                }
+            } else if (isNonDEG) {
+                nonDEGs++;
+            }
+        }
+
+        /**
+         * Removes a gene record that was added before.
+         */
+        private void remove(GeneRecord geneRecord, boolean isDEG, boolean isNonDEG) {
+            double logFoldChange = geneRecord.logFoldChange();
+            allGenes.remove(logFoldChange);
+
+            if (isDEG) {
+                degs--;
+                if (logFoldChange > 0) {
+                    upRegulated.remove(logFoldChange);
+                } else if (logFoldChange < 0) {
+                    downRegulated.remove(logFoldChange);
+                }
+            } else if (isNonDEG) {
+                nonDEGs--;
+            }
+        }
+
+        /**
+         * Restores the counters of earlier statistics.
+         */
+        private static Counters of(PathwayStatistics statistics) {
+            Counters counters = new Counters(FoldChangeSummary.Accumulator.of(statistics.allGenes()),
+                    FoldChangeSummary.Accumulator.of(statistics.upRegulated()), FoldChangeSummary.Accumulator.of(statistics.downRegulated()));
+            counters.degs = statistics.table().degsInPathway();
+            counters.nonDEGs = statistics.table().nonDEGsInPathway();
+            return counters;
+        }
+
+        private PathwayStatistics toStatistics(String pathwayID, long totalDEGs, long totalNonDEGs, double treshold) {
+            ContingencyTable table = new ContingencyTable(pathwayID, degs, nonDEGs, totalDEGs, totalNonDEGs, treshold);
+            return new PathwayStatistics(table, allGenes.toSummary(), upRegulated.toSummary(), downRegulated.toSummary());
+        }
+    }
+
+    /**
+     * Collects the statistics of all pathways from gene records that are added one at a time,
+     * so the genes can be counted while the gene file is still being read.
+     * Every gene record is classified once and added to the global totals and to each pathway it is a member of.
+     */
+    public static class Collector {
+        private final PathwayIndex pathwayIndex;
+        private final double treshold;
+        private final Counters[] pathwayCounters;
+        private long totalDEGs;
+        private long totalNonDEGs;
+
+        /**
+         * Creates a collector with empty counts for every pathway of an index.
+         *
+         * @param pathwayIndex The index over all pathways.
+         * @param treshold     The adjusted p-value threshold for classifying DEGs and non-DEGs.
+         */
+        public Collector(PathwayIndex pathwayIndex, double treshold) {
+            this.pathwayIndex = pathwayIndex;
+            this.treshold = treshold;
+            // Counters are stored by pathway ordinal, so a gene's memberships are plain array lookups
+            this.pathwayCounters = new Counters[pathwayIndex.size()];
+            for (int ordinal = 0; ordinal < pathwayCounters.length; ordinal++) {
+                pathwayCounters[ordinal] = new Counters();
+            }
+        }
+
+        /**
+         * Counts a gene record.
+         *
+         * @param geneRecord The gene record to count.
+         */
+        public void add(GeneRecord geneRecord) {
+            // A gene exactly on the threshold is neither a DEG nor a non-DEG
+            boolean isDEG = geneRecord.adjustedPValue() < treshold;
+            boolean isNonDEG = geneRecord.adjustedPValue() > treshold;
+            if (isDEG) {
+                totalDEGs++;
+            } else if (isNonDEG) {
+                totalNonDEGs++;
+            }
+
+            for (int ordinal : pathwayIndex.getGenePathwayOrdinals(geneRecord.geneSymbol())) {
+                pathwayCounters[ordinal].add(geneRecord, isDEG, isNonDEG);
+            }
+        }
+
+        /**
+         * Turns the counts of the genes added so far into statistics that share the global totals.
+         *
+         * @return Map of pathway IDs to their statistics, in the iteration order of the pathway records.
+         */
+        public Map<String, PathwayStatistics> toStatistics() {
+            List<String> pathwayIDs = pathwayIndex.getPathwayIDs();
+            Map<String, PathwayStatistics> statistics = new LinkedHashMap<>();
+            for (int ordinal = 0; ordinal < pathwayCounters.length; ordinal++) {
+                String pathwayID = pathwayIDs.get(ordinal);
+                statistics.put(pathwayID, pathwayCounters[ordinal].toStatistics(pathwayID, totalDEGs, totalNonDEGs, treshold));
+            }
+            return statistics;
+        }
+    }
+
+    /**
+     * Collects the statistics of all pathways in a single pass over the gene records.
+     *
+     * @param pathwayIndex The index over all pathways.
+     * @param geneRecords  List of GeneRecord objects with gene expression data.
+     * @param treshold     The adjusted p-value threshold for classifying DEGs and non-DEGs.
+     * @return Map of pathway IDs to their statistics, in the iteration order of the pathway records.
+     */
+    public static Map<String, PathwayStatistics> buildAll(PathwayIndex pathwayIndex, List<GeneRecord> geneRecords, double treshold) {
+        Collector collector = new Collector(pathwayIndex, treshold);
+        for (GeneRecord geneRecord : geneRecords) {
+            collector.add(geneRecord);
+        }
+        return collector.toStatistics();
+    }
+
+    /**
+     * Collects the statistics of a single pathway in one pass over the gene records.
+     *
+     * @param pathwayID    The ID of the pathway.
+     * @param pathwayGenes The unique gene IDs of the pathway.
+     * @param geneRecords  List of GeneRecord objects with gene expression data.
+     * @param treshold     The adjusted p-value threshold for classifying DEGs and non-DEGs.
+     * @return The statistics of the pathway.
+     */
+    public static PathwayStatistics build(String pathwayID, Set<String> pathwayGenes, List<GeneRecord> geneRecords, double treshold) {
+        Counters counters = new Counters();
+        long totalDEGs = 0;
+        long totalNonDEGs = 0;
+
+        for (GeneRecord geneRecord : geneRecords) {
+            boolean isDEG = geneRecord.adjustedPValue() < treshold;
+            boolean isNonDEG = geneRecord.adjustedPValue() > treshold;
+            if (isDEG) {
+                totalDEGs++;
+            } else if (isNonDEG) {
+                totalNonDEGs++;
+            }
+
+            if (pathwayGenes.contains(geneRecord.geneSymbol())) {
+                counters.add(geneRecord, isDEG, isNonDEG);
+            }
+        }
+        return counters.toStatistics(pathwayID, totalDEGs, totalNonDEGs, treshold);
+    }
+
+    /**
+     * Patches the statistics of a pathway with genes whose values changed, without visiting the other genes.
+     * The counts are exact, the log fold change summaries can differ from a fresh count in the last digits.
+     *
+     * @param statistics   The earlier statistics of the pathway.
+     * @param removed      The earlier records of the member genes that changed or were removed.
+     * @param added        The new records of the member genes that changed or were added.
+     * @param totalDEGs    The new total number of DEGs.
+     * @param totalNonDEGs The new total number of non-DEGs.
+     * @param treshold     The adjusted p-value threshold for classifying DEGs and non-DEGs.
+     * @return The patched statistics of the pathway.
+     */
+    static PathwayStatistics patch(PathwayStatistics statistics, List<GeneRecord> removed, List<GeneRecord> added,
+                                   long totalDEGs, long totalNonDEGs, double treshold) {
+        Counters counters = Counters.of(statistics);
+        for (GeneRecord geneRecord : removed) {
+            counters.remove(geneRecord, geneRecord.adjustedPValue() < treshold, geneRecord.adjustedPValue() > treshold);
+        }
+        for (GeneRecord geneRecord : added) {
+            counters.add(geneRecord, geneRecord.adjustedPValue() < treshold, geneRecord.adjustedPValue() > treshold);
+        }
+        return counters.toStatistics(statistics.table().pathwayID(), totalDEGs, totalNonDEGs, treshold);
+    }
+}
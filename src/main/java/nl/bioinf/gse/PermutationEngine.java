@@ -0,0 +1,162 @@
+package nl.bioinf.gse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Calculates empirical p-values of the pathways by permuting the DEG labels of the genes.
+ * Every permutation shuffles which of the classified genes (DEGs and non-DEGs) are DEGs and counts the DEGs
+ * that land in a pathway; the empirical p-value is the fraction of permutations with at least as many DEGs
+ * as observed. Only the genes of one pathway have to be drawn per permutation, so every permutation is a
+ * partial Fisher-Yates shuffle over a reusable label buffer.
+ * A pathway stops early once it has reached a fixed number of exceedances (Besag-Clifford sequential
+ * sampling), which only happens when its p-value is clearly not significant.
+ */
+public class PermutationEngine {
+
+    /**
+     * Number of exceedances after which a pathway stops, its p-value is then exceedances / permutations.
+     */
+    private static final int EARLY_STOP_EXCEEDANCES = 10;
+
+    private final int permutations;
+    private final long seed;
+    private final int threads;
+
+    /**
+     * Reusable label buffer per thread, 1 for a DEG and 0 for a non-DEG.
+     */
+    private final ThreadLocal<byte[]> labelBuffers = ThreadLocal.withInitial(() -> new byte[0]);
+
+    /**
+     * Creates a permutation engine.
+     *
+     * @param permutations The maximum number of permutations per pathway.
+     * @param seed         The seed of the random number generator, the same seed gives the same p-values for any number of threads.
+     * @param threads      The number of threads used to evaluate the pathways.
+     * @throws IllegalArgumentException if permutations or threads is smaller than 1.
+     */
+    public PermutationEngine(int permutations, long seed, int threads) {
+        if (permutations < 1) {
+            throw new IllegalArgumentException("The number of permutations must be at least 1.");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1.");
+        }
+        this.permutations = permutations;
+        this.seed = seed;
+        this.threads = threads;
+    }
+
+    /**
+     * Calculates the empirical p-values of all pathways from their contingency tables.
+     *
+     * @param pathwayStatistics Map of pathway IDs to their statistics.
+     * @return Map of pathway IDs to their permutation results, in the order of pathwayStatistics.
+     */
+    public Map<String, PermutationResult> calculateEmpiricalPValues(Map<String, PathwayStatistics> pathwayStatistics) {
+        List<ContingencyTable> tables = new ArrayList<>();
+        for (PathwayStatistics statistics : pathwayStatistics.values()) {
+            tables.add(statistics.table());
+        }
+
+        // Split one random stream per pathway up front, so the results don't depend on which thread runs a pathway
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] randoms = new SplittableRandom[tables.size()];
+        for (int i = 0; i < randoms.length; i++) {
+            randoms[i] = root.split();
+        }
+
+        List<PermutationResult> results;
+        if (threads == 1) {
+            results = new ArrayList<>();
+            for (int i = 0; i < tables.size(); i++) {
+                results.add(permute(tables.get(i), randoms[i]));
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                results = pool.submit(() -> IntStream.range(0, tables.size()).parallel()
+                        .mapToObj(i -> permute(tables.get(i), randoms[i]))
+                        .collect(Collectors.toList())).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Permutation test was interrupted.", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Permutation test failed: " + e.getCause().getMessage(), e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        Map<String, PermutationResult> empiricalPValues = new LinkedHashMap<>();
+        for (PermutationResult result : results) {
+            empiricalPValues.put(result.pathwayID(), result);
+        }
+        return empiricalPValues;
+    }
+
+    /**
+     * Runs the permutations of a single pathway.
+     *
+     * @param table  The contingency table of the pathway.
+     * @param random The random stream of this pathway.
+     * @return The permutation result of the pathway.
+     */
+    PermutationResult permute(ContingencyTable table, SplittableRandom random) {
+        int totalGenes = Math.toIntExact(table.totalGenes());
+        int totalDEGs = Math.toIntExact(table.totalDEGs());
+        int genesInPathway = Math.toIntExact(table.genesInPathway());
+        long observedDEGs = table.degsInPathway();
+
+        // Without DEGs in the pathway every permutation is at least as extreme
+        if (observedDEGs == 0 || genesInPathway == 0) {
+            return new PermutationResult(table.pathwayID(), 0, 0, 1.0);
+        }
+
+        byte[] labels = labelBuffer(totalGenes, totalDEGs);
+        long exceedances = 0;
+        int done = 0;
+        while (done < permutations) {
+            // Draw the genes of the pathway from the front of the buffer; the buffer stays a permutation of the
+            // same labels, so the next permutation can continue from it
+            long degs = 0;
+            for (int i = 0; i < genesInPathway; i++) {
+                int j = i + random.nextInt(totalGenes - i);
+                byte label = labels[j];
+                labels[j] = labels[i];
+                labels[i] = label;
+                degs += label;
+            }
+            done++;
+
+            if (degs >= observedDEGs && ++exceedances == EARLY_STOP_EXCEEDANCES) {
+                return new PermutationResult(table.pathwayID(), done, exceedances, (double) exceedances / done);
+            }
+        }
+        return new PermutationResult(table.pathwayID(), done, exceedances, (exceedances + 1.0) / (done + 1.0));
+    }
+
+    /**
+     * Retrieves the label buffer of the current thread, filled with totalDEGs ones followed by zeros.
+     * The buffer is refilled for every pathway, so a pathway's permutations only depend on its own random stream.
+     */
+    private byte[] labelBuffer(int totalGenes, int totalDEGs) {
+        byte[] labels = labelBuffers.get();
+        if (labels.length != totalGenes) {
+            labels = new byte[totalGenes];
+            labelBuffers.set(labels);
+        }
+        Arrays.fill(labels, 0, totalDEGs, (byte) 1);
+        Arrays.fill(labels, totalDEGs, totalGenes, (byte) 0);
+        return labels;
+    }
+}
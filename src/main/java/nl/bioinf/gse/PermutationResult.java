@@ -0,0 +1,12 @@
+package nl.bioinf.gse;
+
+/**
+ * Represents the empirical p-value of a pathway calculated from gene label permutations.
+ *
+ * @param pathwayID        The unique identifier for the pathway.
+ * @param permutations     The number of permutations that were run, lower than requested when the pathway stopped early.
+ * @param exceedances      The number of permutations with at least as many DEGs in the pathway as observed.
+ * @param empiricalPValue  The empirical p-value of the pathway.
+ */
+public record PermutationResult(String pathwayID, long permutations, long exceedances, double empiricalPValue) {
+}
@@ -0,0 +1,33 @@
+package nl.bioinf.gse;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The plots requested on the command line and how they are shown.
+ *
+ * @param boxPlots        The data types of the boxplots, empty if no boxplot is requested.
+ * @param scatterPlots    The data types of the scatter plots, empty if no scatter plot is requested.
+ * @param savePlot        True if plots shown in a window are also saved as PNG.
+ * @param headless        True if the plots are only rendered to PNG files, without windows.
+ * @param plotDirectory   The directory the PNG files are saved in.
+ * @param topPathways     The number of pathways with the highest values in a scatter plot.
+ * @param sketchQuantiles True if the quartiles of the boxplots are estimated with a sketch instead of calculated exactly.
+ */
+public record PlotOptions(List<String> boxPlots, List<String> scatterPlots, boolean savePlot, boolean headless, Path plotDirectory,
+                          int topPathways, boolean sketchQuantiles) {
+
+    /**
+     * Creates empty box statistics for every requested boxplot, to be filled with the GSEA results.
+     *
+     * @return One BoxStatistics per boxplot, in the requested order.
+     */
+    public List<BoxStatistics> newBoxStatistics() {
+        List<BoxStatistics> boxStatistics = new ArrayList<>();
+        for (String dataType : boxPlots) {
+            boxStatistics.add(new BoxStatistics(dataType, sketchQuantiles));
+        }
+        return boxStatistics;
+    }
+}
@@ -0,0 +1,99 @@
+package nl.bioinf.gse;
+
+import java.util.Arrays;
+
+/**
+ * Finds order statistics such as medians and quartiles in a primitive array without sorting it.
+ * Quickselect partitions the array around a median-of-three pivot and only continues in the part that holds the
+ * requested rank, so a selection takes O(n) time on average. When the partitions keep coming out lopsided the
+ * remaining range is sorted instead, which bounds the worst case at O(n log n).
+ * The values are reordered in place and must not contain NaN.
+ */
+public class QuantileSelector {
+
+    private QuantileSelector() {
+    }
+
+    /**
+     * Selects the value of a rank within a range, as if the range were sorted.
+     * Afterwards the range is partitioned around it: no value before the rank is larger and no value after it is smaller.
+     *
+     * @param values The values, reordered in place.
+     * @param from   The first index of the range.
+     * @param to     The index after the last index of the range.
+     * @param rank   The index the value would have if the range were sorted.
+     * @return The value of the rank.
+     * @throws IllegalArgumentException if the rank is outside the range.
+     */
+    public static double select(double[] values, int from, int to, int rank) {
+        if (rank < from || rank >= to) {
+            throw new IllegalArgumentException("Rank " + rank + " is outside the range " + from + " to " + to + ".");
+        }
+
+        // Each round should roughly halve the range, more rounds than this means the pivots are bad for these values
+        int rounds = 2 * (32 - Integer.numberOfLeadingZeros(to - from));
+        while (to - from > 1) {
+            if (rounds-- == 0) {
+                Arrays.sort(values, from, to);
+                break;
+            }
+            double pivot = medianOfThree(values[from], values[from + (to - from) / 2], values[to - 1]);
+
+            // Hoare partition: values[from..j] <= pivot <= values[i..to-1], anything between equals the pivot
+            int i = from;
+            int j = to - 1;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    double swap = values[i];
+                    values[i++] = values[j];
+                    values[j--] = swap;
+                }
+            }
+
+            if (rank <= j) {
+                to = j + 1;
+            } else if (rank >= i) {
+                from = i;
+            } else {
+                return values[rank];
+            }
+        }
+        return values[rank];
+    }
+
+    /**
+     * Calculates the median of a range, the mean of the two middle values for an even number of values.
+     *
+     * @param values The values, reordered in place.
+     * @param from   The first index of the range.
+     * @param to     The index after the last index of the range.
+     * @return The median, or NaN for an empty range.
+     */
+    public static double median(double[] values, int from, int to) {
+        int count = to - from;
+        if (count == 0) {
+            return Double.NaN;
+        }
+        int middle = from + (count - 1) / 2;
+        double lower = select(values, from, to, middle);
+        if (count % 2 == 1) {
+            return lower;
+        }
+        // After the selection the next value up is the smallest value behind the middle
+        double upper = values[middle + 1];
+        for (int i = middle + 2; i < to; i++) {
+            upper = Math.min(upper, values[i]);
+        }
+        return (lower + upper) / 2.0;
+    }
+
+    private static double medianOfThree(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+}
@@ -0,0 +1,267 @@
+package nl.bioinf.gse;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk cache of complete analysis results, shared by everyone who uses the same cache directory.
+ * An entry is addressed by a SHA-256 hash of the contents of the input files and of every parameter that
+ * changes the results, so a hit means the exact same analysis was run before and parsing and computation
+ * can be skipped. Reading an entry marks it as recently used; when the entries together grow beyond the
+ * size limit the least recently used ones are removed.
+ * <p>
+ * Entry layout, big-endian: magic "GSERSLT", version, key, pathway count and per pathway the GSEA result,
+ * the counts and the log fold change summaries, followed by the permutation results. Strings are stored as
+ * a length followed by UTF-8 bytes.
+ */
+public class ResultCache {
+
+    private static final byte[] MAGIC = "GSERSLT".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final String EXTENSION = ".gseresult";
+
+    /**
+     * The results of an analysis as they are stored in the cache.
+     *
+     * @param gseaResults       The GSEA results of all pathways.
+     * @param pathwayStatistics Map of pathway IDs to their statistics.
+     * @param empiricalPValues  Map of pathway IDs to their permutation results, empty if no permutation test was run.
+     */
+    public record Entry(List<GSEARecord> gseaResults, Map<String, PathwayStatistics> pathwayStatistics, Map<String, PermutationResult> empiricalPValues) {
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+
+    /**
+     * Creates a cache in a directory.
+     *
+     * @param directory The directory of the cache entries, created when the first entry is stored.
+     * @param maxBytes  The total size the entries may take up before the least recently used ones are removed.
+     */
+    public ResultCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Calculates the key of an analysis from its input files and parameters.
+     *
+     * @param inputFiles The input files, their contents are hashed.
+     * @param parameters The parameters that change the results, by name.
+     * @return The key as a hexadecimal SHA-256 hash.
+     * @throws IOException If one of the input files can't be read.
+     */
+    public static String key(List<Path> inputFiles, Map<String, String> parameters) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update(MAGIC);
+        for (Path inputFile : inputFiles) {
+            // Every file is preceded by its size, so the file boundaries are part of the hash
+            try (FileChannel channel = FileChannel.open(inputFile, StandardOpenOption.READ)) {
+                long size = channel.size();
+                digest.update(Long.toString(size).getBytes(StandardCharsets.US_ASCII));
+                for (long offset = 0; offset < size; offset += Integer.MAX_VALUE) {
+                    digest.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(Integer.MAX_VALUE, size - offset)));
+                }
+            }
+        }
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            digest.update((parameter.getKey() + "=" + parameter.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the entry of a key and marks it as recently used.
+     *
+     * @param key The key of the analysis.
+     * @return The cached results, or null if there is no entry or it is damaged.
+     * @throws IOException If the entry exists but can't be read.
+     */
+    public Entry get(String key) throws IOException {
+        Path entryFile = directory.resolve(key + EXTENSION);
+        if (!Files.isRegularFile(entryFile)) {
+            return null;
+        }
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(entryFile, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        Entry entry;
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || buffer.getInt() != VERSION || !BinaryFormat.readString(buffer).equals(key)) {
+                return null;
+            }
+
+            int pathwayCount = buffer.getInt();
+            List<GSEARecord> gseaResults = new ArrayList<>();
+            Map<String, PathwayStatistics> pathwayStatistics = new LinkedHashMap<>();
+            for (int i = 0; i < pathwayCount; i++) {
+                String pathwayID = BinaryFormat.readString(buffer);
+                String description = BinaryFormat.readString(buffer);
+                double pValue = buffer.getDouble();
+                double adjustedPValue = buffer.getDouble();
+                double enrichmentScore = buffer.getDouble();
+                double observedDEGs = buffer.getDouble();
+                double expectedDEGs = buffer.getDouble();
+                double avgLogFoldChange = buffer.getDouble();
+                gseaResults.add(new GSEARecord(pathwayID, pValue, adjustedPValue, enrichmentScore, observedDEGs, expectedDEGs, description, avgLogFoldChange));
+
+                ContingencyTable table = new ContingencyTable(pathwayID, buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getDouble());
+                pathwayStatistics.put(pathwayID, new PathwayStatistics(table, BinaryFormat.readSummary(buffer), BinaryFormat.readSummary(buffer), BinaryFormat.readSummary(buffer)));
+            }
+
+            Map<String, PermutationResult> empiricalPValues = new HashMap<>();
+            int permutationCount = buffer.getInt();
+            for (int i = 0; i < permutationCount; i++) {
+                String pathwayID = BinaryFormat.readString(buffer);
+                empiricalPValues.put(pathwayID, new PermutationResult(pathwayID, buffer.getLong(), buffer.getLong(), buffer.getDouble()));
+            }
+            entry = new Entry(gseaResults, pathwayStatistics, empiricalPValues);
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            // A truncated or damaged entry is treated as a miss and overwritten by the next run
+            return null;
+        }
+
+        try {
+            Files.setLastModifiedTime(entryFile, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // A shared entry may be owned by another user, it is then evicted a bit earlier
+        }
+        return entry;
+    }
+
+    /**
+     * Stores the results of an analysis and removes the least recently used entries beyond the size limit.
+     * The entry is written next to its final location and then moved into place, so concurrent runs never
+     * see a partially written entry.
+     *
+     * @param key   The key of the analysis.
+     * @param entry The results of the analysis.
+     * @throws IOException If the entry can't be written.
+     */
+    public void put(String key, Entry entry) throws IOException {
+        Files.createDirectories(directory);
+        Path entryFile = directory.resolve(key + EXTENSION);
+        Path temporaryFile = Files.createTempFile(directory, key, ".tmp");
+
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile), 1 << 16))) {
+                output.write(MAGIC);
+                output.writeInt(VERSION);
+                BinaryFormat.writeString(output, key);
+
+                output.writeInt(entry.gseaResults().size());
+                for (GSEARecord record : entry.gseaResults()) {
+                    BinaryFormat.writeString(output, record.pathwayID());
+                    BinaryFormat.writeString(output, record.description());
+                    output.writeDouble(record.pValue());
+                    output.writeDouble(record.adjustedPValue());
+                    output.writeDouble(record.enrichmentScore());
+                    output.writeDouble(record.observedDEGs());
+                    output.writeDouble(record.expectedDEGs());
+                    output.writeDouble(record.avgLogFoldChange());
+
+                    PathwayStatistics statistics = entry.pathwayStatistics().get(record.pathwayID());
+                    output.writeLong(statistics.table().degsInPathway());
+                    output.writeLong(statistics.table().nonDEGsInPathway());
+                    output.writeLong(statistics.table().totalDEGs());
+                    output.writeLong(statistics.table().totalNonDEGs());
+                    output.writeDouble(statistics.table().treshold());
+                    BinaryFormat.writeSummary(output, statistics.allGenes());
+                    BinaryFormat.writeSummary(output, statistics.upRegulated());
+                    BinaryFormat.writeSummary(output, statistics.downRegulated());
+                }
+
+                output.writeInt(entry.empiricalPValues().size());
+                for (PermutationResult permutationResult : entry.empiricalPValues().values()) {
+                    BinaryFormat.writeString(output, permutationResult.pathwayID());
+                    output.writeLong(permutationResult.permutations());
+                    output.writeLong(permutationResult.exceedances());
+                    output.writeDouble(permutationResult.empiricalPValue());
+                }
+            }
+            Files.move(temporaryFile, entryFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+
+        evict();
+    }
+
+    /**
+     * Removes the least recently used entries until the entries fit in the size limit.
+     */
+    private void evict() throws IOException {
+        List<Path> entryFiles = new ArrayList<>();
+        Map<Path, Long> lastUsed = new HashMap<>();
+        Map<Path, Long> sizes = new HashMap<>();
+        long totalBytes = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path entryFile : stream) {
+                try {
+                    long size = Files.size(entryFile);
+                    lastUsed.put(entryFile, Files.getLastModifiedTime(entryFile).toMillis());
+                    sizes.put(entryFile, size);
+                    entryFiles.add(entryFile);
+                    totalBytes += size;
+                } catch (IOException e) {
+                    // Removed by a concurrent run in the meantime
+                }
+            }
+        }
+
+        // The sizes of the scan are used, a concurrent run may remove or evict the same entries
+        entryFiles.sort(Comparator.comparing(lastUsed::get));
+        for (Path entryFile : entryFiles) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            try {
+                Files.delete(entryFile);
+            } catch (NoSuchFileException e) {
+                // Already evicted by a concurrent run, which freed the space as well
+            }
+            totalBytes -= sizes.get(entryFile);
+        }
+    }
+}
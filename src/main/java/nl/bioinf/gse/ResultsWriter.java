@@ -0,0 +1,267 @@
+package nl.bioinf.gse;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes GSEA results and gene annotations to a CSV or TSV file.
+ * Files ending in .tsv or .txt are tab separated, all other files are comma separated.
+ * Every row is appended field by field to one large buffer that is only written to the file when it is full,
+ * so large result sets are streamed to disk without building a string per field or per row.
+ * Fields containing the delimiter, quotes or line breaks are quoted like commons-csv does.
+ */
+public class ResultsWriter implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Writer writer;
+    private final char delimiter;
+    private final StringBuilder buffer = new StringBuilder(BUFFER_SIZE + 1024);
+    private final char[] chars = new char[BUFFER_SIZE + 1024];
+    private boolean firstField = true;
+
+    /**
+     * Opens a results file, replacing an existing file.
+     *
+     * @param path The path of the results file.
+     * @throws IOException If the file can't be created.
+     */
+    public ResultsWriter(Path path) throws IOException {
+        this.writer = new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8);
+        this.delimiter = delimiter(path.getFileName().toString());
+    }
+
+    /**
+     * Determines the delimiter of a results file from its extension.
+     *
+     * @param fileName The name of the results file.
+     * @return A tab for .tsv and .txt files, a comma otherwise.
+     */
+    static char delimiter(String fileName) {
+        String name = fileName.toLowerCase();
+        return name.endsWith(".tsv") || name.endsWith(".txt") ? '\t' : ',';
+    }
+
+    /**
+     * Writes the GSEA results of all pathways, one row per pathway.
+     *
+     * @param gseaResults      List of GSEARecord objects containing the analysis results.
+     * @param empiricalPValues Map of pathway IDs to their permutation results, an empirical p-value column is only
+     *                         written if it isn't empty.
+     * @throws IOException If the results can't be written.
+     */
+    public void writeGSEAResults(List<GSEARecord> gseaResults, Map<String, PermutationResult> empiricalPValues) throws IOException {
+        writeGSEAHeader(!empiricalPValues.isEmpty());
+        for (GSEARecord record : gseaResults) {
+            writeGSEAResult(record, empiricalPValues);
+        }
+    }
+
+    /**
+     * Writes the GSEA result of one pathway, for results that are written while the other pathways are still being evaluated.
+     * The header has to be written first with writeGSEAHeader.
+     *
+     * @param record           The GSEA result of a pathway.
+     * @param empiricalPValues Map of pathway IDs to their permutation results, an empirical p-value is only
+     *                         written if it isn't empty.
+     * @throws IOException If the result can't be written.
+     */
+    public void writeGSEAResult(GSEARecord record, Map<String, PermutationResult> empiricalPValues) throws IOException {
+        writeGSEARecord(record);
+        if (!empiricalPValues.isEmpty()) {
+            PermutationResult permutationResult = empiricalPValues.get(record.pathwayID());
+            if (permutationResult != null) {
+                field(permutationResult.empiricalPValue());
+            } else {
+                field("");
+            }
+        }
+        endRow();
+    }
+
+    /**
+     * Writes the results of a threshold sweep, one row per threshold and pathway.
+     *
+     * @param sweepResults List of ThresholdResult objects, ordered by threshold and then by pathway.
+     * @throws IOException If the results can't be written.
+     */
+    public void writeThresholdSweep(List<ThresholdResult> sweepResults) throws IOException {
+        field("Threshold");
+        writeGSEAHeader(false);
+        for (ThresholdResult sweepResult : sweepResults) {
+            field(sweepResult.threshold());
+            writeGSEARecord(sweepResult.result());
+            endRow();
+        }
+    }
+
+    /**
+     * Writes the results of a batch of contrasts, one row per contrast and pathway.
+     *
+     * @param contrastResults List of ContrastResult objects, ordered by contrast and then by pathway.
+     * @throws IOException If the results can't be written.
+     */
+    public void writeContrastResults(List<ContrastResult> contrastResults) throws IOException {
+        field("Contrast");
+        writeGSEAHeader(false);
+        for (ContrastResult contrastResult : contrastResults) {
+            field(contrastResult.contrast());
+            writeGSEARecord(contrastResult.result());
+            endRow();
+        }
+    }
+
+    /**
+     * Writes every gene of the gene file with its DEG status and the pathways it is a member of.
+     *
+     * @param geneRecords  List of GeneRecord objects with gene expression data.
+     * @param pathwayIndex Index of the pathways the genes are looked up in.
+     * @param treshold     The adjusted p-value below which a gene is a DEG.
+     * @throws IOException If the annotations can't be written.
+     */
+    public void writeGeneAnnotations(List<GeneRecord> geneRecords, PathwayIndex pathwayIndex, double treshold) throws IOException {
+        field("Gene");
+        field("Log Fold Change");
+        field("Adjusted P-Value");
+        field("DEG");
+        field("Pathways");
+        endRow();
+
+        for (GeneRecord gene : geneRecords) {
+            field(gene.geneSymbol());
+            field(gene.logFoldChange());
+            field(gene.adjustedPValue());
+            field(gene.adjustedPValue() < treshold ? "true" : "false");
+
+            // The pathway IDs are joined with semicolons in a single field
+            List<String> pathways = pathwayIndex.getGenePathways(gene.geneSymbol());
+            separator();
+            int start = buffer.length();
+            for (int i = 0; i < pathways.size(); i++) {
+                if (i > 0) {
+                    buffer.append(';');
+                }
+                buffer.append(pathways.get(i));
+            }
+            quoteFrom(start);
+            endRow();
+        }
+    }
+
+    /**
+     * Appends the headers of the GSEA columns to the current row and ends it.
+     *
+     * @param empirical True to add the empirical p-value column.
+     * @throws IOException If the header can't be written.
+     */
+    public void writeGSEAHeader(boolean empirical) throws IOException {
+        field("PathwayID");
+        field("Pathway");
+        field("P-Value");
+        field("Adjusted P-Value");
+        field("Enrichment Score");
+        field("Expected DEGs");
+        field("Observed DEGs");
+        field("Average LogFoldChange");
+        if (empirical) {
+            field("Empirical P-Value");
+        }
+        endRow();
+    }
+
+    /**
+     * Appends the GSEA columns of one pathway to the current row.
+     */
+    private void writeGSEARecord(GSEARecord record) {
+        field(record.pathwayID());
+        field(record.description());
+        field(record.pValue());
+        field(record.adjustedPValue());
+        field(record.enrichmentScore());
+        field(record.expectedDEGs());
+        field(record.observedDEGs());
+        field(record.avgLogFoldChange());
+    }
+
+    private void field(String value) {
+        separator();
+        int start = buffer.length();
+        buffer.append(value);
+        quoteFrom(start);
+    }
+
+    private void field(double value) {
+        separator();
+        buffer.append(value);
+    }
+
+    private void separator() {
+        if (!firstField) {
+            buffer.append(delimiter);
+        }
+        firstField = false;
+    }
+
+    /**
+     * Quotes the field that starts at the given position of the buffer if it contains the delimiter,
+     * a quote or a line break. Quotes inside the field are doubled.
+     */
+    private void quoteFrom(int start) {
+        boolean quote = false;
+        for (int i = start; i < buffer.length() && !quote; i++) {
+            char c = buffer.charAt(i);
+            quote = c == delimiter || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            return;
+        }
+        for (int i = buffer.length() - 1; i >= start; i--) {
+            if (buffer.charAt(i) == '"') {
+                buffer.insert(i, '"');
+            }
+        }
+        buffer.insert(start, '"').append('"');
+    }
+
+    /**
+     * Ends the current row and writes the buffer to the file once it is full.
+     */
+    private void endRow() throws IOException {
+        buffer.append('\n');
+        firstField = true;
+        if (buffer.length() >= BUFFER_SIZE) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        int length = buffer.length();
+        // A row longer than the spare room of the array is written in parts
+        for (int offset = 0; offset < length; offset += chars.length) {
+            int end = Math.min(length, offset + chars.length);
+            buffer.getChars(offset, end, chars, 0);
+            writer.write(chars, 0, end - offset);
+        }
+        buffer.setLength(0);
+    }
+
+    /**
+     * Writes the remaining rows and closes the file.
+     *
+     * @throws IOException If the file can't be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -14,76 +14,62 @@ import org.jfree.chart.annotations.XYTextAnnotation;
 import org.jfree.chart.LegendItem;
 import org.jfree.chart.LegendItemCollection;
 import org.jfree.chart.LegendItemSource;
-import org.jfree.chart.ChartUtils;
 
 import javax.swing.*;
 import java.awt.*;
-import java.io.File;
 import java.io.IOException;
-import java.util.Comparator;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.stream.Collectors;
 
 public class ScatterPlot {
 
     /**
-     * Creates a dataset for the scatter plot using the top 20 pathways based on enrichment score
+     * Creates a dataset for the scatter plot from the top pathways, which were already selected by enrichment score
      * or average log fold change, depending on the dataType.
      *
-     * @param results List of GSEARecord objects containing pathway data.
-     * @param dataType Specifies the metric for sorting pathways ("enrichmentscore" or "avglogfoldchange").
-     * @return DefaultXYDataset containing the top 20 pathways for plotting.
+     * @param topResults List of GSEARecord objects of the top pathways.
+     * @param dataType Specifies the metric shown on the y-axis ("enrichmentscore" or "avglogfoldchange").
+     * @return DefaultXYDataset containing the top pathways for plotting.
      */
-    private static DefaultXYDataset createDataset(List<GSEARecord> results, String dataType) {
-        List<GSEARecord> topResults;
-
-        if ("avglogfoldchange".equalsIgnoreCase(dataType)) {
-            // Sort by average log fold change and get the top 20 records
-            topResults = results.stream()
-                    .sorted(Comparator.comparingDouble(GSEARecord::avgLogFoldChange).reversed())
-                    .limit(20)
-                    .collect(Collectors.toList());
-        } else {
-            // Sort by enrichment score and get the top 20 records
-            topResults = results.stream()
-                    .sorted(Comparator.comparingDouble(GSEARecord::enrichmentScore).reversed())
-                    .limit(20)
-                    .collect(Collectors.toList());
-        }
-
+    private static DefaultXYDataset createDataset(List<GSEARecord> topResults, String dataType) {
         DefaultXYDataset dataset = new DefaultXYDataset();
         double[][] data = new double[2][topResults.size()];
 
         for (int i = 0; i < topResults.size(); i++) {
             GSEARecord record = topResults.get(i);
             data[0][i] = record.pValue();  // X-axis is always p-value
-
-            // Set Y-axis based on dataType
-            if ("avglogfoldchange".equalsIgnoreCase(dataType)) {
-                data[1][i] = record.avgLogFoldChange(); // Y-axis is average log fold change
-            } else {
-                data[1][i] = record.enrichmentScore();  // Y-axis is enrichment score
-            }
+            data[1][i] = yValue(record, dataType);
         }
 
-        dataset.addSeries("Top 20 Pathways", data);
+        dataset.addSeries("Top " + topResults.size() + " Pathways", data);
         return dataset;
     }
 
     /**
-     * Creates a scatter plot chart with customized renderer, labels, and legend based on the top 20 pathways.
+     * Returns the value of a pathway on the y-axis.
+     *
+     * @param record The GSEA result of the pathway.
+     * @param dataType Specifies the metric shown on the y-axis ("enrichmentscore" or "avglogfoldchange").
+     * @return The average log fold change or the enrichment score of the pathway.
+     */
+    private static double yValue(GSEARecord record, String dataType) {
+        return "avglogfoldchange".equalsIgnoreCase(dataType) ? record.avgLogFoldChange() : record.enrichmentScore();
+    }
+
+    /**
+     * Creates a scatter plot chart with customized renderer, labels, and legend based on the top pathways.
      *
      * @param dataset The XY dataset containing the pathway data for the scatter plot.
-     * @param topResults List of GSEARecord objects representing the top 20 pathways.
+     * @param topResults List of GSEARecord objects representing the top pathways.
      * @param dataType Specifies the metric shown on the y-axis ("enrichmentscore" or "avglogfoldchange").
      * @return JFreeChart configured as a scatter plot with customized appearance.
      */
     private static JFreeChart createChart(DefaultXYDataset dataset, List<GSEARecord> topResults, String dataType) {
         // Set chart title and Y-axis label based on dataType
         String yAxisLabel = "enrichmentscore".equalsIgnoreCase(dataType) ? "Enrichment Score" : "Average Log Fold Change";
-        String chartTitle = "Top 20 Pathways by " + yAxisLabel;
+        String chartTitle = "Top " + topResults.size() + " Pathways by " + yAxisLabel;
 
         JFreeChart chart = ChartFactory.createScatterPlot(
                 chartTitle,                    // chart title
@@ -133,17 +119,21 @@ public class ScatterPlot {
      * @param dataType Determines the metric for the y-axis range ("enrichmentscore" or "avglogfoldchange").
      */
     private static void centerPlotAroundData(XYPlot plot, List<GSEARecord> topResults, String dataType) {
-        double minX = topResults.stream().mapToDouble(GSEARecord::pValue).min().orElse(0);
-        double maxX = topResults.stream().mapToDouble(GSEARecord::pValue).max().orElse(1);
-
-        // Set Y-axis min and max based on dataType
-        double minY, maxY;
-        if ("avglogfoldchange".equalsIgnoreCase(dataType)) {
-            minY = topResults.stream().mapToDouble(GSEARecord::avgLogFoldChange).min().orElse(0);
-            maxY = topResults.stream().mapToDouble(GSEARecord::avgLogFoldChange).max().orElse(1);
-        } else {
-            minY = topResults.stream().mapToDouble(GSEARecord::enrichmentScore).min().orElse(0);
-            maxY = topResults.stream().mapToDouble(GSEARecord::enrichmentScore).max().orElse(1);
+        if (topResults.isEmpty()) {
+            return;
+        }
+
+        // Find the ranges of both axes in one pass over the top pathways
+        double minX = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (GSEARecord record : topResults) {
+            double y = yValue(record, dataType);
+            minX = Math.min(minX, record.pValue());
+            maxX = Math.max(maxX, record.pValue());
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
         }
 
         // Calculate ranges for x and y with a small margin
@@ -159,20 +149,13 @@ public class ScatterPlot {
      * or average log fold change).
      *
      * @param plot XYPlot object to which labels are added.
-     * @param topResults List of GSEARecord objects representing the top 20 pathways.
+     * @param topResults List of GSEARecord objects representing the top pathways.
      * @param dataType Specifies the metric shown on the y-axis ("enrichmentscore" or "avglogfoldchange").
      */
     private static void addLabels(XYPlot plot, List<GSEARecord> topResults, String dataType) {
         for (GSEARecord record : topResults) {
             double x = record.pValue();
-            double y;
-
-            // Set Y-axis value based on dataType
-            if ("avglogfoldchange".equalsIgnoreCase(dataType)) {
-                y = record.avgLogFoldChange();
-            } else {
-                y = record.enrichmentScore();
-            }
+            double y = yValue(record, dataType);
 
             String label = record.description();
 
@@ -189,7 +172,7 @@ public class ScatterPlot {
      * for clear identification of each pathway in the chart.
      *
      * @param colorMap Map of pathway descriptions to their associated colors.
-     * @param topResults List of GSEARecord objects representing the top 20 pathways.
+     * @param topResults List of GSEARecord objects representing the top pathways.
      * @return LegendTitle object with a custom legend for the chart.
      */
     private static LegendTitle createCustomLegend(Map<String, Color> colorMap, List<GSEARecord> topResults) {
@@ -223,7 +206,7 @@ public class ScatterPlot {
      * Generates a color map that associates each pathway description with a unique color, using
      * the HSB color model for distinct color variations.
      *
-     * @param topResults List of GSEARecord objects representing the top 20 pathways.
+     * @param topResults List of GSEARecord objects representing the top pathways.
      * @return Map of pathway descriptions to their corresponding colors.
      */
     private static Map<String, Color> generateColorMap(List<GSEARecord> topResults) {
@@ -239,46 +222,53 @@ public class ScatterPlot {
     }
 
     /**
-     * Saves the generated chart as a PNG image file with a specified resolution.
+     * Creates the scatter plot of the top pathways for a data type, without displaying it.
      *
-     * @param chart The JFreeChart object representing the scatter plot.
+     * @param results     List of GSEARecord objects containing pathway data.
+     * @param dataType    Specifies the metric shown on the y-axis ("enrichmentscore" or "avglogfoldchange").
+     * @param topPathways The number of pathways with the highest values that are plotted.
+     * @return JFreeChart configured as a scatter plot.
      */
-    private static void saveChartAsPNG(JFreeChart chart) {
-        try {
-            File file = new File("top_20_pathways_scatter_plot.png");
-            ChartUtils.saveChartAsPNG(file, chart, 800, 600);
-            System.out.println("Chart saved as PNG: " + file.getAbsolutePath());
-        } catch (IOException e) {
-            System.err.println("Error saving chart as PNG: " + e.getMessage());
-        }
+    static JFreeChart buildChart(List<GSEARecord> results, String dataType, int topPathways) {
+        // Only the top pathways are ranked, the others are never sorted
+        List<GSEARecord> topResults = TopKSelector.select(results, record -> yValue(record, dataType), topPathways);
+
+        DefaultXYDataset dataset = createDataset(topResults, dataType);
+        return createChart(dataset, topResults, dataType);
+    }
+
+    /**
+     * Returns the name of the PNG file of the scatter plot of a data type, so several scatter plots can be saved side by side.
+     *
+     * @param dataType The metric shown on the y-axis.
+     * @return The file name.
+     */
+    static String fileName(String dataType) {
+        return "scatterplot_" + dataType.toLowerCase() + ".png";
     }
 
     /**
      * Displays the chart in a JFrame with the option to save the plot as a PNG file. Configures
      * the chart based on the data type for the y-axis metric (enrichment score or average log fold change).
      *
-     * @param results List of GSEARecord objects containing pathway data.
-     * @param savePlot Boolean flag to indicate whether to save the chart as a PNG file.
-     * @param dataType Specifies the metric shown on the y-axis ("enrichmentscore" or "avglogfoldchange").
+     * @param results       List of GSEARecord objects containing pathway data.
+     * @param savePlot      Boolean flag to indicate whether to save the chart as a PNG file.
+     * @param dataType      Specifies the metric shown on the y-axis ("enrichmentscore" or "avglogfoldchange").
+     * @param plotDirectory The directory the PNG file is saved in.
+     * @param topPathways   The number of pathways with the highest values that are plotted.
      */
-    static void showChart(List<GSEARecord> results, boolean savePlot, String dataType) {
-        List<GSEARecord> topResults = results.stream()
-                .sorted(Comparator.comparingDouble(
-                                "avglogfoldchange".equalsIgnoreCase(dataType)
-                                        ? GSEARecord::avgLogFoldChange
-                                        : GSEARecord::enrichmentScore)
-                        .reversed())
-                .limit(20)
-                .collect(Collectors.toList());
-
-        DefaultXYDataset dataset = createDataset(topResults, dataType);
-        JFreeChart chart = createChart(dataset, topResults, dataType);
+    static void showChart(List<GSEARecord> results, boolean savePlot, String dataType, Path plotDirectory, int topPathways) {
+        JFreeChart chart = buildChart(results, dataType, topPathways);
 
         if (savePlot) {
-            saveChartAsPNG(chart);
+            try {
+                Boxplot.saveChartAsPNG(chart, plotDirectory.resolve(fileName(dataType)));
+            } catch (IOException e) {
+                System.err.println("Error saving chart as PNG: " + e.getMessage());
+            }
         }
 
-        JFrame frame = new JFrame("Scatter Plot of Top 20 Pathways");
+        JFrame frame = new JFrame("Scatter Plot of Top " + topPathways + " Pathways");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setLayout(new BorderLayout());
 
@@ -44,21 +44,10 @@ public class TableBuilder {
      * @return               The count of DEGs in the specified pathway.
      */
     public static int degsInPathway(Map<String, PathwayRecord> pathwayRecords, List<GeneRecord> geneRecords, String pathwayID, double treshold) {
-        List<String> geneID = new ArrayList<>();
-        int degCount = 0;
-
-        // Get geneIDs in the selected pathway
-        PathwayRecord selectedPathway = pathwayRecords.get(pathwayID);
-        geneID.addAll(selectedPathway.geneIDs());
-
-        // Count DEGs within the selected pathway
-        for (GeneRecord geneRecord : geneRecords) {
-            if (geneID.contains(geneRecord.geneSymbol()) && geneRecord.adjustedPValue() < treshold) {
-                degCount++;
-            }
-        }
+        // Get geneIDs in the selected pathway as a set view, lookups are binary searches over the gene indices
+        Set<String> geneID = pathwayRecords.get(pathwayID).geneSet();
 
-        return degCount;
+        return countDEGs(geneID, geneRecords, treshold);
     }
 
     /**
@@ -71,20 +60,77 @@ public class TableBuilder {
      * @return               The count of non-DEGs in the specified pathway.
      */
     public static int nonDEGsInPathway(Map<String, PathwayRecord> pathwayRecords, List<GeneRecord> geneRecords, String pathwayID, double treshold){
-        List<String> geneID = new ArrayList<>();
-        int geneCount = 0;
+        // Get geneIDs in the selected pathway as a set view, lookups are binary searches over the gene indices
+        Set<String> geneID = pathwayRecords.get(pathwayID).geneSet();
 
-        // Get geneIDs in the selected pathway
-        PathwayRecord selectedPathway = pathwayRecords.get(pathwayID);
-        geneID.addAll(selectedPathway.geneIDs());
+        return countNonDEGs(geneID, geneRecords, treshold);
+    }
 
-        // Count non-DEGs within the selected pathway
+    /**
+     * Counts the DEGs of every pathway in a single pass over the gene records.
+     * Every gene record is looked up once in the gene to pathway map of the index and counted for the pathways
+     * containing it, so the gene records aren't scanned again for every pathway.
+     *
+     * @param pathwayIndex The index over all pathways.
+     * @param geneRecords  List of GeneRecord objects with gene expression data.
+     * @param treshold     The adjusted p-value threshold for filtering DEGs.
+     * @return             The DEG count of every pathway, by pathway ordinal.
+     */
+    public static int[] degsPerPathway(PathwayIndex pathwayIndex, List<GeneRecord> geneRecords, double treshold) {
+        int[] degCounts = new int[pathwayIndex.size()];
         for (GeneRecord geneRecord : geneRecords) {
-            if (geneID.contains(geneRecord.geneSymbol()) && geneRecord.adjustedPValue() > treshold) {
-                geneCount++;
+            if (geneRecord.adjustedPValue() < treshold) {
+                for (int ordinal : pathwayIndex.getGenePathwayOrdinals(geneRecord.geneSymbol())) {
+                    degCounts[ordinal]++;
+                }
+            }
+        }
+        return degCounts;
+    }
+
+    /**
+     * Counts the non-DEGs of every pathway in a single pass over the gene records, like degsPerPathway.
+     *
+     * @param pathwayIndex The index over all pathways.
+     * @param geneRecords  List of GeneRecord objects with gene expression data.
+     * @param treshold     The adjusted p-value threshold for filtering non-DEGs.
+     * @return             The non-DEG count of every pathway, by pathway ordinal.
+     */
+    public static int[] nonDEGsPerPathway(PathwayIndex pathwayIndex, List<GeneRecord> geneRecords, double treshold) {
+        int[] geneCounts = new int[pathwayIndex.size()];
+        for (GeneRecord geneRecord : geneRecords) {
+            if (geneRecord.adjustedPValue() > treshold) {
+                for (int ordinal : pathwayIndex.getGenePathwayOrdinals(geneRecord.geneSymbol())) {
+                    geneCounts[ordinal]++;
+                }
             }
         }
+        return geneCounts;
+    }
 
+    /**
+     * Counts the gene records that are in the given gene set and pass the DEG threshold.
+     */
+    private static int countDEGs(Set<String> geneID, List<GeneRecord> geneRecords, double treshold) {
+        int degCount = 0;
+        for (GeneRecord geneRecord : geneRecords) {
+            if (geneRecord.adjustedPValue() < treshold && geneID.contains(geneRecord.geneSymbol())) {
+                degCount++;
+            }
+        }
+        return degCount;
+    }
+
+    /**
+     * Counts the gene records that are in the given gene set and do not pass the DEG threshold.
+     */
+    private static int countNonDEGs(Set<String> geneID, List<GeneRecord> geneRecords, double treshold) {
+        int geneCount = 0;
+        for (GeneRecord geneRecord : geneRecords) {
+            if (geneRecord.adjustedPValue() > treshold && geneID.contains(geneRecord.geneSymbol())) {
+                geneCount++;
+            }
+        }
         return geneCount;
     }
 
@@ -176,27 +222,29 @@ public class TableBuilder {
      * @return               A formatted string representing the DEG/non-DEG counts table.
      */
     public static String tableBuilder(List<GeneRecord> geneRecords, Map<String, PathwayRecord> pathwayRecords, String pathwayID, double treshold) {
-        int degsInPathway = degsInPathway(pathwayRecords, geneRecords, pathwayID, treshold);
-        int nonDEGsInPathway = nonDEGsInPathway(pathwayRecords, geneRecords, pathwayID, treshold);
-        long totalDEGs = totalDEGS(geneRecords, treshold);
-        long totalNonDEGs = totalNonDEGS(geneRecords, treshold);
+        Set<String> geneID = pathwayRecords.get(pathwayID).geneSet();
+
+        return tableBuilder(ContingencyTable.build(pathwayID, geneID, geneRecords, treshold));
+    }
 
-        int genesInPathway = genesInPathway(geneRecords, pathwayRecords, pathwayID, treshold);
-        long totalGenes = totalGenes(geneRecords, treshold);
-        long degsNotInPathway = degsNotinPathway(geneRecords, pathwayRecords, pathwayID, treshold);
-        long nonDEGsNotInPathway = nonDEGsNotInPathway(geneRecords, pathwayRecords, pathwayID, treshold);
-        long genesNotInPathway = genesNotInPathway(geneRecords, pathwayRecords, pathwayID, treshold);
+    /**
+     * Builds a table as a formatted string from a precomputed contingency table.
+     *
+     * @param table The contingency table of the pathway.
+     * @return      A formatted string representing the DEG/non-DEG counts table.
+     */
+    public static String tableBuilder(ContingencyTable table) {
         // building the table itself
         String line1 = "   |  D  |  D* | Sum\n";
         String line2 = "--------------------\n";
-        String line3 = String.format(" C |%5d|%5d|%5d\n", degsInPathway, nonDEGsInPathway, genesInPathway);
-        String line4 = String.format(" C*|%5d|%5d|%5d\n", degsNotInPathway, nonDEGsNotInPathway, genesNotInPathway);
-        String line5 = String.format("sum|%5d|%5d|%5d\n", totalDEGs, totalNonDEGs, totalGenes);
+        String line3 = String.format(" C |%5d|%5d|%5d\n", table.degsInPathway(), table.nonDEGsInPathway(), table.genesInPathway());
+        String line4 = String.format(" C*|%5d|%5d|%5d\n", table.degsNotInPathway(), table.nonDEGsNotInPathway(), table.genesNotInPathway());
+        String line5 = String.format("sum|%5d|%5d|%5d\n", table.totalDEGs(), table.totalNonDEGs(), table.totalGenes());
         String line6 = "\nC: in pathway, C*: not in pathway\n";
-        String line7 = "D: DEG (FDR <= 0.01), D*: non DEG";
+        String line7 = "D: DEG (FDR < " + table.treshold() + "), D*: non DEG";
 
-        String table = line1 + line2 + line3 + line4 + line5 + line6 + line7;
+        String formattedTable = line1 + line2 + line3 + line4 + line5 + line6 + line7;
 
-        return table;
+        return formattedTable;
     }
 }
@@ -8,43 +8,138 @@ import java.util.Map;
  */
 public class TerminalOutput {
 
+    private static final String GSEA_COLUMNS = "PathwayID\tP-Value\tAdjusted P-Value\tEnrichment Score\tExpected DEGs\tObserved DEGs\tAverage LogFoldChange\tPathway";
+
     /**
      * Prints GSEA results based on the specified pathway name.
      *
      * @param gseaResults    List of GSEARecord objects containing the analysis results.
      * @param pathwayRecords Map of pathway names to PathwayRecord objects.
      * @param pathwayName    The name of the pathway to filter results by. Can be "no_pathways", "all_pathways", or a specific pathway ID.
+     * @param pathwayStatistics Map of pathway IDs to their statistics, whose table is printed when a specific pathway is selected.
      * @throws IllegalArgumentException if the pathwayName does not match any pathway in the records.
      */
-    public static void printGSEAResults(List<GSEARecord> gseaResults, Map<String, PathwayRecord> pathwayRecords, String pathwayName) {
+    public static void printGSEAResults(List<GSEARecord> gseaResults, Map<String, PathwayRecord> pathwayRecords, String pathwayName, Map<String, PathwayStatistics> pathwayStatistics) {
+        printGSEAResults(gseaResults, pathwayName, pathwayStatistics, Map.of());
+    }
+
+    /**
+     * Prints GSEA results based on the specified pathway name, together with the empirical p-values of a permutation test.
+     * The statistics hold every pathway, so this also works for results that were loaded from the result cache.
+     *
+     * @param gseaResults       List of GSEARecord objects containing the analysis results.
+     * @param pathwayName       The name of the pathway to filter results by. Can be "no_pathways", "all_pathways", or a specific pathway ID.
+     * @param pathwayStatistics Map of pathway IDs to their statistics, whose table is printed when a specific pathway is selected.
+     * @param empiricalPValues  Map of pathway IDs to their permutation results, empty if no permutation test was run.
+     * @throws IllegalArgumentException if the pathwayName does not match any pathway in the records.
+     */
+    public static void printGSEAResults(List<GSEARecord> gseaResults, String pathwayName,
+                                        Map<String, PathwayStatistics> pathwayStatistics, Map<String, PermutationResult> empiricalPValues) {
         if (pathwayName.equals("no_pathways")) {
             return; // No output for "no_pathways"
         }
 
+        if (!pathwayName.equals("all_pathways")
+                && (!pathwayStatistics.containsKey(pathwayName) || findMatchingRecord(gseaResults, pathwayName) == null)) {
+            throw new IllegalArgumentException("Error: No pathway found with ID: " + pathwayName);
+        }
+        for (GSEARecord result : gseaResults) {
+            printGSEAResult(result, pathwayName, pathwayStatistics, empiricalPValues.get(result.pathwayID()));
+        }
+    }
+
+    /**
+     * Prints the most significant pathways, ranked from the lowest p-value up.
+     * Only these pathways are ranked, so this is fast even for very large gene set collections.
+     *
+     * @param gseaResults       List of GSEARecord objects containing the analysis results.
+     * @param top               The number of pathways to print.
+     * @param pathwayStatistics Map of pathway IDs to their statistics.
+     * @param empiricalPValues  Map of pathway IDs to their permutation results, empty if no permutation test was run.
+     */
+    public static void printTopResults(List<GSEARecord> gseaResults, int top, Map<String, PathwayStatistics> pathwayStatistics,
+                                       Map<String, PermutationResult> empiricalPValues) {
+        // The highest score is the lowest p-value, equal p-values keep the order of the pathways
+        List<GSEARecord> topResults = TopKSelector.select(gseaResults, record -> -record.pValue(), top);
+        System.out.println("Top " + topResults.size() + " of " + gseaResults.size() + " pathways by p-value:");
+        printGSEAResults(topResults, "all_pathways", pathwayStatistics, empiricalPValues);
+    }
+
+    /**
+     * Prints the GSEA result of one pathway if the pathway name selects it, so results can be printed as they are calculated.
+     * A specific pathway is printed together with its enrichment table and fold change summaries.
+     *
+     * @param record            The GSEA result of a pathway.
+     * @param pathwayName       "no_pathways", "all_pathways", or a specific pathway ID.
+     * @param pathwayStatistics Map of pathway IDs to their statistics.
+     * @param permutationResult The permutation result of the pathway, or null if no permutation test was run.
+     */
+    public static void printGSEAResult(GSEARecord record, String pathwayName, Map<String, PathwayStatistics> pathwayStatistics,
+                                       PermutationResult permutationResult) {
         if (pathwayName.equals("all_pathways")) {
-            for (GSEARecord result : gseaResults) {
-                printGSEARecord(result);
-            }
-        } else {
-            if (pathwayRecords.containsKey(pathwayName)) {
-                GSEARecord matchingRecord = findMatchingRecord(gseaResults, pathwayName);
-                if (matchingRecord != null) {
-                    printGSEARecord(matchingRecord);
-                } else {
-                    throw new IllegalArgumentException("Error: No pathway found with ID: " + pathwayName);
-                }
-            } else {
-                throw new IllegalArgumentException("Error: No pathway found with ID: " + pathwayName);
-            }
+            printGSEARecord(record, permutationResult);
+        } else if (record.pathwayID().equals(pathwayName)) {
+            printGSEARecord(record, permutationResult);
+
+            // Show the enrichment table and fold change summaries of the selected pathway
+            PathwayStatistics statistics = pathwayStatistics.get(pathwayName);
+            System.out.println(TableBuilder.tableBuilder(statistics.table()));
+            printFoldChangeSummary("Up-regulated DEGs", statistics.upRegulated());
+            printFoldChangeSummary("Down-regulated DEGs", statistics.downRegulated());
         }
     }
 
+    /**
+     * Prints the results of a threshold sweep as one tab separated table with a threshold column.
+     *
+     * @param sweepResults List of ThresholdResult objects, ordered by threshold and then by pathway.
+     */
+    public static void printThresholdSweep(List<ThresholdResult> sweepResults) {
+        System.out.println("Threshold\t" + GSEA_COLUMNS);
+        StringBuilder line = new StringBuilder();
+        for (ThresholdResult sweepResult : sweepResults) {
+            line.setLength(0);
+            line.append(sweepResult.threshold()).append('\t');
+            System.out.println(appendGSEAColumns(line, sweepResult.result()));
+        }
+    }
+
+    /**
+     * Prints the results of a batch of contrasts as one tab separated table with a contrast column.
+     *
+     * @param contrastResults List of ContrastResult objects, ordered by contrast and then by pathway.
+     */
+    public static void printContrastResults(List<ContrastResult> contrastResults) {
+        System.out.println("Contrast\t" + GSEA_COLUMNS);
+        StringBuilder line = new StringBuilder();
+        for (ContrastResult contrastResult : contrastResults) {
+            line.setLength(0);
+            line.append(contrastResult.contrast()).append('\t');
+            System.out.println(appendGSEAColumns(line, contrastResult.result()));
+        }
+    }
+
+    /**
+     * Appends the tab separated GSEA columns of a pathway to a line of a results table.
+     */
+    private static StringBuilder appendGSEAColumns(StringBuilder line, GSEARecord record) {
+        return line.append(record.pathwayID()).append('\t')
+                .append(record.pValue()).append('\t')
+                .append(record.adjustedPValue()).append('\t')
+                .append(record.enrichmentScore()).append('\t')
+                .append(record.expectedDEGs()).append('\t')
+                .append(record.observedDEGs()).append('\t')
+                .append(record.avgLogFoldChange()).append('\t')
+                .append(record.description());
+    }
+
     /**
      * Prints the details of a single GSEARecord to the terminal.
      *
-     * @param record The GSEARecord to be printed.
+     * @param record            The GSEARecord to be printed.
+     * @param permutationResult The permutation result of the pathway, or null if no permutation test was run.
      */
-    private static void printGSEARecord(GSEARecord record) {
+    private static void printGSEARecord(GSEARecord record, PermutationResult permutationResult) {
         System.out.println("Pathway: " + record.description());
         System.out.println("KEGG PathwayID: " + record.pathwayID());
         System.out.println("P-Value: " + record.pValue());
@@ -53,9 +148,22 @@ public class TerminalOutput {
         System.out.println("Expected DEGs: " + record.expectedDEGs());
         System.out.println("Observed DEGs: " + record.observedDEGs());
         System.out.println("Average LogFoldChange: " + record.avgLogFoldChange());
+        if (permutationResult != null) {
+            System.out.println("Empirical P-Value: " + permutationResult.empiricalPValue() + " (" + permutationResult.permutations() + " permutations)");
+        }
         System.out.println("-----------------------------------");
     }
 
+    /**
+     * Prints the number, mean and variance of the log fold changes of a group of genes.
+     *
+     * @param label   The name of the group of genes.
+     * @param summary The log fold change summary of the group.
+     */
+    private static void printFoldChangeSummary(String label, FoldChangeSummary summary) {
+        System.out.println(label + ": " + summary.count() + " (mean LogFoldChange: " + summary.mean() + ", variance: " + summary.variance() + ")");
+    }
+
     /**
      * Finds a GSEARecord in the list by its pathway ID.
      *
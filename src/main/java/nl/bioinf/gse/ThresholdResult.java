@@ -0,0 +1,10 @@
+package nl.bioinf.gse;
+
+/**
+ * Represents the GSEA result of a pathway at one of the thresholds of a threshold sweep.
+ *
+ * @param threshold The adjusted p-value threshold used to classify DEGs.
+ * @param result    The GSEA result of the pathway at this threshold.
+ */
+public record ThresholdResult(double threshold, GSEARecord result) {
+}
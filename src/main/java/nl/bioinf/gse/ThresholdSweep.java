@@ -0,0 +1,119 @@
+package nl.bioinf.gse;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the pathway statistics at many DEG thresholds in one run.
+ * The gene records are sorted once by adjusted p-value. Walking that order, every gene is added to the
+ * counters of its pathways once when it drops below a threshold, so the DEG counts at each threshold are
+ * prefix counts over the sorted order and only a snapshot per threshold is extra work.
+ * The sweep counts every gene row like the hash backend, also when the bitset backend is chosen; both backends give
+ * the same counts, so the results don't depend on the backend.
+ */
+public class ThresholdSweep {
+
+    /**
+     * Running counts of a single pathway during the sweep.
+     */
+    private static class Counters {
+        // Genes with an adjusted p-value below, and at or below, the current threshold
+        private long below;
+        private long atOrBelow;
+        private final FoldChangeSummary.Accumulator upRegulated = new FoldChangeSummary.Accumulator();
+        private final FoldChangeSummary.Accumulator downRegulated = new FoldChangeSummary.Accumulator();
+    }
+
+    /**
+     * Collects the statistics of all pathways at every threshold.
+     *
+     * @param pathwayIndex The index over all pathways.
+     * @param geneRecords  List of GeneRecord objects with gene expression data.
+     * @param thresholds   The adjusted p-value thresholds, in any order.
+     * @return Map of each threshold, in ascending order, to the statistics of all pathways at that threshold.
+     */
+    public static Map<Double, Map<String, PathwayStatistics>> sweep(PathwayIndex pathwayIndex, List<GeneRecord> geneRecords, double[] thresholds) {
+        double[] sortedThresholds = Arrays.stream(thresholds).sorted().distinct().toArray();
+        List<String> pathwayIDs = pathwayIndex.getPathwayIDs();
+
+        // The memberships of every gene are looked up once, genes without an adjusted p-value are never DEG or non-DEG
+        int[][] memberships = new int[geneRecords.size()][];
+        long[] measuredInPathway = new long[pathwayIDs.size()];
+        FoldChangeSummary.Accumulator[] allGenes = new FoldChangeSummary.Accumulator[pathwayIDs.size()];
+        Counters[] counters = new Counters[pathwayIDs.size()];
+        for (int ordinal = 0; ordinal < pathwayIDs.size(); ordinal++) {
+            allGenes[ordinal] = new FoldChangeSummary.Accumulator();
+            counters[ordinal] = new Counters();
+        }
+
+        long totalMeasured = 0;
+        for (int i = 0; i < geneRecords.size(); i++) {
+            GeneRecord geneRecord = geneRecords.get(i);
+            memberships[i] = pathwayIndex.getGenePathwayOrdinals(geneRecord.geneSymbol());
+            boolean measured = !Double.isNaN(geneRecord.adjustedPValue());
+            if (measured) {
+                totalMeasured++;
+            }
+            for (int ordinal : memberships[i]) {
+                // The average log fold change doesn't depend on the threshold
+                allGenes[ordinal].add(geneRecord.logFoldChange());
+                if (measured) {
+                    measuredInPathway[ordinal]++;
+                }
+            }
+        }
+
+        // Sort the gene records once by adjusted p-value, NaN values end up last
+        Integer[] order = new Integer[geneRecords.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> geneRecords.get(i).adjustedPValue()));
+
+        Map<Double, Map<String, PathwayStatistics>> results = new LinkedHashMap<>();
+        int below = 0;
+        int atOrBelow = 0;
+        for (double threshold : sortedThresholds) {
+            // Add the genes that became DEGs at this threshold
+            while (below < order.length && geneRecords.get(order[below]).adjustedPValue() < threshold) {
+                GeneRecord geneRecord = geneRecords.get(order[below]);
+                for (int ordinal : memberships[order[below]]) {
+                    Counters pathwayCounters = counters[ordinal];
+                    pathwayCounters.below++;
+                    if (geneRecord.logFoldChange() > 0) {
+                        pathwayCounters.upRegulated.add(geneRecord.logFoldChange());
+                    } else if (geneRecord.logFoldChange() < 0) {
+                        pathwayCounters.downRegulated.add(geneRecord.logFoldChange());
+                    }
+                }
+                below++;
+            }
+
+            // Genes exactly on the threshold are neither DEG nor non-DEG
+            while (atOrBelow < order.length && geneRecords.get(order[atOrBelow]).adjustedPValue() <= threshold) {
+                for (int ordinal : memberships[order[atOrBelow]]) {
+                    counters[ordinal].atOrBelow++;
+                }
+                atOrBelow++;
+            }
+
+            // Snapshot the counters into the statistics of this threshold
+            long totalDEGs = below;
+            long totalNonDEGs = totalMeasured - atOrBelow;
+            Map<String, PathwayStatistics> statistics = new LinkedHashMap<>();
+            for (int ordinal = 0; ordinal < pathwayIDs.size(); ordinal++) {
+                Counters pathwayCounters = counters[ordinal];
+                String pathwayID = pathwayIDs.get(ordinal);
+                ContingencyTable table = new ContingencyTable(pathwayID, pathwayCounters.below,
+                        measuredInPathway[ordinal] - pathwayCounters.atOrBelow, totalDEGs, totalNonDEGs, threshold);
+                statistics.put(pathwayID, new PathwayStatistics(table, allGenes[ordinal].toSummary(),
+                        pathwayCounters.upRegulated.toSummary(), pathwayCounters.downRegulated.toSummary()));
+            }
+            results.put(threshold, statistics);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,114 @@
+package nl.bioinf.gse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Selects the K highest scores without sorting all of them.
+ * A min-heap of at most K indices holds the best scores seen so far; every other score is compared with the
+ * lowest of them only, so selecting from n scores takes O(n log K) time and O(K) extra memory.
+ * Scores are compared like Double.compare and equal scores keep their original order, so the selection
+ * matches sorting the scores in descending order with a stable sort and taking the first K.
+ */
+public class TopKSelector {
+
+    private TopKSelector() {
+    }
+
+    /**
+     * Selects the indices of the K highest scores.
+     *
+     * @param scores The scores.
+     * @param k      The number of scores to select.
+     * @return The indices of the selected scores, from the highest score to the lowest.
+     * @throws IllegalArgumentException if k is negative.
+     */
+    public static int[] select(double[] scores, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("K can't be negative.");
+        }
+        int size = Math.min(k, scores.length);
+        int[] heap = new int[size];
+        if (size == 0) {
+            return heap;
+        }
+
+        // Fill the heap with the first K indices, then only replace its root when a better score comes along
+        for (int i = 0; i < size; i++) {
+            heap[i] = i;
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(heap, size, i, scores);
+        }
+        for (int i = size; i < scores.length; i++) {
+            if (better(scores, i, heap[0])) {
+                heap[0] = i;
+                siftDown(heap, size, 0, scores);
+            }
+        }
+
+        // Taking the root K times puts the worst selected score last
+        int[] selected = new int[size];
+        for (int end = size - 1; end >= 0; end--) {
+            selected[end] = heap[0];
+            heap[0] = heap[end];
+            siftDown(heap, end, 0, scores);
+        }
+        return selected;
+    }
+
+    /**
+     * Selects the K items with the highest scores.
+     *
+     * @param items The items to select from.
+     * @param score The score of an item, higher is better.
+     * @param k     The number of items to select.
+     * @param <T>   The type of the items.
+     * @return The selected items, from the highest score to the lowest.
+     * @throws IllegalArgumentException if k is negative.
+     */
+    public static <T> List<T> select(List<T> items, ToDoubleFunction<T> score, int k) {
+        double[] scores = new double[items.size()];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = score.applyAsDouble(items.get(i));
+        }
+
+        int[] selected = select(scores, k);
+        List<T> topItems = new ArrayList<>(selected.length);
+        for (int index : selected) {
+            topItems.add(items.get(index));
+        }
+        return topItems;
+    }
+
+    /**
+     * Whether the score at index a ranks before the score at index b: higher, or equal and earlier.
+     */
+    private static boolean better(double[] scores, int a, int b) {
+        int comparison = Double.compare(scores[a], scores[b]);
+        return comparison > 0 || (comparison == 0 && a < b);
+    }
+
+    /**
+     * Moves the index at a position down until both children rank before it, keeping the worst index at the root.
+     */
+    private static void siftDown(int[] heap, int size, int position, double[] scores) {
+        int index = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && better(scores, heap[child], heap[child + 1])) {
+                child++;
+            }
+            if (!better(scores, index, heap[child])) {
+                break;
+            }
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = index;
+    }
+}
@@ -0,0 +1,112 @@
+package nl.bioinf.gse;
+
+import org.jfree.data.statistics.BoxAndWhiskerItem;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoxStatisticsTest {
+
+    /**
+     * The median of a sorted range like JFreeChart calculates it.
+     */
+    private static double sortedMedian(List<Double> sorted, int start, int end) {
+        int count = end - start + 1;
+        int middle = start + (count - 1) / 2;
+        return count % 2 == 1 ? sorted.get(middle) : (sorted.get(middle) + sorted.get(middle + 1)) / 2.0;
+    }
+
+    @Test
+    void testExactBoxMatchesSortedCalculation() {
+        Random random = new Random(7);
+        for (int n = 0; n < 200; n++) {
+            // Few distinct values give many ties, a few far values give outliers
+            List<Double> values = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                values.add(i % 17 == 0 ? random.nextGaussian() * 50 : (double) random.nextInt(8));
+            }
+            double[] scores = new double[n];
+            for (int i = 0; i < n; i++) {
+                scores[i] = values.get(i);
+            }
+
+            // Selection gives the same values as sorting for every rank
+            double[] sortedScores = scores.clone();
+            Arrays.sort(sortedScores);
+            for (int rank = 0; rank < n; rank++) {
+                assertEquals(sortedScores[rank], QuantileSelector.select(scores.clone(), 0, n, rank));
+            }
+
+            // The previous outlier filter, on a sorted list
+            List<Double> filtered = values;
+            if (n >= 4) {
+                List<Double> sorted = new ArrayList<>(values);
+                Collections.sort(sorted);
+                double q1 = sorted.get(n / 4);
+                double q3 = sorted.get(3 * n / 4);
+                filtered = new ArrayList<>();
+                for (double value : values) {
+                    if (value >= q1 - 1.5 * (q3 - q1) && value <= q3 + 1.5 * (q3 - q1)) {
+                        filtered.add(value);
+                    }
+                }
+            }
+
+            BoxStatistics boxStatistics = new BoxStatistics("enrichmentscore", false);
+            for (double score : scores) {
+                boxStatistics.add(score);
+            }
+            BoxAndWhiskerItem item = boxStatistics.toItem();
+            if (filtered.isEmpty()) {
+                assertTrue(Double.isNaN(item.getMedian().doubleValue()));
+                continue;
+            }
+
+            // The box of the remaining values, the quartiles are the medians of the halves
+            List<Double> sorted = new ArrayList<>(filtered);
+            Collections.sort(sorted);
+            int count = sorted.size();
+            assertEquals(sortedMedian(sorted, 0, count - 1), item.getMedian().doubleValue(), 1e-12);
+            assertEquals(sortedMedian(sorted, 0, count % 2 == 1 ? count / 2 : count / 2 - 1), item.getQ1().doubleValue(), 1e-12);
+            assertEquals(sortedMedian(sorted, count / 2, count - 1), item.getQ3().doubleValue(), 1e-12);
+            assertEquals(filtered.stream().mapToDouble(Double::doubleValue).average().orElseThrow(), item.getMean().doubleValue(), 1e-9);
+            assertTrue(item.getMinRegularValue().doubleValue() >= sorted.get(0));
+            assertTrue(item.getMaxRegularValue().doubleValue() <= sorted.get(count - 1));
+        }
+    }
+
+    @Test
+    void testSketchEstimatesQuartiles() {
+        Random random = new Random(11);
+        BoxStatistics exact = new BoxStatistics("pvalue", false);
+        BoxStatistics sketch = new BoxStatistics("pvalue", true);
+        for (int i = 0; i < 100000; i++) {
+            double value = random.nextGaussian();
+            exact.add(value);
+            sketch.add(value);
+        }
+        BoxAndWhiskerItem exactItem = exact.toItem();
+        BoxAndWhiskerItem sketchItem = sketch.toItem();
+        assertEquals(exactItem.getQ1().doubleValue(), sketchItem.getQ1().doubleValue(), 0.02);
+        assertEquals(exactItem.getMedian().doubleValue(), sketchItem.getMedian().doubleValue(), 0.02);
+        assertEquals(exactItem.getQ3().doubleValue(), sketchItem.getQ3().doubleValue(), 0.02);
+        assertTrue(sketchItem.getMinRegularValue().doubleValue() < sketchItem.getQ1().doubleValue());
+        assertTrue(sketchItem.getMaxRegularValue().doubleValue() > sketchItem.getQ3().doubleValue());
+
+        // A few values are calculated exactly, NaN values are skipped
+        List<GSEARecord> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(new GSEARecord("P" + i, i == 2 ? Double.NaN : i / 10.0, 1.0, 0.0, 0.0, 0.0, "Pathway " + i, 0.0));
+        }
+        BoxAndWhiskerItem fewItem = BoxStatistics.of(results, "pvalue", true).toItem();
+        BoxAndWhiskerItem fewExactItem = BoxStatistics.of(results, "pvalue", false).toItem();
+        assertEquals(fewExactItem.getMedian(), fewItem.getMedian());
+        assertEquals(0.2, fewItem.getMedian().doubleValue(), 1e-12);
+    }
+}
@@ -0,0 +1,46 @@
+package nl.bioinf.gse;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChartExporterTest {
+
+    @Test
+    void testChartsAreExportedWithoutWindows() throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        List<GSEARecord> gseaResults = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            gseaResults.add(new GSEARecord("P" + i, i / 40.0, Math.min(1.0, i / 20.0), 0.5 + i % 7, i % 5, 2.0, "Pathway " + i, (i % 9) - 4.0));
+        }
+
+        Path plotDirectory = Files.createTempDirectory("plots").resolve("charts");
+        try {
+            List<Path> files = new ChartExporter(plotDirectory, 20).export(gseaResults,
+                    List.of(BoxStatistics.of(gseaResults, "enrichmentscore", false), BoxStatistics.of(gseaResults, "pvalue", true)),
+                    List.of("avglogfoldchange"));
+
+            // One file per chart, named after its data type, in the order they were requested
+            assertEquals(List.of(plotDirectory.resolve("boxplot_enrichmentscore.png"), plotDirectory.resolve("boxplot_pvalue.png"),
+                    plotDirectory.resolve("scatterplot_avglogfoldchange.png")), files);
+            for (Path file : files) {
+                assertTrue(Files.size(file) > 0);
+            }
+            assertTrue(new ChartExporter(plotDirectory, 20).export(gseaResults, List.of(), List.of()).isEmpty());
+        } finally {
+            try (Stream<Path> files = Files.walk(plotDirectory.getParent())) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+}
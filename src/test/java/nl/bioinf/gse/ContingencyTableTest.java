@@ -0,0 +1,78 @@
+package nl.bioinf.gse;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContingencyTableTest {
+
+    private List<GeneRecord> geneRecords;
+    private Map<String, PathwayRecord> pathwayRecords;
+
+    @BeforeEach
+    void setUp() {
+        geneRecords = List.of(
+                new GeneRecord("GeneA", 1.5, 0.01),
+                new GeneRecord("GeneB", -2.0, 0.02),
+                new GeneRecord("GeneC", 0.8, 0.30),
+                new GeneRecord("GeneD", 0.1, 0.05),  // exactly on the threshold, neither DEG nor non-DEG
+                new GeneRecord("GeneE", -0.4, 0.60),
+                new GeneRecord("GeneF", 2.2, 0.001));
+
+        GeneDictionary geneDictionary = new GeneDictionary();
+        pathwayRecords = new HashMap<>();
+        pathwayRecords.put("P1", PathwayRecord.of("P1", "Pathway One", List.of("GeneA", "GeneC", "GeneD", "GeneX"), geneDictionary));
+        pathwayRecords.put("P2", PathwayRecord.of("P2", "Pathway Two", List.of("GeneB", "GeneF", "GeneE", "GeneA"), geneDictionary));
+    }
+
+    @Test
+    void testBuildAllMatchesTableBuilder() {
+        Map<String, ContingencyTable> tables = ContingencyTable.buildAll(new PathwayIndex(pathwayRecords), geneRecords, 0.05);
+        assertEquals(2, tables.size());
+
+        for (String pathwayID : pathwayRecords.keySet()) {
+            ContingencyTable table = tables.get(pathwayID);
+            assertEquals(TableBuilder.degsInPathway(pathwayRecords, geneRecords, pathwayID, 0.05), table.degsInPathway());
+            assertEquals(TableBuilder.nonDEGsInPathway(pathwayRecords, geneRecords, pathwayID, 0.05), table.nonDEGsInPathway());
+            assertEquals(TableBuilder.totalDEGS(geneRecords, 0.05), table.totalDEGs());
+            assertEquals(TableBuilder.totalGenes(geneRecords, 0.05), table.totalGenes());
+            assertEquals(TableBuilder.degsNotinPathway(geneRecords, pathwayRecords, pathwayID, 0.05), table.degsNotInPathway());
+            assertEquals(TableBuilder.nonDEGsNotInPathway(geneRecords, pathwayRecords, pathwayID, 0.05), table.nonDEGsNotInPathway());
+            assertEquals(TableBuilder.genesNotInPathway(geneRecords, pathwayRecords, pathwayID, 0.05), table.genesNotInPathway());
+        }
+    }
+
+    @Test
+    void testBuildSinglePathway() {
+        ContingencyTable table = ContingencyTable.build("P1", new HashSet<>(List.of("GeneA", "GeneC", "GeneD")), geneRecords, 0.05);
+        assertEquals(1, table.degsInPathway());
+        assertEquals(1, table.nonDEGsInPathway());
+        assertEquals(3, table.totalDEGs());
+        assertEquals(2, table.totalNonDEGs());
+        assertEquals(3, table.genesNotInPathway());
+    }
+
+    @Test
+    void testFoldChangeStatisticsFromSamePass() {
+        Map<String, PathwayStatistics> statistics = PathwayStatistics.buildAll(new PathwayIndex(pathwayRecords), geneRecords, 0.05);
+        PathwayStatistics pathwayTwo = statistics.get("P2");
+
+        // Same value as the original nested-loop average
+        double expectedAverage = new GSEA().calculateAverageLogFoldChange(geneRecords, pathwayRecords, "P2");
+        assertEquals(expectedAverage, pathwayTwo.avgLogFoldChange(), 1e-12);
+
+        // GeneA and GeneF are up-regulated DEGs, GeneB is the only down-regulated DEG
+        assertEquals(2, pathwayTwo.upRegulated().count());
+        assertEquals(1.85, pathwayTwo.upRegulated().mean(), 1e-12);
+        assertEquals(0.245, pathwayTwo.upRegulated().variance(), 1e-12);
+        assertEquals(1, pathwayTwo.downRegulated().count());
+        assertEquals(-2.0, pathwayTwo.downRegulated().mean(), 1e-12);
+        assertTrue(Double.isNaN(pathwayTwo.downRegulated().variance()));
+    }
+}
@@ -0,0 +1,66 @@
+package nl.bioinf.gse;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Times the statistics pass of the hash and bitset DEG counting backends on a gene file and pathway files.
+ * Run it with "gradlew benchmark", or with other files as arguments:
+ * gene file, pathway file, pathway description file, gene ID type and header length.
+ * Both backends are first run until the JIT has compiled them, then every backend is timed over the same number
+ * of rounds and the median and fastest round are printed, after checking that both give the same tables.
+ */
+public class CountingBackendBenchmark {
+
+    private static final int WARMUP_ROUNDS = 30;
+    private static final int MEASURED_ROUNDS = 50;
+
+    public static void main(String[] args) throws IOException {
+        String geneFile = args.length > 0 ? args[0] : "example_data/degs_smokers.tsv";
+        String pathwayFile = args.length > 1 ? args[1] : "example_data/pathways.csv";
+        String descriptionFile = args.length > 2 ? args[2] : "example_data/hsa_pathways.csv";
+        String geneId = args.length > 3 ? args[3] : "gene_symbol";
+        int headerLength = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+
+        FileParser fileParser = new FileParser();
+        List<GeneRecord> geneRecords = fileParser.readDEGs(geneFile, headerLength);
+        PathwayIndex pathwayIndex = new PathwayIndex(fileParser.readPathways(pathwayFile, descriptionFile, headerLength, geneId));
+        System.out.println(geneRecords.size() + " genes, " + pathwayIndex.size() + " pathways");
+
+        GSEAFactory hash = new GSEAFactory(1, "hash");
+        GSEAFactory bitset = new GSEAFactory(1, "bitset");
+        // The bitsets are built once per index, outside the timed rounds
+        Map<String, PathwayStatistics> hashStatistics = hash.collectStatistics(pathwayIndex, geneRecords, 0.05);
+        Map<String, PathwayStatistics> bitsetStatistics = bitset.collectStatistics(pathwayIndex, geneRecords, 0.05);
+        for (String pathwayID : hashStatistics.keySet()) {
+            if (!hashStatistics.get(pathwayID).table().equals(bitsetStatistics.get(pathwayID).table())) {
+                throw new IllegalStateException("The backends give different tables for " + pathwayID);
+            }
+        }
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            hash.collectStatistics(pathwayIndex, geneRecords, 0.05);
+            bitset.collectStatistics(pathwayIndex, geneRecords, 0.05);
+        }
+        report("hash", time(hash, pathwayIndex, geneRecords));
+        report("bitset", time(bitset, pathwayIndex, geneRecords));
+    }
+
+    private static long[] time(GSEAFactory gseaFactory, PathwayIndex pathwayIndex, List<GeneRecord> geneRecords) {
+        long[] nanos = new long[MEASURED_ROUNDS];
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            gseaFactory.collectStatistics(pathwayIndex, geneRecords, 0.05);
+            nanos[round] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos;
+    }
+
+    private static void report(String backend, long[] nanos) {
+        System.out.printf("%-6s median %.2f ms, fastest %.2f ms over %d rounds%n",
+                backend, nanos[nanos.length / 2] / 1e6, nanos[0] / 1e6, nanos.length);
+    }
+}
@@ -7,8 +7,12 @@ import static org.junit.jupiter.api.Assertions.*;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 public class FileParserTest {
 
@@ -111,6 +115,190 @@ public class FileParserTest {
         });
     }
 
+    @Test
+    public void testReadPathwaysSharesGeneDictionary() throws IOException {
+        try (FileWriter writer = new FileWriter(pathwaysFilePath, true)) {
+            writer.write("P1,67890,GeneB,ENSG000002\n");
+            writer.write("P1,12345,GeneA,ENSG000001\n"); // duplicate row
+        }
+
+        Map<String, PathwayRecord> pathways = fileParser.readPathways(pathwaysFilePath, hsaPathwaysFilePath, 1, "Gene_symbol");
+        PathwayRecord pathway1 = pathways.get("P1");
+        PathwayRecord pathway2 = pathways.get("P2");
+
+        // Duplicates are removed and both pathways refer to the same gene index for GeneB
+        assertEquals(2, pathway1.size());
+        assertSame(pathway1.geneDictionary(), pathway2.geneDictionary());
+        int geneB = pathway1.geneDictionary().indexOf("GeneB");
+        assertTrue(pathway1.containsGene(geneB));
+        assertTrue(pathway2.containsGene(geneB));
+        assertEquals(List.of("GeneA", "GeneB"), pathway1.geneIDs());
+    }
+
+    @Test
+    public void testMemoryMappedMatchesCsvParser() throws IOException {
+        try (FileWriter writer = new FileWriter(degsFilePath, true)) {
+            writer.write("GeneD,NA,NA\n\n\"GeneE\", 2.5e-3 ,1E-10\n");
+        }
+        FileParser mappedParser = new FileParser(true);
+
+        List<GeneRecord> expectedGenes = fileParser.readDEGs(degsFilePath, 1);
+        assertEquals(expectedGenes, mappedParser.readDEGs(degsFilePath, 1));
+        assertEquals(new GeneRecord("GeneE", 2.5e-3, 1E-10), expectedGenes.get(3));
+
+        Map<String, PathwayRecord> expectedPathways = fileParser.readPathways(pathwaysFilePath, hsaPathwaysFilePath, 1, "Gene_symbol");
+        Map<String, PathwayRecord> mappedPathways = mappedParser.readPathways(pathwaysFilePath, hsaPathwaysFilePath, 1, "Gene_symbol");
+        assertEquals(expectedPathways.keySet(), mappedPathways.keySet());
+        for (String pathwayID : expectedPathways.keySet()) {
+            assertEquals(expectedPathways.get(pathwayID).description(), mappedPathways.get(pathwayID).description());
+            assertEquals(expectedPathways.get(pathwayID).geneIDs(), mappedPathways.get(pathwayID).geneIDs());
+        }
+        // Pathways read twice are equal, although their gene indices refer to different dictionaries
+        assertNotSame(expectedPathways.get("P1").geneDictionary(), mappedPathways.get("P1").geneDictionary());
+        assertEquals(expectedPathways, mappedPathways);
+        assertEquals(expectedPathways.get("P1").hashCode(), mappedPathways.get("P1").hashCode());
+        assertEquals(expectedPathways.get("P1").toString(), mappedPathways.get("P1").toString());
+    }
+
+    @Test
+    public void testParallelPathwaysMatchSequential() throws IOException {
+        // Interleaved pathways and repeated genes, so the chunks share pathways and genes
+        try (FileWriter writer = new FileWriter(pathwaysFilePath, true)) {
+            for (int row = 0; row < 500; row++) {
+                writer.write("P" + (row % 7) + "," + row % 40 + ",Gene" + (row * 13 % 90) + ",ENSG" + row % 60 + "\n");
+            }
+        }
+
+        GeneDictionary sequentialDictionary = new GeneDictionary();
+        GeneDictionary parallelDictionary = new GeneDictionary();
+        Map<String, PathwayRecord> sequential = fileParser.readPathways(pathwaysFilePath, hsaPathwaysFilePath, 1, "Gene_symbol", sequentialDictionary);
+        Map<String, PathwayRecord> parallel = new FileParser(false, 4).readPathways(pathwaysFilePath, hsaPathwaysFilePath, 1, "Gene_symbol", parallelDictionary);
+
+        // Same pathways in the same order, with the same gene indices
+        assertEquals(List.copyOf(sequential.keySet()), List.copyOf(parallel.keySet()));
+        assertEquals(sequentialDictionary.size(), parallelDictionary.size());
+        for (int geneIndex = 0; geneIndex < sequentialDictionary.size(); geneIndex++) {
+            assertEquals(sequentialDictionary.geneID(geneIndex), parallelDictionary.geneID(geneIndex));
+        }
+        for (String pathwayID : sequential.keySet()) {
+            assertArrayEquals(sequential.get(pathwayID).geneIndices(), parallel.get(pathwayID).geneIndices());
+            assertEquals(sequential.get(pathwayID).description(), parallel.get(pathwayID).description());
+        }
+    }
+
+    @Test
+    public void testPathwayDatabaseIsReusedAndInvalidated() throws IOException {
+        Path cacheDirectory = Files.createTempDirectory("gse_cache");
+        Path pathwaysFile = Path.of(pathwaysFilePath).toAbsolutePath().normalize();
+        Path databaseFile = cacheDirectory.resolve(pathwaysFile.getFileName() + "." + String.format("%08x", pathwaysFile.toString().hashCode()) + ".entrez.gsedb");
+
+        // The first run parses the files and writes the database, the second run loads it
+        Map<String, PathwayRecord> parsed = fileParser.readPathwaysCached(pathwaysFilePath, hsaPathwaysFilePath, 1, "Entrez", cacheDirectory);
+        assertTrue(Files.exists(databaseFile));
+        Map<String, PathwayRecord> loaded = fileParser.readPathwaysCached(pathwaysFilePath, hsaPathwaysFilePath, 1, "ENTREZ", cacheDirectory);
+        assertEquals(List.copyOf(parsed.keySet()), List.copyOf(loaded.keySet()));
+        for (String pathwayID : parsed.keySet()) {
+            assertEquals(parsed.get(pathwayID).description(), loaded.get(pathwayID).description());
+            assertEquals(parsed.get(pathwayID).geneIDs(), loaded.get(pathwayID).geneIDs());
+        }
+
+        // Changing the pathway file makes the database outdated
+        try (FileWriter writer = new FileWriter(pathwaysFilePath, true)) {
+            writer.write("P3,11111,GeneC,ENSG000003\n");
+        }
+        Map<String, PathwayRecord> reparsed = fileParser.readPathwaysCached(pathwaysFilePath, hsaPathwaysFilePath, 1, "Entrez", cacheDirectory);
+        assertEquals(3, reparsed.size());
+        assertTrue(reparsed.get("P3").geneIDs().contains("11111"));
+
+        Files.delete(databaseFile);
+        Files.delete(cacheDirectory);
+    }
+
+    @Test
+    public void testPathwayLibraryMatchesReadPathways() throws IOException {
+        PathwayLibrary pathwayLibrary = fileParser.readPathwayLibrary(pathwaysFilePath, hsaPathwaysFilePath, 1);
+
+        for (String geneType : PathwayLibrary.GENE_TYPES) {
+            Map<String, PathwayRecord> expected = fileParser.readPathways(pathwaysFilePath, hsaPathwaysFilePath, 1, geneType);
+            Map<String, PathwayRecord> fromLibrary = pathwayLibrary.getPathwayRecords(geneType);
+            assertEquals(List.copyOf(expected.keySet()), List.copyOf(fromLibrary.keySet()));
+            for (String pathwayID : expected.keySet()) {
+                assertEquals(expected.get(pathwayID).description(), fromLibrary.get(pathwayID).description());
+                assertEquals(expected.get(pathwayID).geneIDs(), fromLibrary.get(pathwayID).geneIDs());
+            }
+        }
+        assertSame(pathwayLibrary.getPathwayIndex("ensembl"), pathwayLibrary.getPathwayIndex("Ensembl"));
+        assertThrows(IllegalArgumentException.class, () -> pathwayLibrary.getPathwayRecords("InvalidType"));
+    }
+
+    @Test
+    public void testDetectGeneType() throws IOException {
+        PathwayLibrary pathwayLibrary = fileParser.readPathwayLibrary(pathwaysFilePath, hsaPathwaysFilePath, 1);
+
+        assertEquals("Gene_symbol", pathwayLibrary.detectGeneType(fileParser.readDEGs(degsFilePath, 1)));
+        assertEquals("Entrez", pathwayLibrary.detectGeneType(List.of(new GeneRecord("12345", 1.0, 0.01), new GeneRecord("99999", 1.0, 0.01))));
+        assertEquals("Ensembl", pathwayLibrary.detectGeneType(List.of(new GeneRecord("ENSG000002", 1.0, 0.01))));
+        assertThrows(IllegalArgumentException.class, () -> pathwayLibrary.detectGeneType(List.of(new GeneRecord("Unknown", 1.0, 0.01))));
+    }
+
+    @Test
+    public void testReadGzipInputs() throws IOException {
+        // Enough rows to fill several decompression blocks
+        try (FileWriter writer = new FileWriter(degsFilePath, true)) {
+            for (int row = 0; row < 20000; row++) {
+                writer.write("Gene" + row + "," + (row % 17 - 8) * 0.25 + "," + row / 20000.0 + "\n");
+            }
+        }
+        for (String filePath : List.of(degsFilePath, pathwaysFilePath, hsaPathwaysFilePath)) {
+            try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(Path.of(filePath + ".gz")))) {
+                Files.copy(Path.of(filePath), output);
+            }
+        }
+
+        for (FileParser parser : List.of(fileParser, new FileParser(true))) {
+            List<GeneRecord> expectedGenes = parser.readDEGs(degsFilePath, 1);
+            assertEquals(20003, expectedGenes.size());
+            assertEquals(expectedGenes, parser.readDEGs(degsFilePath + ".gz", 1));
+
+            Map<String, PathwayRecord> expectedPathways = parser.readPathways(pathwaysFilePath, hsaPathwaysFilePath, 1, "Ensembl");
+            Map<String, PathwayRecord> gzipPathways = parser.readPathways(pathwaysFilePath + ".gz", hsaPathwaysFilePath + ".gz", 1, "Ensembl");
+            assertEquals(expectedPathways.keySet(), gzipPathways.keySet());
+            assertEquals(expectedPathways.get("P1").description(), gzipPathways.get("P1").description());
+            assertEquals(expectedPathways.get("P1").geneIDs(), gzipPathways.get("P1").geneIDs());
+        }
+
+        for (String filePath : List.of(degsFilePath, pathwaysFilePath, hsaPathwaysFilePath)) {
+            Files.delete(Path.of(filePath + ".gz"));
+        }
+    }
+
+    @Test
+    public void testReadGMT() throws IOException {
+        String gmtFilePath = "test_sets.gmt";
+        try (FileWriter writer = new FileWriter(gmtFilePath)) {
+            writer.write("SET_A\thttp://example.org/SET_A\tGeneA\tGeneB\tGeneA\t\n");
+            writer.write("\n");
+            writer.write("SET_B\t\tGeneC\n");
+            writer.write("SET_A\tduplicate\tGeneD\n");
+        }
+
+        GeneDictionary geneDictionary = new GeneDictionary();
+        Map<String, PathwayRecord> sets = fileParser.readGMT(gmtFilePath, geneDictionary);
+        assertEquals(2, sets.size());
+        assertEquals("http://example.org/SET_A", sets.get("SET_A").description());
+        assertEquals(List.of("GeneA", "GeneB", "GeneD"), sets.get("SET_A").geneIDs());
+        assertEquals("Unknown Pathway", sets.get("SET_B").description());
+        assertEquals(List.of("GeneC"), sets.get("SET_B").geneIDs());
+        assertEquals(4, geneDictionary.size());
+        assertTrue(FileParser.isGMT(gmtFilePath));
+
+        try (FileWriter writer = new FileWriter(gmtFilePath)) {
+            writer.write("SET_WITHOUT_COLUMNS\n");
+        }
+        assertThrows(IOException.class, () -> fileParser.readGMT(gmtFilePath));
+        Files.delete(Path.of(gmtFilePath));
+    }
+
     private void createTestDEGsFile() throws IOException {
         try (FileWriter writer = new FileWriter(degsFilePath)) {
             writer.write("Gene,LogFoldChange,AdjustedPValue\n"); // Header
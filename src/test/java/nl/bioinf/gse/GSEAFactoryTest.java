@@ -0,0 +1,244 @@
+package nl.bioinf.gse;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GSEAFactoryTest {
+
+    private List<GeneRecord> geneRecords;
+    private Map<String, PathwayRecord> pathwayRecords;
+
+    @BeforeEach
+    void setUp() {
+        // 200 genes, every third gene is a DEG
+        geneRecords = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            double adjustedPValue = (i % 3 == 0) ? 0.001 : 0.5;
+            geneRecords.add(new GeneRecord("Gene" + i, (i % 7) - 3.0, adjustedPValue));
+        }
+
+        // 50 overlapping pathways of 20 genes each
+        GeneDictionary geneDictionary = new GeneDictionary();
+        pathwayRecords = new HashMap<>();
+        for (int p = 0; p < 50; p++) {
+            List<String> genes = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                genes.add("Gene" + ((p * 3 + i * (p % 5 + 1)) % 200));
+            }
+            pathwayRecords.put("P" + p, PathwayRecord.of("P" + p, "Pathway " + p, genes, geneDictionary));
+        }
+    }
+
+    @Test
+    void testParallelMatchesSequential() {
+        PathwayIndex pathwayIndex = new PathwayIndex(pathwayRecords);
+        long totalDEGs = TableBuilder.totalDEGS(geneRecords, 0.05);
+        long totalGenes = TableBuilder.totalGenes(geneRecords, 0.05);
+
+        List<GSEARecord> sequential = new GSEAFactory().performGSEA(totalDEGs, totalGenes, pathwayIndex, geneRecords, 0.05);
+        List<GSEARecord> parallel = new GSEAFactory(4).performGSEA(totalDEGs, totalGenes, pathwayIndex, geneRecords, 0.05);
+
+        // Same records in the same order
+        assertEquals(sequential, parallel);
+    }
+
+    @Test
+    void testBitsetBackendMatchesHashBackend() {
+        PathwayIndex pathwayIndex = new PathwayIndex(pathwayRecords);
+        Map<String, PathwayStatistics> hash = new GSEAFactory(1, "hash").collectStatistics(pathwayIndex, geneRecords, 0.05);
+        Map<String, PathwayStatistics> bitset = new GSEAFactory(1, "bitset").collectStatistics(pathwayIndex, geneRecords, 0.05);
+
+        assertSameStatistics(hash, bitset);
+
+        // A pathway gene in a DEG row and a non-DEG row, with different fold changes, is counted once per row by both backends
+        List<GeneRecord> duplicates = new ArrayList<>(geneRecords);
+        duplicates.add(new GeneRecord("Gene0", -2.5, 0.5));
+        duplicates.add(new GeneRecord("Gene1", 4.0, 0.001));
+        Map<String, PathwayStatistics> hashDuplicates = new GSEAFactory(1, "hash").collectStatistics(pathwayIndex, duplicates, 0.05);
+        Map<String, PathwayStatistics> bitsetDuplicates = new GSEAFactory(1, "bitset").collectStatistics(pathwayIndex, duplicates, 0.05);
+        assertSameStatistics(hashDuplicates, bitsetDuplicates);
+        assertNotEquals(hash.get("P0").table(), hashDuplicates.get("P0").table());
+    }
+
+    private static void assertSameStatistics(Map<String, PathwayStatistics> hash, Map<String, PathwayStatistics> bitset) {
+        assertEquals(hash.keySet(), bitset.keySet());
+        for (String pathwayID : hash.keySet()) {
+            assertEquals(hash.get(pathwayID).table(), bitset.get(pathwayID).table());
+            assertEquals(hash.get(pathwayID).avgLogFoldChange(), bitset.get(pathwayID).avgLogFoldChange(), 1e-12);
+            assertEquals(hash.get(pathwayID).allGenes().count(), bitset.get(pathwayID).allGenes().count());
+            assertEquals(hash.get(pathwayID).upRegulated().count(), bitset.get(pathwayID).upRegulated().count());
+            assertEquals(hash.get(pathwayID).upRegulated().mean(), bitset.get(pathwayID).upRegulated().mean(), 1e-12);
+            assertEquals(hash.get(pathwayID).downRegulated().count(), bitset.get(pathwayID).downRegulated().count());
+            assertEquals(hash.get(pathwayID).downRegulated().mean(), bitset.get(pathwayID).downRegulated().mean(), 1e-12);
+        }
+    }
+
+    @Test
+    void testCorrectionIsAppliedToAllPathways() {
+        PathwayIndex pathwayIndex = new PathwayIndex(pathwayRecords);
+        GSEAFactory bonferroniFactory = new GSEAFactory();
+        List<GSEARecord> bonferroni = bonferroniFactory.performGSEA(pathwayIndex, bonferroniFactory.collectStatistics(pathwayIndex, geneRecords, 0.05));
+
+        GSEAFactory bhFactory = new GSEAFactory(4, "hash", MultipleTestingCorrection.forName("bh"));
+        Map<String, PathwayStatistics> statistics = bhFactory.collectStatistics(pathwayIndex, geneRecords, 0.05);
+        List<GSEARecord> bh = bhFactory.performGSEA(pathwayIndex, statistics);
+        List<GSEARecord> streamed = new ArrayList<>();
+        bhFactory.streamGSEA(pathwayIndex, statistics, streamed::add);
+
+        // Only the adjusted p-values change, and they are the correction of the p-values of all pathways
+        double[] pValues = new double[bonferroni.size()];
+        for (int i = 0; i < pValues.length; i++) {
+            pValues[i] = bonferroni.get(i).pValue();
+            assertEquals(bonferroni.get(i).pValue(), bh.get(i).pValue());
+            assertEquals(bonferroni.get(i).enrichmentScore(), bh.get(i).enrichmentScore());
+        }
+        double[] adjustedPValues = MultipleTestingCorrection.forName("bh").adjust(pValues);
+        for (int i = 0; i < pValues.length; i++) {
+            assertEquals(adjustedPValues[i], bh.get(i).adjustedPValue());
+        }
+        assertEquals(bh, streamed);
+
+        // Bonferroni adjusts every streamed result on its own, the same as the correction of all results
+        double[] bonferroniPValues = MultipleTestingCorrection.forName("bonferroni").adjust(pValues);
+        List<GSEARecord> streamedBonferroni = new ArrayList<>();
+        bonferroniFactory.streamGSEA(pathwayIndex, statistics, streamedBonferroni::add);
+        for (int i = 0; i < pValues.length; i++) {
+            assertEquals(bonferroniPValues[i], bonferroni.get(i).adjustedPValue());
+        }
+        assertEquals(bonferroni, streamedBonferroni);
+    }
+
+    @Test
+    void testInvalidThreadCount() {
+        assertThrows(IllegalArgumentException.class, () -> new GSEAFactory(0));
+        assertThrows(IllegalArgumentException.class, () -> new GSEAFactory(1, "unknown"));
+    }
+
+    @Test
+    void testContrastBatchMatchesSingleRuns() {
+        PathwayIndex pathwayIndex = new PathwayIndex(pathwayRecords);
+
+        // A second contrast where every fifth gene is a DEG
+        List<GeneRecord> secondContrast = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            secondContrast.add(new GeneRecord("Gene" + i, 3.0 - (i % 5), (i % 5 == 0) ? 0.01 : 0.3));
+        }
+        Map<String, List<GeneRecord>> contrasts = new LinkedHashMap<>();
+        contrasts.put("first", geneRecords);
+        contrasts.put("second", secondContrast);
+
+        List<ContrastResult> contrastResults = new ContrastBatch(new FileParser(), 4, "hash").performGSEA(pathwayIndex, contrasts, 0.05);
+
+        List<ContrastResult> expected = new ArrayList<>();
+        GSEAFactory gseaFactory = new GSEAFactory();
+        for (Map.Entry<String, List<GeneRecord>> contrast : contrasts.entrySet()) {
+            for (GSEARecord result : gseaFactory.performGSEA(pathwayIndex, gseaFactory.collectStatistics(pathwayIndex, contrast.getValue(), 0.05))) {
+                expected.add(new ContrastResult(contrast.getKey(), result));
+            }
+        }
+        assertEquals(expected, contrastResults);
+
+        assertEquals("degs_smokers", ContrastBatch.contrastName(new File("example_data/degs_smokers.tsv")));
+        assertEquals("degs_vapers", ContrastBatch.contrastName(new File("degs_vapers.tsv.gz")));
+    }
+
+    @Test
+    void testPipelineMatchesSeparateStages() throws IOException {
+        // More genes than fit in one batch of the pipeline
+        Path geneFile = Files.createTempFile("degs", ".tsv");
+        Path outputFile = Files.createTempFile("gsea_results", ".tsv");
+        try {
+            List<GeneRecord> genes = new ArrayList<>();
+            StringBuilder content = new StringBuilder("gene\tlogFC\tadj.P.Val\n");
+            for (int i = 0; i < 10000; i++) {
+                GeneRecord gene = new GeneRecord("Gene" + i, (i % 11) - 5.0, (i % 4 == 0) ? 0.001 : 0.5);
+                genes.add(gene);
+                content.append(gene.geneSymbol()).append('\t').append(gene.logFoldChange()).append('\t').append(gene.adjustedPValue()).append('\n');
+            }
+            Files.writeString(geneFile, content);
+
+            PathwayIndex pathwayIndex = new PathwayIndex(pathwayRecords);
+            GSEAFactory gseaFactory = new GSEAFactory();
+            List<GSEARecord> expected = gseaFactory.performGSEA(pathwayIndex, gseaFactory.collectStatistics(pathwayIndex, genes, 0.05));
+
+            for (String countingBackend : List.of("hash", "bitset")) {
+                List<List<GeneRecord>> samples = new ArrayList<>();
+                List<GSEARecord> consumed = new ArrayList<>();
+                ResultCache.Entry results = new AnalysisPipeline(new FileParser(true), 4, countingBackend).run(geneFile.toString(), 1, 0.05,
+                        sampleGenes -> {
+                            samples.add(sampleGenes);
+                            return pathwayRecords;
+                        }, 0, 42, "no_pathways", outputFile, consumed::add);
+
+                // The pathways were loaded from the first batch, and every result was written in order
+                assertEquals(genes.subList(0, samples.get(0).size()), samples.get(0));
+                assertEquals(expected, results.gseaResults());
+                assertEquals(expected, consumed);
+                List<String> lines = Files.readAllLines(outputFile);
+                assertEquals(expected.size() + 1, lines.size());
+                assertTrue(lines.get(1).startsWith(expected.get(0).pathwayID() + "\t"));
+            }
+        } finally {
+            Files.delete(geneFile);
+            Files.delete(outputFile);
+        }
+    }
+
+    @Test
+    void testSnapshotUpdateMatchesFullAnalysis() throws IOException {
+        PathwayIndex pathwayIndex = new PathwayIndex(pathwayRecords);
+        GSEAFactory gseaFactory = new GSEAFactory();
+        Map<String, PathwayStatistics> statistics = gseaFactory.collectStatistics(pathwayIndex, geneRecords, 0.05);
+        Path snapshotFile = Files.createTempFile("analysis", ".snapshot");
+        new AnalysisSnapshot(pathwayIndex, 0.05, geneRecords, statistics, gseaFactory.performGSEA(pathwayIndex, statistics)).write(snapshotFile);
+        AnalysisSnapshot snapshot = AnalysisSnapshot.read(snapshotFile, pathwayIndex, 0.05);
+        assertNotNull(snapshot);
+        // Another threshold doesn't match the snapshot
+        assertNull(AnalysisSnapshot.read(snapshotFile, pathwayIndex, 0.01));
+        Files.delete(snapshotFile);
+
+        // Only a log fold change changes, the totals stay the same
+        List<GeneRecord> foldChangeOnly = new ArrayList<>(geneRecords);
+        foldChangeOnly.set(3, new GeneRecord("Gene3", 9.0, 0.001));
+        assertMatchesFullAnalysis(snapshot.update(pathwayIndex, foldChangeOnly, gseaFactory), pathwayIndex, foldChangeOnly, 1);
+
+        // A gene becomes a DEG, one is removed and a new one is added, so the totals change
+        List<GeneRecord> changed = new ArrayList<>(geneRecords);
+        changed.set(4, new GeneRecord("Gene4", 1.0, 0.001));
+        changed.remove(10);
+        changed.add(new GeneRecord("Gene500", 2.0, 0.001));
+        assertMatchesFullAnalysis(snapshot.update(pathwayIndex, changed, gseaFactory), pathwayIndex, changed, 3);
+    }
+
+    private static void assertMatchesFullAnalysis(IncrementalResult incrementalResult, PathwayIndex pathwayIndex, List<GeneRecord> genes, int changedGenes) {
+        GSEAFactory gseaFactory = new GSEAFactory();
+        Map<String, PathwayStatistics> statistics = gseaFactory.collectStatistics(pathwayIndex, genes, 0.05);
+        List<GSEARecord> expected = gseaFactory.performGSEA(pathwayIndex, statistics);
+
+        assertEquals(changedGenes, incrementalResult.changedGenes());
+        assertTrue(incrementalResult.recountedPathways() < pathwayIndex.size());
+        assertEquals(expected.size(), incrementalResult.gseaResults().size());
+        for (int i = 0; i < expected.size(); i++) {
+            GSEARecord expectedRecord = expected.get(i);
+            GSEARecord record = incrementalResult.gseaResults().get(i);
+            assertEquals(expectedRecord.pathwayID(), record.pathwayID());
+            assertEquals(statistics.get(record.pathwayID()).table(), incrementalResult.pathwayStatistics().get(record.pathwayID()).table());
+            assertEquals(expectedRecord.pValue(), record.pValue(), 1e-15);
+            assertEquals(expectedRecord.adjustedPValue(), record.adjustedPValue(), 1e-15);
+            assertEquals(expectedRecord.enrichmentScore(), record.enrichmentScore(), 1e-12);
+            assertEquals(expectedRecord.avgLogFoldChange(), record.avgLogFoldChange(), 1e-12);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package nl.bioinf.gse;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GSEAServerTest {
+
+    @Test
+    void testServerAnswersRequests() throws IOException {
+        GeneDictionary geneDictionary = new GeneDictionary();
+        Map<String, PathwayRecord> pathwayRecords = new HashMap<>();
+        pathwayRecords.put("P1", PathwayRecord.of("P1", "Pathway \"one\"", List.of("GeneA", "GeneB"), geneDictionary));
+        pathwayRecords.put("P2", PathwayRecord.of("P2", "Pathway two", List.of("GeneC"), geneDictionary));
+        Map<String, PathwayIndex> pathwayIndices = new LinkedHashMap<>();
+        pathwayIndices.put("Gene_symbol", new PathwayIndex(pathwayRecords));
+
+        try (GSEAServer server = new GSEAServer(pathwayIndices, 2, "hash", "auto", 0.05, 1)) {
+            int port = server.start(0);
+
+            String table = "gene\tlogFC\tpadj\nGeneA\t1.5\t0.01\nGeneB\t-0.5\t0.2\nGeneC\t2.0\tNA\nGeneD\t0.1\t0.9\n";
+            HttpURLConnection connection = post(port, "/gsea?threshold=0.05", table);
+            assertEquals(200, connection.getResponseCode());
+            String response = read(connection.getInputStream());
+            assertTrue(response.startsWith("{\"geneType\":\"Gene_symbol\",\"threshold\":0.05,\"genes\":3,\"results\":["));
+            assertTrue(response.contains("\"pathwayID\":\"P1\",\"description\":\"Pathway \\\"one\\\"\""));
+            assertTrue(response.contains("\"observedDEGs\":1.0"));
+
+            // Bad input is reported as a bad request, the wrong method is rejected
+            HttpURLConnection badRequest = post(port, "/gsea", "gene,logFC,padj\nGeneA,high,0.01\n");
+            assertEquals(400, badRequest.getResponseCode());
+            assertTrue(read(badRequest.getErrorStream()).startsWith("{\"error\":"));
+            HttpURLConnection wrongMethod = (HttpURLConnection) new URL("http://localhost:" + port + "/gsea").openConnection();
+            assertEquals(405, wrongMethod.getResponseCode());
+
+            HttpURLConnection health = (HttpURLConnection) new URL("http://localhost:" + port + "/health").openConnection();
+            assertEquals("{\"status\":\"ok\",\"libraries\":{\"Gene_symbol\":2}}", read(health.getInputStream()));
+        }
+    }
+
+    @Test
+    void testServerHandlesOverlappingRequests() throws IOException {
+        GeneDictionary geneDictionary = new GeneDictionary();
+        Map<String, PathwayRecord> pathwayRecords = new HashMap<>();
+        pathwayRecords.put("P1", PathwayRecord.of("P1", "Pathway one", List.of("GeneA", "GeneB"), geneDictionary));
+        Map<String, PathwayIndex> pathwayIndices = new LinkedHashMap<>();
+        pathwayIndices.put("Gene_symbol", new PathwayIndex(pathwayRecords));
+        String table = "gene\tlogFC\tpadj\nGeneA\t1.5\t0.01\nGeneB\t-0.5\t0.2\n";
+        byte[] body = table.getBytes(StandardCharsets.UTF_8);
+
+        try (GSEAServer server = new GSEAServer(pathwayIndices, 2, "hash", "auto", 0.05, 1);
+             Socket slowClient = new Socket(InetAddress.getLoopbackAddress(), server.start(0))) {
+            int port = slowClient.getPort();
+
+            // The first request only sends half of its body, so its handler thread waits for the rest
+            OutputStream slowOutput = slowClient.getOutputStream();
+            slowOutput.write(("POST /gsea HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length + "\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            slowOutput.write(body, 0, body.length / 2);
+            slowOutput.flush();
+
+            // A second request is answered in the meantime by another thread
+            HttpURLConnection connection = post(port, "/gsea", table);
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(read(connection.getInputStream()).contains("\"pathwayID\":\"P1\""));
+
+            // The first request is answered once its body is complete
+            slowOutput.write(body, body.length / 2, body.length - body.length / 2);
+            slowOutput.flush();
+            slowClient.setSoTimeout(10000);
+            String response = read(slowClient.getInputStream());
+            assertTrue(response.startsWith("HTTP/1.1 200"));
+            assertTrue(response.contains("\"pathwayID\":\"P1\""));
+        }
+    }
+
+    private static HttpURLConnection post(int port, String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        connection.setRequestMethod("POST");
+        // A request that isn't answered fails the test instead of blocking it
+        connection.setReadTimeout(10000);
+        connection.setDoOutput(true);
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return connection;
+    }
+
+    private static String read(InputStream input) throws IOException {
+        try (input) {
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
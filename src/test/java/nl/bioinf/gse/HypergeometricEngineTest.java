@@ -0,0 +1,73 @@
+package nl.bioinf.gse;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HypergeometricEngineTest {
+
+    private HypergeometricEngine engine;
+    private GSEA gsea;
+
+    @BeforeEach
+    void setUp() {
+        engine = new HypergeometricEngine(1000);
+        gsea = new GSEA();
+    }
+
+    @Test
+    void testLogFactorial() {
+        assertEquals(0.0, engine.logFactorial(0));
+        assertEquals(0.0, engine.logFactorial(1));
+        assertEquals(Math.log(120), engine.logFactorial(5), 1e-12);
+
+        // Outside the table the log-gamma fallback is used
+        double expected = engine.logFactorial(1000) + Math.log(1001);
+        assertEquals(expected, engine.logFactorial(1001), 1e-6);
+    }
+
+    @Test
+    void testLogBinomialCoefficient() {
+        assertEquals(Math.log(252), engine.logBinomialCoefficient(10, 5), 1e-12);
+        assertEquals(0.0, engine.logBinomialCoefficient(10, 0), 1e-12);
+        assertEquals(Double.NEGATIVE_INFINITY, engine.logBinomialCoefficient(5, 6));
+    }
+
+    @Test
+    void testPValueMatchesProductLoop() {
+        // Small enough for the product-loop implementation to be exact
+        long[][] cases = {{3, 100, 20, 200}, {10, 40, 30, 500}, {1, 5, 10, 900}, {15, 60, 25, 1000}};
+        for (long[] c : cases) {
+            double expected = gsea.calculatePValue(c[0], c[1], c[2], c[3]);
+            double actual = engine.calculatePValue(c[0], c[1], c[2], c[3]);
+            assertEquals(expected, actual, 1e-10);
+        }
+    }
+
+    @Test
+    void testVerySmallPValue() {
+        // All 100 genes of the pathway are DEGs, p = 1 / (1000 choose 100)
+        double pValue = engine.calculatePValue(100, 100, 100, 1000);
+        double expectedLog = -engine.logBinomialCoefficient(1000, 100);
+        assertTrue(pValue > 0.0);
+        assertEquals(expectedLog, Math.log(pValue), 1e-8);
+    }
+
+    @Test
+    void testLargePathwayDoesNotOverflow() {
+        HypergeometricEngine large = new HypergeometricEngine(38000);
+        double pValue = large.calculatePValue(900, 5000, 4000, 38000);
+        assertFalse(Double.isNaN(pValue));
+        assertTrue(pValue >= 0.0 && pValue <= 1.0);
+    }
+
+    @Test
+    void testEdgeCases() {
+        assertEquals(1.0, engine.calculatePValue(0, 0, 0, 0));
+        assertEquals(1.0, engine.calculatePValue(5, 0, 50, 1000));
+        assertEquals(1.0, engine.calculatePValue(5, 200, 0, 1000));
+        assertEquals(1.0, engine.calculatePValue(0, 200, 50, 1000));
+        assertEquals(0.0, engine.calculatePValue(51, 200, 50, 1000));
+    }
+}
@@ -0,0 +1,76 @@
+package nl.bioinf.gse;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultipleTestingCorrectionTest {
+
+    @Test
+    void testCorrectionsOfAKnownExample() {
+        double[] pValues = {0.01, 0.04, 0.03, 0.005};
+        assertArrayEquals(new double[]{0.04, 0.16, 0.12, 0.02}, MultipleTestingCorrection.forName("bonferroni").adjust(pValues), 1e-12);
+        assertArrayEquals(new double[]{0.03, 0.06, 0.06, 0.02}, MultipleTestingCorrection.forName("holm").adjust(pValues), 1e-12);
+        assertArrayEquals(new double[]{0.02, 0.04, 0.04, 0.02}, MultipleTestingCorrection.forName("BH").adjust(pValues), 1e-12);
+        // Benjamini-Yekutieli multiplies Benjamini-Hochberg by 1 + 1/2 + 1/3 + 1/4
+        double harmonicNumber = 25.0 / 12.0;
+        assertArrayEquals(new double[]{0.02 * harmonicNumber, 0.04 * harmonicNumber, 0.04 * harmonicNumber, 0.02 * harmonicNumber},
+                MultipleTestingCorrection.forName("by").adjust(pValues), 1e-12);
+        // The input is left alone
+        assertArrayEquals(new double[]{0.01, 0.04, 0.03, 0.005}, pValues);
+
+        // NaN stays NaN and isn't counted as a test
+        assertArrayEquals(new double[]{0.02, Double.NaN, 0.02}, MultipleTestingCorrection.forName("bh").adjust(new double[]{0.01, Double.NaN, 0.02}), 1e-12);
+        assertEquals(0, MultipleTestingCorrection.forName("holm").adjust(new double[0]).length);
+        assertThrows(IllegalArgumentException.class, () -> MultipleTestingCorrection.forName("fdr"));
+
+        // Only Bonferroni can adjust a p-value without the others
+        assertTrue(MultipleTestingCorrection.forName("bonferroni").adjustsEachPValue());
+        assertEquals(0.16, MultipleTestingCorrection.forName("bonferroni").adjust(0.04, 4), 1e-12);
+        assertFalse(MultipleTestingCorrection.forName("bh").adjustsEachPValue());
+        assertThrows(UnsupportedOperationException.class, () -> MultipleTestingCorrection.forName("holm").adjust(0.04, 4));
+    }
+
+    @Test
+    void testCorrectionsMatchTheirDefinitions() {
+        Random random = new Random(3);
+        for (int n = 1; n < 120; n++) {
+            // Rounded p-values give many ties
+            double[] pValues = new double[n];
+            for (int i = 0; i < n; i++) {
+                pValues[i] = Math.round(random.nextDouble() * random.nextDouble() * 40) / 40.0;
+            }
+            double[] holm = MultipleTestingCorrection.forName("holm").adjust(pValues);
+            double[] bh = MultipleTestingCorrection.forName("bh").adjust(pValues);
+            double[] bonferroni = MultipleTestingCorrection.forName("bonferroni").adjust(pValues);
+
+            for (int i = 0; i < n; i++) {
+                // Holm: the largest (n - rank + 1) * p of all p-values up to this one, with the lowest rank of ties
+                // Benjamini-Hochberg: the smallest n / rank * p of all p-values from this one up, with the highest rank of ties
+                double expectedHolm = 0.0;
+                double expectedBH = 1.0;
+                for (int j = 0; j < n; j++) {
+                    int lowestRank = 1;
+                    int highestRank = 0;
+                    for (double other : pValues) {
+                        lowestRank += other < pValues[j] ? 1 : 0;
+                        highestRank += other <= pValues[j] ? 1 : 0;
+                    }
+                    if (pValues[j] <= pValues[i]) {
+                        expectedHolm = Math.max(expectedHolm, Math.min(1.0, (n - lowestRank + 1) * pValues[j]));
+                    }
+                    if (pValues[j] >= pValues[i]) {
+                        expectedBH = Math.min(expectedBH, (double) n / highestRank * pValues[j]);
+                    }
+                }
+                assertEquals(expectedHolm, holm[i], 1e-12);
+                assertEquals(expectedBH, bh[i], 1e-12);
+                assertEquals(new GSEA().adjustPValue(pValues[i], n), bonferroni[i]);
+                // Benjamini-Hochberg never rejects less than Holm, which never rejects less than Bonferroni
+                assertTrue(bh[i] <= holm[i] + 1e-12 && holm[i] <= bonferroni[i] + 1e-12);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package nl.bioinf.gse;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PermutationEngineTest {
+
+    private Map<String, PathwayStatistics> pathwayStatistics;
+
+    @BeforeEach
+    void setUp() {
+        // 1000 classified genes of which 100 are DEGs
+        pathwayStatistics = new LinkedHashMap<>();
+        pathwayStatistics.put("Enriched", statistics("Enriched", 12, 28));
+        pathwayStatistics.put("Depleted", statistics("Depleted", 1, 49));
+        pathwayStatistics.put("Empty", statistics("Empty", 0, 10));
+    }
+
+    private static PathwayStatistics statistics(String pathwayID, long degsInPathway, long nonDEGsInPathway) {
+        FoldChangeSummary empty = new FoldChangeSummary(0, Double.NaN, Double.NaN);
+        ContingencyTable table = new ContingencyTable(pathwayID, degsInPathway, nonDEGsInPathway, 100, 900, 0.05);
+        return new PathwayStatistics(table, empty, empty, empty);
+    }
+
+    @Test
+    void testEmpiricalPValueMatchesHypergeometric() {
+        Map<String, PermutationResult> results = new PermutationEngine(20000, 7, 1).calculateEmpiricalPValues(pathwayStatistics);
+
+        // Permuting the DEG labels samples the same distribution as the hypergeometric test
+        double expected = new HypergeometricEngine(1000).calculatePValue(12, 100, 40, 1000);
+        PermutationResult enriched = results.get("Enriched");
+        assertEquals(20000, enriched.permutations());
+        assertEquals(expected, enriched.empiricalPValue(), 0.002);
+    }
+
+    @Test
+    void testEarlyStopForNonSignificantPathways() {
+        Map<String, PermutationResult> results = new PermutationEngine(10000, 7, 1).calculateEmpiricalPValues(pathwayStatistics);
+
+        PermutationResult depleted = results.get("Depleted");
+        assertTrue(depleted.permutations() < 100);
+        assertEquals(10, depleted.exceedances());
+        assertTrue(depleted.empiricalPValue() > 0.1);
+
+        // A pathway without DEGs is never significant and needs no permutations
+        assertEquals(1.0, results.get("Empty").empiricalPValue());
+        assertEquals(0, results.get("Empty").permutations());
+    }
+
+    @Test
+    void testSameSeedGivesSameResultsForAnyThreadCount() {
+        Map<String, PermutationResult> sequential = new PermutationEngine(5000, 11, 1).calculateEmpiricalPValues(pathwayStatistics);
+        Map<String, PermutationResult> parallel = new PermutationEngine(5000, 11, 4).calculateEmpiricalPValues(pathwayStatistics);
+        assertEquals(sequential, parallel);
+
+        assertThrows(IllegalArgumentException.class, () -> new PermutationEngine(0, 11, 1));
+        assertThrows(IllegalArgumentException.class, () -> new PermutationEngine(100, 11, 0));
+    }
+}
@@ -0,0 +1,95 @@
+package nl.bioinf.gse;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultCacheTest {
+
+    private static ResultCache.Entry entry(int pathways) {
+        List<GSEARecord> gseaResults = new ArrayList<>();
+        Map<String, PathwayStatistics> pathwayStatistics = new LinkedHashMap<>();
+        for (int i = 0; i < pathways; i++) {
+            String pathwayID = "P" + i;
+            gseaResults.add(new GSEARecord(pathwayID, 0.01 * i, 0.02 * i, 1.5 - i, i, 2.5, "Pathway " + i + " \u00e9", i / 3.0));
+            ContingencyTable table = new ContingencyTable(pathwayID, i, 10 - i, 20, 100, 0.05);
+            pathwayStatistics.put(pathwayID, new PathwayStatistics(table, new FoldChangeSummary(10, 0.5, 1.2),
+                    new FoldChangeSummary(i, 1.0, 0.1), new FoldChangeSummary(0, Double.NaN, Double.NaN)));
+        }
+        return new ResultCache.Entry(gseaResults, pathwayStatistics, Map.of("P1", new PermutationResult("P1", 1000, 4, 0.005)));
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    void testEntriesAreKeyedByContentsAndParameters() throws IOException {
+        Path directory = Files.createTempDirectory("result_cache");
+        try {
+            Path geneFile = directory.resolve("genes.tsv");
+            Files.writeString(geneFile, "GeneA\t1.5\t0.01\n");
+            Map<String, String> parameters = Map.of("treshold", "0.05");
+            String key = ResultCache.key(List.of(geneFile), parameters);
+
+            ResultCache resultCache = new ResultCache(directory.resolve("cache"), 1 << 20);
+            assertNull(resultCache.get(key));
+            ResultCache.Entry expected = entry(5);
+            resultCache.put(key, expected);
+            assertEquals(expected, resultCache.get(key));
+
+            // Other parameters or changed contents give another key
+            assertEquals(key, ResultCache.key(List.of(geneFile), Map.of("treshold", "0.05")));
+            assertNotEquals(key, ResultCache.key(List.of(geneFile), Map.of("treshold", "0.01")));
+            Files.writeString(geneFile, "GeneA\t1.5\t0.02\n");
+            assertNotEquals(key, ResultCache.key(List.of(geneFile), parameters));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntriesAreEvicted() throws IOException {
+        Path directory = Files.createTempDirectory("result_cache");
+        try {
+            // Measure one entry, then allow room for two of them
+            ResultCache measure = new ResultCache(directory.resolve("measure"), Long.MAX_VALUE);
+            measure.put("size", entry(50));
+            long entrySize;
+            try (Stream<Path> files = Files.list(directory.resolve("measure"))) {
+                entrySize = Files.size(files.findFirst().orElseThrow());
+            }
+
+            Path cacheDirectory = directory.resolve("cache");
+            ResultCache resultCache = new ResultCache(cacheDirectory, entrySize * 2 + entrySize / 2);
+            resultCache.put("a", entry(50));
+            resultCache.put("b", entry(50));
+            Files.setLastModifiedTime(cacheDirectory.resolve("a.gseresult"), FileTime.fromMillis(1000));
+            Files.setLastModifiedTime(cacheDirectory.resolve("b.gseresult"), FileTime.fromMillis(2000));
+
+            // Reading "a" makes "b" the least recently used entry
+            assertNotNull(resultCache.get("a"));
+            resultCache.put("c", entry(50));
+            assertNotNull(resultCache.get("a"));
+            assertNull(resultCache.get("b"));
+            assertNotNull(resultCache.get("c"));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package nl.bioinf.gse;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultsWriterTest {
+
+    @Test
+    void testGSEAResultsAreReadBack() throws IOException {
+        // Enough pathways to fill the buffer more than once, with descriptions that need quoting
+        List<GSEARecord> gseaResults = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            gseaResults.add(new GSEARecord("P" + i, i * 1e-5, i * 2e-5, -1.5 + i, i % 10, 2.5, "Pathway " + i + ", \"part\" " + i % 3, i / 7.0));
+        }
+        Map<String, PermutationResult> empiricalPValues = Map.of("P1", new PermutationResult("P1", 1000, 4, 0.005));
+
+        Path outputFile = Files.createTempFile("gsea_results", ".csv");
+        try (ResultsWriter resultsWriter = new ResultsWriter(outputFile)) {
+            resultsWriter.writeGSEAResults(gseaResults, empiricalPValues);
+        }
+
+        try {
+            // Read back with the quote-aware tokenizer of the parser
+            MappedTokenizer tokenizer = new MappedTokenizer(outputFile.toString(), ',');
+            assertTrue(tokenizer.nextLine());
+            assertEquals(9, tokenizer.fieldCount());
+            assertEquals("Empirical P-Value", tokenizer.field(8));
+            for (GSEARecord expected : gseaResults) {
+                assertTrue(tokenizer.nextLine());
+                assertEquals(expected.pathwayID(), tokenizer.field(0));
+                assertEquals(expected.description(), tokenizer.field(1));
+                assertEquals(expected.pValue(), tokenizer.parseDouble(2));
+                assertEquals(expected.enrichmentScore(), tokenizer.parseDouble(4));
+                assertEquals(expected.avgLogFoldChange(), tokenizer.parseDouble(7));
+                assertEquals(expected.pathwayID().equals("P1") ? "0.005" : "", tokenizer.field(8));
+            }
+            assertFalse(tokenizer.nextLine());
+        } finally {
+            Files.delete(outputFile);
+        }
+    }
+
+    @Test
+    void testGeneAnnotationsAreTabSeparated() throws IOException {
+        GeneDictionary geneDictionary = new GeneDictionary();
+        Map<String, PathwayRecord> pathwayRecords = new HashMap<>();
+        pathwayRecords.put("P1", PathwayRecord.of("P1", "Pathway 1", List.of("GeneA", "GeneB"), geneDictionary));
+        pathwayRecords.put("P2", PathwayRecord.of("P2", "Pathway 2", List.of("GeneA"), geneDictionary));
+        PathwayIndex pathwayIndex = new PathwayIndex(pathwayRecords);
+        List<GeneRecord> geneRecords = List.of(new GeneRecord("GeneA", 1.5, 0.01), new GeneRecord("GeneC", -0.5, 0.2));
+
+        Path outputFile = Files.createTempFile("gene_annotations", ".tsv");
+        try (ResultsWriter resultsWriter = new ResultsWriter(outputFile)) {
+            resultsWriter.writeGeneAnnotations(geneRecords, pathwayIndex, 0.05);
+        }
+
+        List<String> lines = Files.readAllLines(outputFile);
+        Files.delete(outputFile);
+        assertEquals("Gene\tLog Fold Change\tAdjusted P-Value\tDEG\tPathways", lines.get(0));
+        assertTrue(lines.get(1).equals("GeneA\t1.5\t0.01\ttrue\tP1;P2") || lines.get(1).equals("GeneA\t1.5\t0.01\ttrue\tP2;P1"));
+        assertEquals("GeneC\t-0.5\t0.2\tfalse\t", lines.get(2));
+    }
+}
@@ -0,0 +1,56 @@
+package nl.bioinf.gse;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TableBuilderTest {
+
+    private List<GeneRecord> geneRecords;
+    private Map<String, PathwayRecord> pathwayRecords;
+
+    @BeforeEach
+    void setUp() {
+        geneRecords = List.of(
+                new GeneRecord("GeneA", 1.5, 0.01),
+                new GeneRecord("GeneB", -2.0, 0.02),
+                new GeneRecord("GeneC", 0.8, 0.30),
+                new GeneRecord("GeneD", 0.1, 0.05),  // exactly on the threshold, neither DEG nor non-DEG
+                new GeneRecord("GeneE", -0.4, 0.60),
+                new GeneRecord("GeneF", 2.2, 0.001),
+                new GeneRecord("GeneA", 0.9, 0.40),  // a second row of the same gene counts as well
+                new GeneRecord("GeneY", 3.1, 0.002)); // in no pathway
+
+        GeneDictionary geneDictionary = new GeneDictionary();
+        pathwayRecords = new LinkedHashMap<>();
+        pathwayRecords.put("P1", PathwayRecord.of("P1", "Pathway One", List.of("GeneA", "GeneC", "GeneD", "GeneX"), geneDictionary));
+        pathwayRecords.put("P2", PathwayRecord.of("P2", "Pathway Two", List.of("GeneB", "GeneF", "GeneE", "GeneA"), geneDictionary));
+        pathwayRecords.put("P3", PathwayRecord.of("P3", "Pathway Three", List.of("GeneX"), geneDictionary));
+    }
+
+    @Test
+    void testIndexCountsMatchPathwayScans() {
+        PathwayIndex pathwayIndex = new PathwayIndex(pathwayRecords);
+        for (double treshold : new double[]{0.05, 0.3, 1.0}) {
+            int[] degCounts = TableBuilder.degsPerPathway(pathwayIndex, geneRecords, treshold);
+            int[] nonDEGCounts = TableBuilder.nonDEGsPerPathway(pathwayIndex, geneRecords, treshold);
+            assertEquals(pathwayRecords.size(), degCounts.length);
+
+            for (String pathwayID : pathwayRecords.keySet()) {
+                int ordinal = pathwayIndex.getPathwayOrdinal(pathwayID);
+                assertEquals(TableBuilder.degsInPathway(pathwayRecords, geneRecords, pathwayID, treshold), degCounts[ordinal]);
+                assertEquals(TableBuilder.nonDEGsInPathway(pathwayRecords, geneRecords, pathwayID, treshold), nonDEGCounts[ordinal]);
+            }
+        }
+
+        // P1 holds both rows of GeneA, of which only the first is a DEG at 0.05
+        int p1 = pathwayIndex.getPathwayOrdinal("P1");
+        assertEquals(1, TableBuilder.degsPerPathway(pathwayIndex, geneRecords, 0.05)[p1]);
+        assertEquals(2, TableBuilder.nonDEGsPerPathway(pathwayIndex, geneRecords, 0.05)[p1]);
+    }
+}
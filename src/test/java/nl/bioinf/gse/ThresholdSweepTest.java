@@ -0,0 +1,77 @@
+package nl.bioinf.gse;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThresholdSweepTest {
+
+    private List<GeneRecord> geneRecords;
+    private Map<String, PathwayRecord> pathwayRecords;
+
+    @BeforeEach
+    void setUp() {
+        geneRecords = List.of(
+                new GeneRecord("GeneA", 1.5, 0.01),
+                new GeneRecord("GeneB", -2.0, 0.02),
+                new GeneRecord("GeneC", 0.8, 0.30),
+                new GeneRecord("GeneD", 0.1, 0.05),  // exactly on a threshold
+                new GeneRecord("GeneE", -0.4, 0.60),
+                new GeneRecord("GeneF", 2.2, 0.001));
+
+        GeneDictionary geneDictionary = new GeneDictionary();
+        pathwayRecords = new HashMap<>();
+        pathwayRecords.put("P1", PathwayRecord.of("P1", "Pathway One", List.of("GeneA", "GeneC", "GeneD", "GeneX"), geneDictionary));
+        pathwayRecords.put("P2", PathwayRecord.of("P2", "Pathway Two", List.of("GeneB", "GeneF", "GeneE", "GeneA"), geneDictionary));
+    }
+
+    @Test
+    void testThresholdSweepMatchesSingleThresholds() {
+        PathwayIndex pathwayIndex = new PathwayIndex(pathwayRecords);
+        // Unsorted on purpose, 0.02 and 0.05 are exactly the p-values of GeneB and GeneD
+        double[] thresholds = {0.5, 0.02, 0.05, 0.001};
+        Map<Double, Map<String, PathwayStatistics>> sweep = ThresholdSweep.sweep(pathwayIndex, geneRecords, thresholds);
+        assertEquals(List.of(0.001, 0.02, 0.05, 0.5), List.copyOf(sweep.keySet()));
+
+        for (double threshold : thresholds) {
+            Map<String, PathwayStatistics> expected = PathwayStatistics.buildAll(pathwayIndex, geneRecords, threshold);
+            for (String pathwayID : pathwayRecords.keySet()) {
+                PathwayStatistics expectedStatistics = expected.get(pathwayID);
+                PathwayStatistics sweepStatistics = sweep.get(threshold).get(pathwayID);
+                assertEquals(expectedStatistics.table(), sweepStatistics.table());
+                assertEquals(expectedStatistics.avgLogFoldChange(), sweepStatistics.avgLogFoldChange(), 1e-12);
+                assertEquals(expectedStatistics.upRegulated().count(), sweepStatistics.upRegulated().count());
+                assertEquals(expectedStatistics.upRegulated().mean(), sweepStatistics.upRegulated().mean(), 1e-12);
+                assertEquals(expectedStatistics.downRegulated().count(), sweepStatistics.downRegulated().count());
+            }
+        }
+    }
+
+    @Test
+    void testFactorySweepMatchesSingleRuns() {
+        PathwayIndex pathwayIndex = new PathwayIndex(pathwayRecords);
+        double[] thresholds = {0.02, 0.5};
+        // The sweep counts like the hash backend, which gives the same counts as the bitset backend
+        List<ThresholdResult> sweepResults = new GSEAFactory(1, "bitset").performThresholdSweep(pathwayIndex, geneRecords, thresholds);
+        assertEquals(thresholds.length * pathwayRecords.size(), sweepResults.size());
+
+        int index = 0;
+        for (double threshold : thresholds) {
+            GSEAFactory gseaFactory = new GSEAFactory(1, "bitset");
+            List<GSEARecord> expected = gseaFactory.performGSEA(pathwayIndex, gseaFactory.collectStatistics(pathwayIndex, geneRecords, threshold));
+            for (GSEARecord expectedRecord : expected) {
+                ThresholdResult sweepResult = sweepResults.get(index++);
+                assertEquals(threshold, sweepResult.threshold());
+                assertEquals(expectedRecord.pathwayID(), sweepResult.result().pathwayID());
+                assertEquals(expectedRecord.pValue(), sweepResult.result().pValue(), 1e-15);
+                assertEquals(expectedRecord.adjustedPValue(), sweepResult.result().adjustedPValue(), 1e-15);
+                assertEquals(expectedRecord.observedDEGs(), sweepResult.result().observedDEGs());
+            }
+        }
+    }
+}
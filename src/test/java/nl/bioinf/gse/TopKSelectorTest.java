@@ -0,0 +1,42 @@
+package nl.bioinf.gse;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopKSelectorTest {
+
+    @Test
+    void testSelectionMatchesStableSort() {
+        // Few distinct values, so many scores are tied, plus a NaN that ranks highest like in Double.compare
+        Random random = new Random(7);
+        double[] scores = new double[1000];
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = random.nextInt(50) / 10.0;
+            indices.add(i);
+        }
+        scores[500] = Double.NaN;
+
+        List<Integer> sorted = indices.stream()
+                .sorted(Comparator.comparingDouble((Integer i) -> scores[i]).reversed())
+                .collect(Collectors.toList());
+        for (int k : new int[]{0, 1, 20, 999, 1000, 5000}) {
+            int[] selected = TopKSelector.select(scores, k);
+            List<Integer> expected = sorted.subList(0, Math.min(k, scores.length));
+            assertEquals(expected, Arrays.stream(selected).boxed().collect(Collectors.toList()));
+        }
+
+        // The list form returns the items themselves
+        List<String> names = List.of("a", "bbb", "cc", "dddd");
+        assertEquals(List.of("dddd", "bbb"), TopKSelector.select(names, String::length, 2));
+        assertThrows(IllegalArgumentException.class, () -> TopKSelector.select(scores, -1));
+    }
+}